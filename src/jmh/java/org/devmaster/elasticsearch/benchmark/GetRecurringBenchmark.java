@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.benchmark;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per document of reading a recurring field the way the scripts do, from the doc values of one segment holding
+ * a few hundred distinct rules.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GetRecurringBenchmark {
+
+    private static final String FIELD = "recurrent_date";
+    private static final int DOCS = 100_000;
+    private static final int RULES = 500;
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private LeafReader leaf;
+    private final RecurrenceRuleCache ruleCache = new RecurrenceRuleCache(Settings.EMPTY, null);
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            long firstDay = EpochDays.of(2019, 1, 1);
+            for (int i = 0; i < DOCS; i++) {
+                Document doc = new Document();
+                doc.add(new SortedNumericDocValuesField(FIELD + "." + RecurringFieldMapper.FieldNames.START_DATE,
+                        EpochDays.toMillis(firstDay + i % 365)));
+                if (i % 10 == 0) {
+                    doc.add(new SortedNumericDocValuesField(FIELD + "." + RecurringFieldMapper.FieldNames.END_DATE,
+                            EpochDays.toMillis(firstDay + i % 365 + 30)));
+                } else {
+                    doc.add(new SortedSetDocValuesField(FIELD + "." + RecurringFieldMapper.FieldNames.RRULE,
+                            new BytesRef("RRULE:FREQ=DAILY;INTERVAL=" + (1 + i % RULES))));
+                }
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        leaf = reader.leaves().get(0).reader();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public void docValues(Blackhole blackhole) throws IOException {
+        RecurringDocValues values = new RecurringDocValues(leaf, FIELD, ruleCache);
+        for (int doc = 0; doc < DOCS; doc++) {
+            blackhole.consume(values.get(doc));
+        }
+    }
+}
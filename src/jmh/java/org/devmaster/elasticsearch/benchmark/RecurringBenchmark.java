@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.benchmark;
+
+import org.devmaster.elasticsearch.Recurring;
+import org.joda.time.LocalDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link Recurring} predicates for the rule shapes found in practice, evaluated on a window around
+ * 2020-06-15.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class RecurringBenchmark {
+
+    @Param({"daily", "weekly_byday", "monthly_2su", "yearly", "long_count", "far_past"})
+    public String shape;
+
+    private Recurring recurring;
+    private LocalDate date;
+    private LocalDate windowEnd;
+
+    @Setup
+    public void setUp() {
+        switch (shape) {
+            case "daily":
+                recurring = new Recurring("2019-01-01", null, "RRULE:FREQ=DAILY");
+                break;
+            case "weekly_byday":
+                recurring = new Recurring("2019-01-01", null, "RRULE:FREQ=WEEKLY;BYDAY=MO,WE,FR");
+                break;
+            case "monthly_2su":
+                recurring = new Recurring("2019-01-01", null, "RRULE:FREQ=MONTHLY;BYDAY=2SU");
+                break;
+            case "yearly":
+                recurring = new Recurring("2012-10-31", null, "RRULE:FREQ=YEARLY;BYMONTH=10;BYMONTHDAY=31");
+                break;
+            case "long_count":
+                recurring = new Recurring("2019-01-01", null, "RRULE:FREQ=DAILY;COUNT=5000");
+                break;
+            case "far_past":
+                recurring = new Recurring("1950-01-01", null, "RRULE:FREQ=WEEKLY;BYDAY=TU");
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shape [" + shape + "]");
+        }
+        date = new LocalDate("2020-06-15");
+        windowEnd = new LocalDate("2020-07-15");
+    }
+
+    @Benchmark
+    public boolean hasOccurrencesAt() throws ParseException {
+        return recurring.hasOccurrencesAt(date);
+    }
+
+    @Benchmark
+    public boolean occurBetween() throws ParseException {
+        return recurring.occurBetween(date, windowEnd);
+    }
+
+    @Benchmark
+    public LocalDate getNextOccurrence() throws ParseException {
+        return recurring.getNextOccurrence(date);
+    }
+
+    @Benchmark
+    public List<String> occurrencesBetween() throws ParseException {
+        return recurring.occurrencesBetween(date, windowEnd);
+    }
+
+    @Benchmark
+    public boolean hasAnyOccurrenceBetween() throws ParseException {
+        return recurring.hasAnyOccurrenceBetween("2020-06-15T00:00:00Z", "2020-07-15T00:00:00Z");
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+public final class EpochDays {
+
+    public static final long MILLIS_PER_DAY = 86_400_000L;
+
+    /** 0000-01-01, the earliest day that queries will resolve to. */
+    public static final long MIN_VALUE = -719_528L;
+
+    /** 9999-12-31, the latest day that queries will resolve to. */
+    public static final long MAX_VALUE = 2_932_896L;
+
+    private EpochDays() {
+    }
+
+    public static long fromMillis(long millis) {
+        return Math.floorDiv(millis, MILLIS_PER_DAY);
+    }
+
+    public static long toMillis(long epochDay) {
+        return epochDay * MILLIS_PER_DAY;
+    }
+
+    public static long of(LocalDate date) {
+        return of(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth());
+    }
+
+    public static LocalDate toLocalDate(long epochDay) {
+        return new LocalDate(toMillis(epochDay), DateTimeZone.UTC);
+    }
+
+    /*
+     * Proleptic Gregorian conversions on plain integers, see
+     * http://howardhinnant.github.io/date_algorithms.html
+     */
+
+    public static long of(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+    public static int year(long epochDay) {
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int month = monthOfYear(epochDay);
+        return (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+    }
+
+    public static int monthOfYear(long epochDay) {
+        long mp = (5 * dayOfMarchYear(epochDay) + 2) / 153;
+        return (int) (mp < 10 ? mp + 3 : mp - 9);
+    }
+
+    public static int dayOfMonth(long epochDay) {
+        long dayOfYear = dayOfMarchYear(epochDay);
+        long mp = (5 * dayOfYear + 2) / 153;
+        return (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+    }
+
+    /**
+     * Returns the day of the week, from 0 for Sunday to 6 for Saturday.
+     */
+    public static int dayOfWeek(long epochDay) {
+        return (int) Math.floorMod(epochDay + 4, 7L);
+    }
+
+    public static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    public static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // day of the year for years starting on March 1st, which puts leap days last
+    private static long dayOfMarchYear(long epochDay) {
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        return dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch;
+
+import org.apache.lucene.util.BytesRef;
+import org.devmaster.elasticsearch.rrule.RecurrenceRule;
+
+import java.text.ParseException;
+
+/**
+ * The days an event occurs in a window of days, one bit per day. Encoded as the first day of the window, as an epoch
+ * day, and its length in days, both as big endian ints, followed by the bits of each day from the first one, eight to
+ * a byte with the lowest bit first. An instance reads the bitmaps of many documents, one at a time.
+ */
+public final class OccurrenceBitmap {
+
+    private static final int HEADER_LENGTH = 8;
+
+    private byte[] bytes;
+    private int bitsOffset;
+    private int bitsLength;
+    private long base;
+    private int days;
+
+    /**
+     * Encodes the occurrences of {@code recurring} from {@code base} for {@code days} days.
+     */
+    public static BytesRef encode(Recurring recurring, long base, int days) throws ParseException {
+        byte[] bytes = new byte[HEADER_LENGTH + (days + 7) / 8];
+        writeInt(bytes, 0, Math.toIntExact(base));
+        writeInt(bytes, 4, days);
+        OccurrenceIterator occurrences = recurring.occurrences(base, base + days - 1);
+        for (long day = occurrences.day(); day != OccurrenceIterator.NO_MORE_OCCURRENCES;
+             day = occurrences.nextOccurrence()) {
+            int bit = (int) (day - base);
+            bytes[HEADER_LENGTH + (bit >>> 3)] |= 1 << (bit & 7);
+        }
+        return new BytesRef(bytes);
+    }
+
+    /**
+     * Points this instance to the bitmap in {@code ref}, which has to stay unchanged while it is read.
+     */
+    public void reset(BytesRef ref) {
+        bytes = ref.bytes;
+        base = readInt(bytes, ref.offset);
+        days = readInt(bytes, ref.offset + 4);
+        bitsOffset = ref.offset + HEADER_LENGTH;
+        bitsLength = ref.length - HEADER_LENGTH;
+    }
+
+    /**
+     * Returns the first occurrence between {@code from} and {@code to}, both inclusive, or
+     * {@link RecurrenceRule#NO_OCCURRENCE} if there is none. Returns {@link RecurrenceRule#UNKNOWN} if the answer
+     * depends on days outside the window.
+     */
+    public long nextOccurrence(long from, long to) {
+        if (from < base || from >= base + days) {
+            return RecurrenceRule.UNKNOWN;
+        }
+        int first = (int) (from - base);
+        int last = (int) Math.min(to - base, days - 1);
+        for (int bit = first; bit <= last; bit += 64 - (bit & 7)) {
+            long word = word(bit);
+            if (word != 0) {
+                int next = bit + Long.numberOfTrailingZeros(word);
+                if (next <= last) {
+                    return base + next;
+                }
+                break;
+            }
+        }
+        return to < base + days ? RecurrenceRule.NO_OCCURRENCE : RecurrenceRule.UNKNOWN;
+    }
+
+    // the bits from the given one on, at least 57 of them unless the bitmap ends first
+    private long word(int bit) {
+        int index = bit >>> 3;
+        int count = Math.min(8, bitsLength - index);
+        long word = 0;
+        for (int i = 0; i < count; i++) {
+            word |= (bytes[bitsOffset + index + i] & 0xFFL) << (i << 3);
+        }
+        return word >>> (bit & 7);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8
+                | bytes[offset + 3] & 0xFF;
+    }
+}
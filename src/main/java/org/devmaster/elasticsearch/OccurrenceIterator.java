@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch;
+
+import com.google.ical.compat.jodatime.LocalDateIterator;
+import org.devmaster.elasticsearch.rrule.RecurrenceRule;
+
+import java.text.ParseException;
+
+/**
+ * Occurrences of one event between two epoch days, produced in order one at a time. Unless it was created for an
+ * evaluation of a {@link Recurring}, whose iterator steps it uses, it doesn't depend on the instance it was created
+ * from, so that many can be kept around and advanced in turns.
+ */
+public final class OccurrenceIterator {
+
+    public static final long NO_MORE_OCCURRENCES = Long.MAX_VALUE;
+
+    private final long start;
+    private final long last;
+    private final RecurrenceRule rule;
+    private final long to;
+    // the evaluation paying for the iterator steps, null if they are not limited
+    private final Recurring budget;
+    // only built once the rule can't be answered by calendar arithmetic
+    private LocalDateIterator it;
+    private long day;
+
+    OccurrenceIterator(long start, long end, RecurrenceRule rule, long from, long to, Recurring budget)
+            throws ParseException {
+        this.start = start;
+        this.last = end != Recurring.NO_DAY && end > start ? end : start;
+        this.rule = rule;
+        this.to = to;
+        this.budget = budget;
+        this.day = advance(from);
+    }
+
+    /**
+     * Returns the current occurrence, or {@link #NO_MORE_OCCURRENCES} once all of them were produced.
+     */
+    public long day() {
+        return day;
+    }
+
+    /**
+     * Moves to the following occurrence and returns it.
+     */
+    public long nextOccurrence() throws ParseException {
+        if (day != NO_MORE_OCCURRENCES) {
+            day = advance(day + 1);
+        }
+        return day;
+    }
+
+    /**
+     * Moves to the first occurrence on or after {@code target}, if the current one is before it, and returns it.
+     */
+    public long advanceTo(long target) throws ParseException {
+        if (day != NO_MORE_OCCURRENCES && target > day) {
+            day = advance(target);
+        }
+        return day;
+    }
+
+    private long advance(long from) throws ParseException {
+        if (from > to) {
+            return NO_MORE_OCCURRENCES;
+        }
+        if (rule == null) {
+            long next = Math.max(from, start);
+            return next <= Math.min(to, last) ? next : NO_MORE_OCCURRENCES;
+        }
+        if (it == null) {
+            long next = rule.nextOccurrence(start, from);
+            if (next != RecurrenceRule.UNKNOWN) {
+                return next <= to ? next : NO_MORE_OCCURRENCES;
+            }
+            it = rule.iterator(EpochDays.toLocalDate(start), false);
+        }
+        // running out of steps ends the occurrences, as Recurring's own evaluations do
+        if (budget != null && !budget.spendSteps(rule.advanceSteps(start, from))) {
+            return NO_MORE_OCCURRENCES;
+        }
+        it.advanceTo(EpochDays.toLocalDate(from));
+        if (!it.hasNext() || (budget != null && !budget.spendSteps(1))) {
+            return NO_MORE_OCCURRENCES;
+        }
+        long next = EpochDays.of(it.next());
+        return next <= to ? next : NO_MORE_OCCURRENCES;
+    }
+}
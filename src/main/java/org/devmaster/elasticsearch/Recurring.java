@@ -15,7 +15,7 @@
 package org.devmaster.elasticsearch;
 
 import com.google.ical.compat.jodatime.LocalDateIterator;
-import com.google.ical.compat.jodatime.LocalDateIteratorFactory;
+import org.devmaster.elasticsearch.rrule.RecurrenceRule;
 import org.elasticsearch.common.Strings;
 import org.joda.time.Instant;
 import org.joda.time.Interval;
@@ -25,14 +25,57 @@ import org.joda.time.LocalTime;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
 
 import static com.google.common.base.Strings.emptyToNull;
 
+/**
+ * A recurring event. Dates are kept as epoch days so that one instance can be refilled with
+ * {@link #reset(long, long, RecurrenceRule)} for every document of a segment without allocating.
+ */
 public final class Recurring {
 
-    private LocalDate start;
-    private LocalDate end;
+    /**
+     * Epoch day standing for a missing start or end date.
+     */
+    public static final long NO_DAY = Long.MIN_VALUE;
+
+    /**
+     * Iterator steps allowed to one evaluation unless {@link #setMaxIteratorSteps(long)} is called.
+     */
+    public static final long UNLIMITED_STEPS = Long.MAX_VALUE;
+
+    /**
+     * How occurrences of a rule are spread, see {@link #getDensity()}.
+     */
+    public enum Density {
+        REGULAR,
+        // far fewer occurrences than the rule's frequency suggests
+        SPARSE,
+        // nothing occurs after the first occurrence although the rule never ends
+        NEVER_REPEATS
+    }
+
+    // occurrences walked at most to find the last one
+    private static final int MAX_LAST_OCCURRENCE_STEPS = 10_000;
+    // occurrences looked at to tell the density of a rule
+    private static final int DENSITY_SAMPLE = 8;
+    // mean gap between occurrences, relative to the rule's interval, above which a rule is sparse
+    private static final int SPARSE_GAP_FACTOR = 50;
+
+    private long start = NO_DAY;
+    private long end = NO_DAY;
     private String rrule;
+    private RecurrenceRule rule;
+    // rule iterator calls so far, including the advances
+    private long iteratorSteps;
+    private long maxIteratorSteps = UNLIMITED_STEPS;
+    private long stepsLeft = UNLIMITED_STEPS;
+    private boolean budgetExceeded;
+    // occurrences of a window of days, read from the index
+    private OccurrenceBitmap bitmap;
 
     public Recurring() {
     }
@@ -49,34 +92,67 @@ public final class Recurring {
         setRrule(rrule);
     }
 
+    /**
+     * Replaces all values at once, {@code end} being {@link #NO_DAY} and {@code rule} {@code null} when missing.
+     */
+    public void reset(long start, long end, RecurrenceRule rule) {
+        if (start == NO_DAY)
+            throw new IllegalArgumentException("Parameter startDate can not be null or empty");
+
+        this.start = start;
+        this.end = end;
+        this.rrule = rule != null ? emptyToNull(rule.getText()) : null;
+        this.rule = this.rrule != null ? rule : null;
+        this.budgetExceeded = false;
+        this.bitmap = null;
+    }
+
+    /**
+     * Answers from {@code bitmap} the questions about the days of its window, instead of evaluating the rule. It has
+     * to hold the occurrences of the current values, and is dropped by the next {@link #reset}.
+     */
+    public void setOccurrenceBitmap(OccurrenceBitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    public boolean hasOccurrenceBitmap() {
+        return bitmap != null;
+    }
+
+    // the first occurrence between the days, from the bitmap or the rule's calendar arithmetic
+    private long closedFormNextOccurrence(long from, long to) {
+        long next = bitmap != null ? bitmap.nextOccurrence(from, to) : RecurrenceRule.UNKNOWN;
+        return next != RecurrenceRule.UNKNOWN ? next : rule().nextOccurrence(this.start, from);
+    }
+
     public LocalDate getStart() {
-        return start;
+        return start != NO_DAY ? EpochDays.toLocalDate(start) : null;
     }
 
     public void setStart(LocalDate start) {
         if (start == null)
             throw new IllegalArgumentException("Parameter startDate can not be null or empty");
 
-        this.start = start;
+        this.start = EpochDays.of(start);
     }
 
     public void setStartDate(String startDate) {
         if (Strings.isNullOrEmpty(startDate))
             throw new IllegalArgumentException("Parameter startDate can not be null or empty");
 
-        this.start = LocalDate.parse(startDate);
+        this.start = EpochDays.of(LocalDate.parse(startDate));
     }
 
     public LocalDate getEnd() {
-        return end;
+        return end != NO_DAY ? EpochDays.toLocalDate(end) : null;
     }
 
     public void setEnd(LocalDate end) {
-        this.end = end;
+        this.end = end != null ? EpochDays.of(end) : NO_DAY;
     }
 
     public void setEndDate(String endDate) {
-        this.end = endDate != null ? LocalDate.parse(endDate) : null;
+        this.end = endDate != null ? EpochDays.of(LocalDate.parse(endDate)) : NO_DAY;
     }
 
     public String getRrule() {
@@ -85,114 +161,608 @@ public final class Recurring {
 
     public void setRrule(String rrule) {
         this.rrule = emptyToNull(rrule);
+        this.rule = null;
+    }
+
+    /**
+     * Returns how many times rule iterators were advanced so far by this instance, which only grows.
+     */
+    public long getIteratorSteps() {
+        return iteratorSteps;
+    }
+
+    /**
+     * Limits the iterator steps of every following evaluation. An evaluation running out of steps carries on as if
+     * the rule had no further occurrence, and {@link #isBudgetExceeded()} tells so until the next evaluation.
+     */
+    public void setMaxIteratorSteps(long maxIteratorSteps) {
+        if (maxIteratorSteps < 1)
+            throw new IllegalArgumentException("Parameter maxIteratorSteps must be at least 1");
+
+        this.maxIteratorSteps = maxIteratorSteps;
+    }
+
+    /**
+     * Returns {@code true} if the last evaluation ran out of iterator steps.
+     */
+    public boolean isBudgetExceeded() {
+        return budgetExceeded;
+    }
+
+    private void startEvaluation() {
+        stepsLeft = maxIteratorSteps;
+        budgetExceeded = false;
+    }
+
+    private boolean hasNext(LocalDateIterator it) {
+        if (stepsLeft <= 0) {
+            budgetExceeded = true;
+            return false;
+        }
+        return it.hasNext();
+    }
+
+    private LocalDate next(LocalDateIterator it) {
+        iteratorSteps++;
+        stepsLeft--;
+        return it.next();
+    }
+
+    // the iterator walks every candidate up to the date inside advanceTo, so they are counted as well, and the
+    // advance isn't done at all if there are more of them than steps left
+    private void advanceTo(LocalDateIterator it, LocalDate date) {
+        long steps = rule().advanceSteps(this.start, EpochDays.of(date));
+        if (steps > stepsLeft) {
+            stepsLeft = 0;
+            budgetExceeded = true;
+            return;
+        }
+        iteratorSteps += steps;
+        stepsLeft -= steps;
+        it.advanceTo(date);
+    }
+
+    // charges the steps of an iterator created for the current evaluation, unless there are not that many left
+    boolean spendSteps(long steps) {
+        if (steps > stepsLeft) {
+            stepsLeft = 0;
+            budgetExceeded = true;
+            return false;
+        }
+        iteratorSteps += steps;
+        stepsLeft -= steps;
+        return true;
+    }
+
+    private RecurrenceRule rule() {
+        if (rule == null) {
+            rule = RecurrenceRule.parse(rrule);
+        }
+        return rule;
     }
 
     public boolean hasOccurrencesAt(final LocalDate date) throws ParseException {
+        return hasOccurrencesAt(EpochDays.of(date));
+    }
+
+    /**
+     * Same as {@link #hasOccurrencesAt(LocalDate)} with the date as an epoch day.
+     */
+    public boolean hasOccurrencesAt(final long day) throws ParseException {
+        startEvaluation();
         if (this.rrule != null) {
-            LocalDate end = date.plusDays(1);
-            LocalDateIterator it = LocalDateIteratorFactory.createLocalDateIterator(rrule, new LocalDate(this.start), false);
-            it.advanceTo(date);
-            return it.hasNext() && it.next().isBefore(end);
-        } else if (this.end != null) {
-            LocalDate start = new LocalDate(this.start);
-            LocalDate end = new LocalDate(this.end);
-            return !date.isBefore(start) && !date.isAfter(end);
+            long next = closedFormNextOccurrence(day, day);
+            if (next != RecurrenceRule.UNKNOWN) {
+                return next == day;
+            }
+            LocalDateIterator it = rule().iterator(getStart(), false);
+            advanceTo(it, EpochDays.toLocalDate(day));
+            return hasNext(it) && EpochDays.of(next(it)) == day;
+        } else if (this.end != NO_DAY) {
+            return day >= this.start && day <= this.end;
         } else {
-            return new LocalDate(this.start).isEqual(date);
+            return day == this.start;
         }
     }
 
+    /**
+     * Returns {@code true} if {@link #hasOccurrencesAt(LocalDate)} holds for any day between {@code from}
+     * and {@code to}, both inclusive.
+     */
+    public boolean hasOccurrencesWithin(final LocalDate from, final LocalDate to) throws ParseException {
+        startEvaluation();
+        if (this.rrule != null) {
+            long next = closedFormNextOccurrence(EpochDays.of(from), EpochDays.of(to));
+            if (next != RecurrenceRule.UNKNOWN) {
+                return next <= EpochDays.of(to);
+            }
+            LocalDateIterator it = rule().iterator(getStart(), false);
+            advanceTo(it, from);
+            return hasNext(it) && !next(it).isAfter(to);
+        }
+        long last = this.end != NO_DAY ? this.end : this.start;
+        return this.start <= EpochDays.of(to) && last >= EpochDays.of(from);
+    }
+
+    /**
+     * Passes every day in which {@link #hasOccurrencesAt(LocalDate)} holds, up to {@code limit} inclusive, to
+     * {@code consumer}. Returns {@code true} when there is no occurrence after {@code limit}.
+     */
+    public boolean expandOccurrences(final LocalDate limit, final Consumer<LocalDate> consumer) throws ParseException {
+        return expandOccurrences(getStart(), limit, consumer);
+    }
+
+    /**
+     * Same as {@link #expandOccurrences(LocalDate, Consumer)} from {@code from} on.
+     */
+    public boolean expandOccurrences(final LocalDate from, final LocalDate limit, final Consumer<LocalDate> consumer)
+            throws ParseException {
+        startEvaluation();
+        if (this.rrule != null) {
+            LocalDateIterator it = rule().iterator(getStart(), false);
+            if (from.isAfter(getStart())) {
+                advanceTo(it, from);
+            }
+            while (hasNext(it)) {
+                LocalDate current = next(it);
+                if (current.isAfter(limit)) {
+                    return false;
+                }
+                consumer.accept(current);
+            }
+            return !budgetExceeded;
+        }
+        LocalDate last = this.end != NO_DAY ? getEnd() : getStart();
+        LocalDate first = from.isAfter(getStart()) ? from : getStart();
+        for (LocalDate current = first; !current.isAfter(last); current = current.plusDays(1)) {
+            if (current.isAfter(limit)) {
+                return false;
+            }
+            consumer.accept(current);
+        }
+        return true;
+    }
+
+    /**
+     * Passes every day between {@code from} and {@code to}, as epoch days both inclusive, in which
+     * {@link #hasOccurrencesAt(LocalDate)} holds to {@code consumer} in order, without allocating for simple rules.
+     */
+    public void forEachOccurrence(long from, long to, LongConsumer consumer) throws ParseException {
+        startEvaluation();
+        if (this.rrule != null) {
+            long day = from;
+            while (day <= to) {
+                long next = rule().nextOccurrence(this.start, day);
+                if (next == RecurrenceRule.UNKNOWN) {
+                    LocalDateIterator it = rule().iterator(getStart(), false);
+                    advanceTo(it, EpochDays.toLocalDate(day));
+                    while (hasNext(it)) {
+                        long current = EpochDays.of(next(it));
+                        if (current > to) {
+                            break;
+                        }
+                        consumer.accept(current);
+                    }
+                    return;
+                }
+                if (next > to) {
+                    return;
+                }
+                consumer.accept(next);
+                day = next + 1;
+            }
+            return;
+        }
+        long last = this.end != NO_DAY && this.end > this.start ? this.end : this.start;
+        for (long day = Math.max(from, this.start), until = Math.min(to, last); day <= until; day++) {
+            consumer.accept(day);
+        }
+    }
+
+    /**
+     * Returns the days between {@code from} and {@code to}, as epoch days both inclusive, in which
+     * {@link #hasOccurrencesAt(LocalDate)} holds, as an iterator that keeps working after this instance is reset.
+     */
+    public OccurrenceIterator occurrences(long from, long to) throws ParseException {
+        return new OccurrenceIterator(this.start, this.end, this.rrule != null ? rule() : null, from, to, null);
+    }
+
+    /**
+     * Same as {@link #occurrences(long, long)} as a new evaluation: the iterator steps are limited and counted by this
+     * instance, so the iterator is only valid until the next evaluation.
+     */
+    public OccurrenceIterator evaluateOccurrences(long from, long to) throws ParseException {
+        startEvaluation();
+        return occurrences(this, from, to);
+    }
+
+    // occurrences whose iterator steps are paid by the evaluation of budget
+    private OccurrenceIterator occurrences(Recurring budget, long from, long to) throws ParseException {
+        return new OccurrenceIterator(this.start, this.end, this.rrule != null ? rule() : null, from, to, budget);
+    }
+
+    /**
+     * Passes the index of each of the ascending epoch {@code days} in which {@link #hasOccurrencesAt(LocalDate)} holds
+     * to {@code consumer}, in order, until it returns {@code false}. A single iterator is advanced through the days,
+     * so probing many of them costs about as much as probing the last one.
+     */
+    public void occurrencesAt(long[] days, IntPredicate consumer) throws ParseException {
+        if (days.length == 0) {
+            return;
+        }
+        // events without a rule are cheap to answer, and bitmaps answer without walking the rule
+        if (this.rrule == null || bitmap != null) {
+            for (int i = 0; i < days.length; i++) {
+                if (hasOccurrencesAt(days[i]) && !consumer.test(i)) {
+                    return;
+                }
+            }
+            return;
+        }
+        OccurrenceIterator occurrences = evaluateOccurrences(days[0], days[days.length - 1]);
+        long day = occurrences.day();
+        for (int i = 0; i < days.length && day != OccurrenceIterator.NO_MORE_OCCURRENCES; i++) {
+            if (day < days[i]) {
+                day = occurrences.advanceTo(days[i]);
+            }
+            if (day == days[i] && !consumer.test(i)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of days between {@code from} and {@code to}, as epoch days both inclusive, in which
+     * {@link #hasOccurrencesAt(LocalDate)} holds. Daily and weekly rules are counted by calendar arithmetic, other
+     * rules are walked one occurrence at a time.
+     */
+    public long countOccurrences(long from, long to) throws ParseException {
+        startEvaluation();
+        if (from > to) {
+            return 0;
+        }
+        if (this.rrule != null) {
+            long count = rule().countOccurrences(this.start, from, to);
+            if (count != RecurrenceRule.UNKNOWN) {
+                return count;
+            }
+            count = 0;
+            long day = from;
+            while (day <= to) {
+                long next = rule().nextOccurrence(this.start, day);
+                if (next == RecurrenceRule.UNKNOWN) {
+                    LocalDateIterator it = rule().iterator(getStart(), false);
+                    advanceTo(it, EpochDays.toLocalDate(day));
+                    while (hasNext(it) && EpochDays.of(next(it)) <= to) {
+                        count++;
+                    }
+                    return count;
+                }
+                if (next > to) {
+                    break;
+                }
+                count++;
+                day = next + 1;
+            }
+            return count;
+        }
+        long last = this.end != NO_DAY && this.end > this.start ? this.end : this.start;
+        return Math.max(0, Math.min(to, last) - Math.max(from, this.start) + 1);
+    }
+
     public boolean occurBetween(String start, String end) throws ParseException {
         return occurBetween(new LocalDate(start), new LocalDate(end));
     }
 
     public boolean occurBetween(final LocalDate start, final LocalDate end) throws ParseException {
-        LocalDate startDate = new LocalDate(this.start);
-        LocalDate endDate = this.end != null ? new LocalDate(this.end) : null;
+        return occurBetween(EpochDays.of(start), EpochDays.of(end));
+    }
+
+    /**
+     * Same as {@link #occurBetween(LocalDate, LocalDate)} with the dates as epoch days.
+     */
+    public boolean occurBetween(final long from, final long to) throws ParseException {
+        startEvaluation();
 
         if (rrule != null) {
 
-            LocalDateIterator it = LocalDateIteratorFactory.createLocalDateIterator(rrule, startDate, false);
-            it.advanceTo(start);
+            long next = closedFormNextOccurrence(from, to);
+            if (next != RecurrenceRule.UNKNOWN) {
+                return next <= to;
+            }
+
+            LocalDateIterator it = rule().iterator(getStart(), false);
+            advanceTo(it, EpochDays.toLocalDate(from));
 
-            if (it.hasNext()) {
-                LocalDate nextOccurrence = it.next();
-                return nextOccurrence != null && !nextOccurrence.isBefore(start) && !nextOccurrence.isAfter(end);
+            if (hasNext(it)) {
+                long nextOccurrence = EpochDays.of(next(it));
+                return nextOccurrence >= from && nextOccurrence <= to;
             } else {
                 return false;
             }
 
-        } else if (endDate != null && endDate.isAfter(startDate)) {
+        } else if (this.end != NO_DAY && this.end > this.start) {
 
-            return isBetween(startDate, start, end)
-                    || isBetween(endDate, start, end);
+            return isBetween(this.start, from, to)
+                    || isBetween(this.end, from, to);
 
         }
 
-        return !startDate.isBefore(start) && !startDate.isAfter(end);
+        return isBetween(this.start, from, to);
     }
 
-    private boolean isBetween(LocalDate date, LocalDate start, LocalDate end) {
-        return date.compareTo(start) > -1 && date.compareTo(end) < 1;
+    private boolean isBetween(long day, long from, long to) {
+        return day >= from && day <= to;
     }
 
-    public LocalDate getNextOccurrence(LocalDate date) throws ParseException {
+    /**
+     * Returns {@code true} if this event and {@code other} occur on a common day between {@code from} and {@code to},
+     * as epoch days both inclusive. Series whose occurrences are evenly spaced, such as ranges of days and plain daily
+     * and weekly rules, are intersected by arithmetic. Otherwise the occurrences of both are merged in lock step, each
+     * side skipping to the other's next occurrence, without ever collecting them, within the iterator steps of one
+     * evaluation of this event.
+     */
+    public boolean overlaps(Recurring other, long from, long to) throws ParseException {
+        startEvaluation();
+        long first = Math.max(from, Math.max(this.start, other.start));
+        int period = period(to);
+        int otherPeriod = other.period(to);
+        if (period > 0 && otherPeriod > 0) {
+            long last = Math.min(to, Math.min(lastOccurrence(period), other.lastOccurrence(otherPeriod)));
+            return first <= last && firstCommonDay(this.start, period, other.start, otherPeriod, first) <= last;
+        }
+        // both sides are walked within the steps of this evaluation
+        OccurrenceIterator occurrences = occurrences(this, first, to);
+        OccurrenceIterator otherOccurrences = other.occurrences(this, first, to);
+        long day = occurrences.day();
+        long otherDay = otherOccurrences.day();
+        while (day != OccurrenceIterator.NO_MORE_OCCURRENCES && otherDay != OccurrenceIterator.NO_MORE_OCCURRENCES) {
+            if (day == otherDay) {
+                return true;
+            }
+            if (day < otherDay) {
+                day = occurrences.advanceTo(otherDay);
+            } else {
+                otherDay = otherOccurrences.advanceTo(day);
+            }
+        }
+        return false;
+    }
+
+    // days between occurrences if they are evenly spaced up to the given day, or 0
+    private int period(long to) {
+        if (this.rrule == null) {
+            return 1;
+        }
+        return rule().period(this.start, to);
+    }
+
+    private long lastOccurrence(int period) {
+        if (this.rrule == null) {
+            return this.end != NO_DAY && this.end > this.start ? this.end : this.start;
+        }
+        return rule().lastOccurrence(this.start, period);
+    }
+
+    // first day on or after from that is in both series, by the chinese remainder theorem, or Long.MAX_VALUE
+    private static long firstCommonDay(long start, int period, long otherStart, int otherPeriod, long from) {
+        long gcd = gcd(period, otherPeriod);
+        long difference = otherStart - start;
+        if (difference % gcd != 0) {
+            return Long.MAX_VALUE;
+        }
+        long modulus = otherPeriod / gcd;
+        // steps of period from start to reach a day of the other series
+        long steps = Math.floorMod(difference / gcd % modulus * inverse(period / gcd % modulus, modulus), modulus);
+        long common = start + steps * period;
+        long lcm = period * modulus;
+        return common + Math.floorDiv(from - common + lcm - 1, lcm) * lcm;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
 
-        final LocalDate start = new LocalDate(this.start);
+    // inverse of value modulo modulus, which are coprime
+    private static long inverse(long value, long modulus) {
+        long t = 0, newT = 1, r = modulus, newR = Math.floorMod(value, modulus);
+        while (newR != 0) {
+            long quotient = r / newR;
+            long tmp = t - quotient * newT;
+            t = newT;
+            newT = tmp;
+            tmp = r - quotient * newR;
+            r = newR;
+            newR = tmp;
+        }
+        return Math.floorMod(t, modulus);
+    }
 
+    /**
+     * Returns the first day on or after {@code day}, as epoch days, in which {@link #hasOccurrencesAt(LocalDate)}
+     * holds, or {@link #NO_DAY} if there is none. This is the next occurrence of every script, so a range of days
+     * under way next occurs on {@code day} itself.
+     */
+    public long firstOccurrenceFrom(long day) throws ParseException {
+        startEvaluation();
         if (this.rrule != null) {
-            LocalDateIterator it = LocalDateIteratorFactory.createLocalDateIterator(rrule, start.minusDays(1), false);
-            it.advanceTo(date);
-            return it.hasNext() ? it.next() : null;
-        } else if (this.end == null) {
-            return !date.isAfter(start) ? start : null;
-        } else {
-            LocalDate end = new LocalDate(this.end);
-            return !date.isAfter(end) ? start : null;
+            long next = closedFormNextOccurrence(day, Long.MAX_VALUE);
+            if (next != RecurrenceRule.UNKNOWN) {
+                return next != RecurrenceRule.NO_OCCURRENCE ? next : NO_DAY;
+            }
+            LocalDateIterator it = rule().iterator(getStart(), false);
+            advanceTo(it, EpochDays.toLocalDate(day));
+            return hasNext(it) ? EpochDays.of(next(it)) : NO_DAY;
         }
+        long last = this.end != NO_DAY && this.end > this.start ? this.end : this.start;
+        return day <= last ? Math.max(day, this.start) : NO_DAY;
+    }
+
+    /**
+     * Same as {@link #firstOccurrenceFrom(long)} with the dates as {@link LocalDate}, {@code null} if there is none.
+     */
+    public LocalDate getNextOccurrence(LocalDate date) throws ParseException {
+        long next = firstOccurrenceFrom(EpochDays.of(date));
+        return next != NO_DAY ? EpochDays.toLocalDate(next) : null;
+    }
+
+    /**
+     * Returns the earliest day the series can occur on, as an epoch day, without evaluating its rule: the start date,
+     * or an RDATE that comes before it.
+     */
+    public long getEarliestDay() {
+        return this.rrule == null ? this.start : Math.min(this.start, rule().firstDate());
+    }
+
+    /**
+     * Returns the first day in which {@link #hasOccurrencesAt(LocalDate)} holds, which is the start date unless an
+     * RDATE comes before it.
+     */
+    public LocalDate getFirstOccurrence() throws ParseException {
+        startEvaluation();
+        if (this.rrule == null) {
+            return getStart();
+        }
+        LocalDateIterator it = rule().iterator(getStart(), false);
+        return hasNext(it) ? next(it) : getStart();
+    }
+
+    /**
+     * Returns the last day in which {@link #hasOccurrencesAt(LocalDate)} holds, or the start date if there is none,
+     * or {@code null} if the series never ends or has too many occurrences to walk.
+     */
+    public LocalDate getLastOccurrence() throws ParseException {
+        startEvaluation();
+        if (this.rrule == null) {
+            return this.end != NO_DAY && this.end > this.start ? getEnd() : getStart();
+        }
+        if (!rule().isFinite()) {
+            return null;
+        }
+        LocalDateIterator it = rule().iterator(getStart(), false);
+        LocalDate last = getStart();
+        for (int i = 0; hasNext(it); i++) {
+            if (i == MAX_LAST_OCCURRENCE_STEPS) {
+                return null;
+            }
+            last = next(it);
+        }
+        return budgetExceeded ? null : last;
+    }
+
+    /**
+     * Tells rules that never repeat or occur far less often than their frequency suggests, which make iterators walk
+     * many candidates for each occurrence, apart from regular ones by looking at their first occurrences.
+     */
+    public Density getDensity() throws ParseException {
+        startEvaluation();
+        if (this.rrule == null) {
+            return Density.REGULAR;
+        }
+        LocalDateIterator it = rule().iterator(getStart(), false);
+        LocalDate first = null;
+        LocalDate last = null;
+        int count = 0;
+        while (count < DENSITY_SAMPLE && hasNext(it)) {
+            last = next(it);
+            if (first == null) {
+                first = last;
+            }
+            count++;
+        }
+        if (count < 2) {
+            return rule().isFinite() || budgetExceeded ? Density.REGULAR : Density.NEVER_REPEATS;
+        }
+        long meanGap = (EpochDays.of(last) - EpochDays.of(first)) / (count - 1);
+        return meanGap > (long) SPARSE_GAP_FACTOR * rule().approximateIntervalInDays() ? Density.SPARSE : Density.REGULAR;
     }
 
     public boolean notHasExpired() throws ParseException {
-        final LocalDate today = LocalDate.now();
+        return notHasExpired(LocalDate.now());
+    }
+
+    /**
+     * Returns whether the event occurs on or after {@code today}.
+     */
+    public boolean notHasExpired(LocalDate today) throws ParseException {
         return getNextOccurrence(today) != null;
     }
 
     public List<String> occurrencesBetween(LocalDate start, LocalDate end) throws ParseException {
-        final LocalDate date = new LocalDate(this.start);
         List<String> dates = new ArrayList<>();
-        if (this.rrule != null) {
-            LocalDateIterator it = LocalDateIteratorFactory.createLocalDateIterator(rrule, date, true);
-            it.advanceTo(start);
-
-            if (it.hasNext()) {
-                do {
-                    LocalDate current = it.next();
-                    if (current != null && !current.isAfter(end)) {
-                        dates.add(current.toString());
-                    } else {
-                        break;
-                    }
+        occurrencesBetween(start, end, 0, Integer.MAX_VALUE, day -> dates.add(EpochDays.toLocalDate(day).toString()));
+        return dates;
+    }
 
-                } while (it.hasNext());
+    /**
+     * Passes the occurrences between {@code start} and {@code end}, both inclusive, to {@code consumer} as epoch days,
+     * skipping the first {@code offset} of them and stopping as soon as {@code limit} of them were passed. Events
+     * without a rule only pass their start date, if it is between {@code start} and {@code end}.
+     */
+    public void occurrencesBetween(LocalDate start, LocalDate end, int offset, int limit,
+                                   LongConsumer consumer) throws ParseException {
+        startEvaluation();
+        if (limit <= 0) {
+            return;
+        }
+        long to = EpochDays.of(end);
+        long day = EpochDays.of(start);
+        if (this.rrule == null) {
+            if (offset == 0 && this.start >= day && this.start <= to) {
+                consumer.accept(this.start);
             }
-        } else {
-            dates.add(date.toString());
+            return;
+        }
+
+        // bad lines have to be reported by the strict iterator
+        boolean closedForm = rule().isValid();
+        LocalDateIterator it = null;
+        while (true) {
+            long next;
+            if (it == null) {
+                next = closedForm ? rule().nextOccurrence(this.start, day) : RecurrenceRule.UNKNOWN;
+                if (next == RecurrenceRule.UNKNOWN) {
+                    it = rule().iterator(getStart(), true);
+                    advanceTo(it, EpochDays.toLocalDate(day));
+                    continue;
+                }
+            } else if (hasNext(it)) {
+                next = EpochDays.of(next(it));
+            } else {
+                return;
+            }
+            if (next > to) {
+                return;
+            }
+            if (offset > 0) {
+                offset--;
+            } else {
+                consumer.accept(next);
+                if (--limit == 0) {
+                    return;
+                }
+            }
+            day = next + 1;
         }
-        return dates;
     }
 
     public boolean hasAnyOccurrenceBetween(String start, String end) throws ParseException {
-        Interval lookingAtInterval = new Interval(Instant.parse(start), Instant.parse(end));
+        return hasAnyOccurrenceBetween(new Interval(Instant.parse(start), Instant.parse(end)));
+    }
+
+    public boolean hasAnyOccurrenceBetween(Interval lookingAtInterval) throws ParseException {
+        startEvaluation();
         if (rrule == null) {
-            Interval interval = new Interval(this.start.toDateTime(LocalTime.MIDNIGHT), this.end.toDateTime(LocalTime.MIDNIGHT));
+            // events without an end date last their start date
+            LocalDate last = this.end != NO_DAY && this.end > this.start ? getEnd() : getStart();
+            Interval interval = new Interval(getStart().toDateTime(LocalTime.MIDNIGHT), last.toDateTime(LocalTime.MIDNIGHT));
             return interval.abuts(lookingAtInterval) || interval.overlaps(lookingAtInterval);
         } else {
-            LocalDateIterator it = LocalDateIteratorFactory
-                    .createLocalDateIterator(rrule, this.start, false);
-            it.advanceTo(lookingAtInterval.getStart().toLocalDate());
-            if (it.hasNext()) {
-                for (LocalDate current = it.next(); it.hasNext()
-                        && !current.isAfter(lookingAtInterval.getEnd().toLocalDate()); current = it.next()) {
+            LocalDateIterator it = rule().iterator(getStart(), false);
+            advanceTo(it, lookingAtInterval.getStart().toLocalDate());
+            if (hasNext(it)) {
+                for (LocalDate current = next(it); hasNext(it)
+                        && !current.isAfter(lookingAtInterval.getEnd().toLocalDate()); current = next(it)) {
 
                     if (lookingAtInterval.abuts(current.toInterval())
                             || lookingAtInterval.contains(current.toInterval())) {
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.action.stats;
+
+import org.devmaster.elasticsearch.monitor.CacheStats;
+import org.devmaster.elasticsearch.monitor.ScriptStats;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+public class RecurringNodeStats extends BaseNodeResponse implements ToXContentFragment {
+
+    private final List<ScriptStats> scripts;
+    private final List<CacheStats> caches;
+
+    public RecurringNodeStats(DiscoveryNode node, List<ScriptStats> scripts, List<CacheStats> caches) {
+        super(node);
+        this.scripts = scripts;
+        this.caches = caches;
+    }
+
+    public RecurringNodeStats(StreamInput in) throws IOException {
+        super(in);
+        this.scripts = in.readList(ScriptStats::new);
+        this.caches = in.readList(CacheStats::new);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeList(scripts);
+        out.writeList(caches);
+    }
+
+    public List<ScriptStats> getScripts() {
+        return scripts;
+    }
+
+    public List<CacheStats> getCaches() {
+        return caches;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("name", getNode().getName());
+        builder.startObject("scripts");
+        for (ScriptStats script : scripts) {
+            script.toXContent(builder, params);
+        }
+        builder.endObject();
+        builder.startObject("caches");
+        for (CacheStats cache : caches) {
+            cache.toXContent(builder, params);
+        }
+        return builder.endObject();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.action.stats;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.IOException;
+
+public class RecurringStatsRequest extends BaseNodesRequest<RecurringStatsRequest> {
+
+    public RecurringStatsRequest(StreamInput in) throws IOException {
+        super(in);
+    }
+
+    /**
+     * Stats of the given nodes, or of all nodes if none are given.
+     */
+    public RecurringStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.action.stats;
+
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCache;
+import org.devmaster.elasticsearch.monitor.RecurringMetrics;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class TransportRecurringStatsAction extends TransportNodesAction<RecurringStatsRequest, RecurringStatsResponse,
+        TransportRecurringStatsAction.NodeRequest, RecurringNodeStats> {
+
+    private final RecurrenceRuleCache ruleCache;
+    private final RecurringFilterCache filterCache;
+
+    @Inject
+    public TransportRecurringStatsAction(ThreadPool threadPool, ClusterService clusterService,
+                                         TransportService transportService, ActionFilters actionFilters,
+                                         RecurrenceRuleCache ruleCache, RecurringFilterCache filterCache) {
+        super(RecurringStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                RecurringStatsRequest::new, NodeRequest::new, ThreadPool.Names.MANAGEMENT, RecurringNodeStats.class);
+        this.ruleCache = ruleCache;
+        this.filterCache = filterCache;
+    }
+
+    @Override
+    protected RecurringStatsResponse newResponse(RecurringStatsRequest request, List<RecurringNodeStats> responses,
+                                                 List<FailedNodeException> failures) {
+        return new RecurringStatsResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(RecurringStatsRequest request) {
+        return new NodeRequest();
+    }
+
+    @Override
+    protected RecurringNodeStats newNodeResponse(StreamInput in) throws IOException {
+        return new RecurringNodeStats(in);
+    }
+
+    @Override
+    protected RecurringNodeStats nodeOperation(NodeRequest request) {
+        return new RecurringNodeStats(clusterService.localNode(), RecurringMetrics.instance().scriptStats(),
+                Arrays.asList(ruleCache.stats(), filterCache.stats()));
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        public NodeRequest(StreamInput in) throws IOException {
+            super(in);
+        }
+    }
+}
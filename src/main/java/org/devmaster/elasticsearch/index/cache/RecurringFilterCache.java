@@ -0,0 +1,246 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.index.cache;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.FrequencyTrackingRingBuffer;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.devmaster.elasticsearch.monitor.CacheStats;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.shard.ShardUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node wide cache of the documents of a segment matching a recurring predicate, keyed by the segment core, the field
+ * and the predicate with its normalized parameters. Entries of a segment are dropped when the segment is closed.
+ * <p>
+ * Like Lucene's {@code UsageTrackingQueryCachingPolicy}, only predicates used by recent requests at least
+ * {@link #MIN_FREQUENCY_TO_CACHE} times are cached, so that one-off filters are evaluated lazily, on the documents
+ * the rest of the query lets through, instead of on the whole segment.
+ */
+public final class RecurringFilterCache implements RemovalListener<RecurringFilterCache.Key, FixedBitSet>, Closeable {
+
+    public static final Setting<ByteSizeValue> CACHE_SIZE_SETTING =
+            Setting.memorySizeSetting("recurring.filter_cache.size", "1%", Property.NodeScope);
+
+    private static final String BREAKER_LABEL = "recurring_filter_cache";
+    private static final long KEY_RAM_BYTES_USED = 128;
+    private static final int HISTORY_SIZE = 256;
+    private static final int SENTINEL = Integer.MIN_VALUE;
+    static final int MIN_FREQUENCY_TO_CACHE = 2;
+
+    private final Cache<Key, FixedBitSet> cache;
+    private volatile CircuitBreaker breaker;
+    // keys by segment core, to drop them when the segment goes away
+    private final Map<IndexReader.CacheKey, Set<Key>> keysByCore = new ConcurrentHashMap<>();
+    private final CounterMetric hits = new CounterMetric();
+    private final CounterMetric misses = new CounterMetric();
+    private final CounterMetric evictions = new CounterMetric();
+    private final FrequencyTrackingRingBuffer recentlyUsed = new FrequencyTrackingRingBuffer(HISTORY_SIZE, SENTINEL);
+
+    public RecurringFilterCache(Settings settings, CircuitBreaker breaker) {
+        this.breaker = breaker;
+        this.cache = CacheBuilder.<Key, FixedBitSet>builder()
+                .setMaximumWeight(CACHE_SIZE_SETTING.get(settings).getBytes())
+                .weigher(RecurringFilterCache::weigh)
+                .removalListener(this)
+                .build();
+    }
+
+    /**
+     * Sets the breaker the cached documents are accounted against, dropping those cached so far.
+     */
+    void setBreaker(CircuitBreaker breaker) {
+        clear();
+        this.breaker = breaker;
+    }
+
+    /**
+     * Records that a request uses {@code predicate} on {@code field} on the shard of {@code reader}, once per request.
+     */
+    public void onUse(LeafReader reader, String field, String predicate) {
+        int hash = hash(reader, field, predicate);
+        synchronized (recentlyUsed) {
+            recentlyUsed.add(hash);
+        }
+    }
+
+    private boolean shouldCache(LeafReader reader, String field, String predicate) {
+        int hash = hash(reader, field, predicate);
+        synchronized (recentlyUsed) {
+            return recentlyUsed.frequency(hash) >= MIN_FREQUENCY_TO_CACHE;
+        }
+    }
+
+    // usage is tracked per shard, as the shards of a request are searched one after the other
+    private static int hash(LeafReader reader, String field, String predicate) {
+        int hash = Objects.hash(ShardUtils.extractShardId(reader), field, predicate);
+        return hash == SENTINEL ? hash + 1 : hash;
+    }
+
+    /**
+     * Returns the documents of {@code reader} matching {@code predicate} on {@code field}, computing them with
+     * {@code loader} if they are not cached and the predicate is used often enough. Returns {@code null} if they are
+     * not cached and either it isn't or {@code loader} gave up by returning {@code null}, in which case documents
+     * are to be evaluated one at a time. {@code predicate} has to identify the predicate and all of its parameters.
+     */
+    public FixedBitSet get(LeafReader reader, String field, String predicate,
+                           CheckedFunction<LeafReader, FixedBitSet, IOException> loader) throws IOException {
+        IndexReader.CacheHelper cacheHelper = reader.getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+
+        IndexReader.CacheKey core = cacheHelper.getKey();
+        Key key = new Key(core, field, predicate);
+        FixedBitSet matches = cache.get(key);
+        if (matches != null) {
+            hits.inc();
+            return matches;
+        }
+
+        misses.inc();
+        if (!shouldCache(reader, field, predicate)) {
+            return null;
+        }
+        matches = loader.apply(reader);
+        if (matches == null) {
+            return null;
+        }
+        if (breaker != null) {
+            try {
+                breaker.addEstimateBytesAndMaybeBreak(weigh(key, matches), BREAKER_LABEL);
+            } catch (CircuitBreakingException e) {
+                return matches;
+            }
+        }
+        Set<Key> keys = keysByCore.computeIfAbsent(core, k -> {
+            cacheHelper.addClosedListener(this::onClose);
+            return ConcurrentHashMap.newKeySet();
+        });
+        keys.add(key);
+        cache.put(key, matches);
+        return matches;
+    }
+
+    private void onClose(IndexReader.CacheKey core) {
+        Set<Key> keys = keysByCore.remove(core);
+        if (keys != null) {
+            for (Key key : keys) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<Key, FixedBitSet> notification) {
+        Key key = notification.getKey();
+        if (notification.getRemovalReason() == RemovalNotification.RemovalReason.EVICTED) {
+            evictions.inc();
+        }
+        // a concurrent miss caching the same answers replaces the entry, whose key still has to go with the segment
+        if (notification.getRemovalReason() != RemovalNotification.RemovalReason.REPLACED) {
+            Set<Key> keys = keysByCore.get(key.core);
+            if (keys != null) {
+                keys.remove(key);
+            }
+        }
+        if (breaker != null) {
+            breaker.addWithoutBreaking(-weigh(key, notification.getValue()));
+        }
+    }
+
+    private static long weigh(Key key, FixedBitSet matches) {
+        return KEY_RAM_BYTES_USED + RamUsageEstimator.sizeOf(key.predicate) + matches.ramBytesUsed();
+    }
+
+    public int count() {
+        return cache.count();
+    }
+
+    public long ramBytesUsed() {
+        return cache.weight();
+    }
+
+    public long hitCount() {
+        return hits.count();
+    }
+
+    public long missCount() {
+        return misses.count();
+    }
+
+    public long evictionCount() {
+        return evictions.count();
+    }
+
+    public CacheStats stats() {
+        return new CacheStats("filter_cache", count(), ramBytesUsed(), hitCount(), missCount(), evictionCount());
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    static final class Key {
+
+        private final IndexReader.CacheKey core;
+        private final String field;
+        private final String predicate;
+
+        private Key(IndexReader.CacheKey core, String field, String predicate) {
+            this.core = core;
+            this.field = field;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return core == key.core && field.equals(key.field) && predicate.equals(key.predicate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(core, field, predicate);
+        }
+    }
+}
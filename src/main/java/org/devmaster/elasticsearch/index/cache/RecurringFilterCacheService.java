@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.index.cache;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+
+/**
+ * Accounts the node's {@link RecurringFilterCache}, created by the plugin, against the fielddata circuit breaker.
+ */
+public class RecurringFilterCacheService extends AbstractLifecycleComponent {
+
+    private final RecurringFilterCache cache;
+
+    @Inject
+    public RecurringFilterCacheService(RecurringFilterCache cache, CircuitBreakerService breakerService) {
+        this.cache = cache;
+        cache.setBreaker(breakerService.getBreaker(CircuitBreaker.FIELDDATA));
+    }
+
+    public RecurringFilterCache cache() {
+        return cache;
+    }
+
+    @Override
+    protected void doStart() {
+    }
+
+    @Override
+    protected void doStop() {
+    }
+
+    @Override
+    protected void doClose() {
+        cache.close();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.index.fielddata;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.OccurrenceBitmap;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.devmaster.elasticsearch.rrule.RecurrenceRule;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Reads a recurring field of one segment straight from the doc values of its sub fields. Documents are read into a
+ * single {@link Recurring} that is reused for the whole segment, and rules are looked up once per ordinal.
+ */
+public final class RecurringDocValues {
+
+    /**
+     * Returned by {@link #ruleKey()} for documents without a rule.
+     */
+    public static final long NO_KEY = -1L;
+
+    /**
+     * How many results per segment callers memoize by {@link #ruleKey()}.
+     */
+    public static final int MAX_MEMOIZED_RESULTS = 1 << 16;
+
+    // segments with more distinct rules than this look up the remaining ordinals in the node cache every time
+    private static final int MAX_CACHED_ORDS = 1 << 16;
+    private static final BytesRef NEVER_REPEATS =
+            new BytesRef(Recurring.Density.NEVER_REPEATS.name().toLowerCase(Locale.ROOT));
+
+    private final LeafReader reader;
+    private final String startField;
+    private final String endField;
+    private final String rruleField;
+    private final String bitmapField;
+    private final String densityField;
+    private final RecurrenceRuleCache ruleCache;
+    private final RecurrenceRule[] rules;
+    private final Recurring recurring = new Recurring();
+    private final OccurrenceBitmap bitmap = new OccurrenceBitmap();
+
+    private SortedNumericDocValues starts;
+    private SortedNumericDocValues ends;
+    private SortedSetDocValues rrules;
+    private BinaryDocValues bitmaps;
+    private SortedSetDocValues densities;
+    // the ordinal of rules flagged as never repeating in the segment, -1 if there are none
+    private long neverRepeatsOrd;
+    private int doc = -1;
+    private long key = NO_KEY;
+    private Boolean rdates;
+
+    public RecurringDocValues(LeafReader reader, String field, RecurrenceRuleCache ruleCache) throws IOException {
+        this(reader, field, ruleCache, Recurring.UNLIMITED_STEPS);
+    }
+
+    /**
+     * Documents are read into a {@link Recurring} evaluating at most {@code maxIteratorSteps} iterator steps at once,
+     * and rules are parsed with the node's {@code ruleCache}.
+     */
+    public RecurringDocValues(LeafReader reader, String field, RecurrenceRuleCache ruleCache, long maxIteratorSteps)
+            throws IOException {
+        this.reader = reader;
+        this.ruleCache = ruleCache;
+        this.recurring.setMaxIteratorSteps(maxIteratorSteps);
+        this.startField = field + "." + RecurringFieldMapper.FieldNames.START_DATE;
+        this.endField = field + "." + RecurringFieldMapper.FieldNames.END_DATE;
+        this.rruleField = field + "." + RecurringFieldMapper.FieldNames.RRULE;
+        this.bitmapField = field + "." + RecurringFieldMapper.FieldNames.BITMAP;
+        this.densityField = field + "." + RecurringFieldMapper.FieldNames.DENSITY;
+        open();
+        this.rules = new RecurrenceRule[(int) Math.min(MAX_CACHED_ORDS, rrules.getValueCount())];
+    }
+
+    private void open() throws IOException {
+        starts = DocValues.getSortedNumeric(reader, startField);
+        ends = DocValues.getSortedNumeric(reader, endField);
+        rrules = DocValues.getSortedSet(reader, rruleField);
+        bitmaps = DocValues.getBinary(reader, bitmapField);
+        densities = DocValues.getSortedSet(reader, densityField);
+        neverRepeatsOrd = densities.lookupTerm(NEVER_REPEATS);
+    }
+
+    /**
+     * Returns a new iterator over the documents having a start date, which are all documents having the field.
+     */
+    public DocIdSetIterator documents() throws IOException {
+        return startDates();
+    }
+
+    /**
+     * Returns a new iterator over the start dates of the documents, in millis, cheaper to read than {@link #get(int)}.
+     */
+    public SortedNumericDocValues startDates() throws IOException {
+        return DocValues.getSortedNumeric(reader, startField);
+    }
+
+    /**
+     * Returns the values of {@code doc}. The instance is shared by all documents and only valid until the next call.
+     */
+    public Recurring get(int doc) throws IOException {
+        if (doc == this.doc) {
+            return recurring;
+        }
+        if (doc < this.doc) {
+            // fetching may visit documents out of order, doc values only move forward
+            open();
+        }
+        long start = starts.advanceExact(doc) ? EpochDays.fromMillis(starts.nextValue()) : Recurring.NO_DAY;
+        long end = ends.advanceExact(doc) ? EpochDays.fromMillis(ends.nextValue()) : Recurring.NO_DAY;
+        RecurrenceRule rule = null;
+        long key = NO_KEY;
+        if (rrules.advanceExact(doc)) {
+            if (neverRepeats(doc)) {
+                // read as an event of its start date only, which the paths of events without a rule answer
+                end = Recurring.NO_DAY;
+            } else {
+                long ord = rrules.nextOrd();
+                rule = rule(ord);
+                key = ruleKey(ord, start);
+            }
+        }
+        recurring.reset(start, end, rule);
+        if (rule != null && bitmaps.advanceExact(doc)) {
+            bitmap.reset(bitmaps.binaryValue());
+            recurring.setOccurrenceBitmap(bitmap);
+        }
+        this.doc = doc;
+        this.key = recurring.getRrule() != null ? key : NO_KEY;
+        return recurring;
+    }
+
+    /**
+     * Identifies the rule and start date of the document last read, the only values that answers about documents
+     * having a rule depend on, or returns {@link #NO_KEY} if it has no rule. Only comparable within the segment.
+     */
+    public long ruleKey() {
+        return key;
+    }
+
+    /**
+     * Returns {@code true} if a rule of the segment has RDATE lines, so that some documents may occur before their
+     * start date. Rules are looked up once.
+     */
+    public boolean hasRdates() throws IOException {
+        if (rdates == null) {
+            rdates = false;
+            for (long ord = 0; ord < rrules.getValueCount(); ord++) {
+                if (rule(ord).firstDate() != RecurrenceRule.NO_OCCURRENCE) {
+                    rdates = true;
+                    break;
+                }
+            }
+        }
+        return rdates;
+    }
+
+    /**
+     * Combines a rule ordinal of the segment and a start date into a {@link #ruleKey()}.
+     */
+    public static long ruleKey(long ord, long start) {
+        if (ord > Integer.MAX_VALUE || start < Integer.MIN_VALUE || start > Integer.MAX_VALUE) {
+            return NO_KEY;
+        }
+        return ord << 32 | (start & 0xFFFFFFFFL);
+    }
+
+    // such a rule only occurs on its start date, which is answered without iterating it to find nothing else
+    private boolean neverRepeats(int doc) throws IOException {
+        return neverRepeatsOrd >= 0 && densities.advanceExact(doc) && densities.nextOrd() == neverRepeatsOrd;
+    }
+
+    private RecurrenceRule rule(long ord) throws IOException {
+        if (ord >= rules.length) {
+            return ruleCache.get(rrules.lookupOrd(ord).utf8ToString());
+        }
+        RecurrenceRule rule = rules[(int) ord];
+        if (rule == null) {
+            rule = ruleCache.get(rrules.lookupOrd(ord).utf8ToString());
+            rules[(int) ord] = rule;
+        }
+        return rule;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.index.mapper;
+
+import org.apache.lucene.util.BytesRef;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.OccurrenceIterator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Calendar cells an event occurs in, as terms: years such as {@code 2027}, months such as {@code 2027-03} and ISO
+ * weeks such as {@code 2027-W09}. Like the cells of a geo prefix tree, a range of days is covered by the largest
+ * cells that fit in it, and only the days left at its ends, less than a week on each side, need a closer look.
+ */
+final class CalendarTerms {
+
+    private CalendarTerms() {
+    }
+
+    /**
+     * Returns the terms of the cells of every occurrence produced by {@code occurrences}. Only the first occurrence
+     * of each week and month is looked at, the iterator skipping the others.
+     */
+    static Set<String> of(OccurrenceIterator occurrences) throws ParseException {
+        Set<String> terms = new LinkedHashSet<>();
+        for (long day = occurrences.day(); day != OccurrenceIterator.NO_MORE_OCCURRENCES;
+             day = occurrences.advanceTo(Math.min(nextWeek(day), nextMonth(day)))) {
+            int year = EpochDays.year(day);
+            terms.add(year(year));
+            terms.add(month(year, EpochDays.monthOfYear(day)));
+            terms.add(week(day));
+        }
+        return terms;
+    }
+
+    /**
+     * The cells of a range of days, and the weeks of the days not covered by them.
+     */
+    static final class Cover {
+
+        final List<BytesRef> cells = new ArrayList<>();
+        final Set<BytesRef> boundaryWeeks = new LinkedHashSet<>();
+    }
+
+    /**
+     * Covers the days between {@code from} and {@code to}, both inclusive, with years, then months, then weeks.
+     */
+    static Cover cover(long from, long to) {
+        Cover cover = new Cover();
+        years(from, to, cover);
+        return cover;
+    }
+
+    private static void years(long from, long to, Cover cover) {
+        int firstYear = EpochDays.year(from) + (from == EpochDays.of(EpochDays.year(from), 1, 1) ? 0 : 1);
+        int lastYear = EpochDays.year(to) - (to == EpochDays.of(EpochDays.year(to), 12, 31) ? 0 : 1);
+        if (firstYear > lastYear) {
+            months(from, to, cover);
+            return;
+        }
+        for (int year = firstYear; year <= lastYear; year++) {
+            cover.cells.add(new BytesRef(year(year)));
+        }
+        months(from, EpochDays.of(firstYear, 1, 1) - 1, cover);
+        months(EpochDays.of(lastYear + 1, 1, 1), to, cover);
+    }
+
+    private static void months(long from, long to, Cover cover) {
+        if (from > to) {
+            return;
+        }
+        long first = EpochDays.dayOfMonth(from) == 1 ? from : nextMonth(from);
+        long last = nextMonth(to) - 1 == to ? to : to - EpochDays.dayOfMonth(to);
+        if (first > last) {
+            weeks(from, to, cover);
+            return;
+        }
+        for (long day = first; day <= last; day = nextMonth(day)) {
+            cover.cells.add(new BytesRef(month(EpochDays.year(day), EpochDays.monthOfYear(day))));
+        }
+        weeks(from, first - 1, cover);
+        weeks(last + 1, to, cover);
+    }
+
+    private static void weeks(long from, long to, Cover cover) {
+        if (from > to) {
+            return;
+        }
+        long first = isoDayOfWeek(from) == 1 ? from : nextWeek(from);
+        long last = isoDayOfWeek(to) == 7 ? to : to - isoDayOfWeek(to);
+        if (first > last) {
+            boundary(from, to, cover);
+            return;
+        }
+        for (long day = first; day <= last; day += 7) {
+            cover.cells.add(new BytesRef(week(day)));
+        }
+        boundary(from, first - 1, cover);
+        boundary(last + 1, to, cover);
+    }
+
+    private static void boundary(long from, long to, Cover cover) {
+        for (long day = from; day <= to; day++) {
+            cover.boundaryWeeks.add(new BytesRef(week(day)));
+        }
+    }
+
+    static String year(int year) {
+        return String.format(Locale.ROOT, "%04d", year);
+    }
+
+    static String month(int year, int month) {
+        return String.format(Locale.ROOT, "%04d-%02d", year, month);
+    }
+
+    // weeks start on monday and belong to the year of their thursday
+    static String week(long day) {
+        long thursday = day - isoDayOfWeek(day) + 4;
+        int weekYear = EpochDays.year(thursday);
+        long week = (thursday - EpochDays.of(weekYear, 1, 1)) / 7 + 1;
+        return String.format(Locale.ROOT, "%04d-W%02d", weekYear, week);
+    }
+
+    // 1 for monday to 7 for sunday
+    private static int isoDayOfWeek(long day) {
+        int dayOfWeek = EpochDays.dayOfWeek(day);
+        return dayOfWeek == 0 ? 7 : dayOfWeek;
+    }
+
+    private static long nextWeek(long day) {
+        return day - isoDayOfWeek(day) + 8;
+    }
+
+    private static long nextMonth(long day) {
+        return day - EpochDays.dayOfMonth(day) + 1 + EpochDays.lengthOfMonth(EpochDays.year(day), EpochDays.monthOfYear(day));
+    }
+}
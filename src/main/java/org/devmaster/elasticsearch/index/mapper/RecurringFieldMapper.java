@@ -15,28 +15,57 @@
 package org.devmaster.elasticsearch.index.mapper;
 
 import com.google.common.collect.Iterators;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.LongRange;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.OccurrenceBitmap;
 import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.query.OccurrencesWithinQuery;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.geo.ShapeRelation;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.time.DateFormatter;
+import org.elasticsearch.common.time.DateMathParser;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.mapper.DateFieldMapper;
 import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.index.mapper.KeywordFieldMapper;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.mapper.Mapper;
 import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.NumberFieldMapper;
 import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.RangeFieldMapper;
+import org.elasticsearch.index.mapper.RangeType;
 import org.elasticsearch.index.query.QueryShardContext;
-import org.elasticsearch.index.query.QueryShardException;
+import org.joda.time.LocalDate;
 
 import java.io.IOException;
+import java.text.ParseException;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import static org.apache.lucene.index.IndexOptions.DOCS;
 
@@ -47,6 +76,14 @@ public class RecurringFieldMapper extends FieldMapper {
     private final DateFieldMapper startDateMapper;
     private final DateFieldMapper endDateMapper;
     private final KeywordFieldMapper rruleMapper;
+    private final NumberFieldMapper occurrencesMapper;
+    private final NumberFieldMapper materializedUntilMapper;
+    private final NumberFieldMapper materializedFromMapper;
+    private final RangeFieldMapper envelopeMapper;
+    private final KeywordFieldMapper densityMapper;
+    private final KeywordFieldMapper calendarMapper;
+    private final NumberFieldMapper calendarUntilMapper;
+    private final NumberFieldMapper calendarFromMapper;
 
     public static class Defaults {
 
@@ -61,15 +98,106 @@ public class RecurringFieldMapper extends FieldMapper {
         public static String START_DATE = "start_date";
         public static String END_DATE = "end_date";
         public static String RRULE = "rrule";
+        public static String OCCURRENCES = "occurrences";
+        public static String MATERIALIZED_UNTIL = "materialized_until";
+        public static String MATERIALIZED_FROM = "materialized_from";
+        public static String ENVELOPE = "envelope";
+        public static String DENSITY = "density";
+        public static String BITMAP = "bitmap";
+        public static String CALENDAR = "calendar";
+        public static String CALENDAR_UNTIL = "calendar_until";
+        public static String CALENDAR_FROM = "calendar_from";
     }
 
+    public static class Names {
+        public static final String MATERIALIZE_HORIZON = "materialize_horizon";
+        public static final String BITMAP_BASE_DATE = "bitmap_base_date";
+        public static final String BITMAP_WINDOW = "bitmap_window";
+        public static final String CALENDAR_HORIZON = "calendar_horizon";
+        public static final String HORIZON_BASE_DATE = "horizon_base_date";
+    }
+
+    // keeps a bitmap under a few hundred bytes
+    private static final int MAX_BITMAP_WINDOW_DAYS = 3660;
+    // about a century, a few thousand weeks to walk at index time and cells to look up at search time
+    private static final int MAX_CALENDAR_DAYS = 36_525;
+
     public static class RecurringFieldType extends MappedFieldType {
 
+        private static final DateMathParser DATE_MATH_PARSER = DateFormatter.forPattern("yyyy-MM-dd").toDateMathParser();
+
+        private TimeValue materializeHorizon;
+        private LocalDate bitmapBaseDate;
+        private TimeValue bitmapWindow;
+        private TimeValue calendarHorizon;
+        private LocalDate horizonBaseDate;
+        // the node's cache, which isn't part of the mapping
+        private RecurrenceRuleCache ruleCache;
+
         public RecurringFieldType() {
         }
 
         protected RecurringFieldType(RecurringFieldType ref) {
             super(ref);
+            this.materializeHorizon = ref.materializeHorizon;
+            this.bitmapBaseDate = ref.bitmapBaseDate;
+            this.bitmapWindow = ref.bitmapWindow;
+            this.calendarHorizon = ref.calendarHorizon;
+            this.horizonBaseDate = ref.horizonBaseDate;
+            this.ruleCache = ref.ruleCache;
+        }
+
+        public TimeValue materializeHorizon() {
+            return materializeHorizon;
+        }
+
+        public void setMaterializeHorizon(TimeValue materializeHorizon) {
+            checkIfFrozen();
+            this.materializeHorizon = materializeHorizon;
+        }
+
+        public LocalDate bitmapBaseDate() {
+            return bitmapBaseDate;
+        }
+
+        public TimeValue bitmapWindow() {
+            return bitmapWindow;
+        }
+
+        public void setOccurrenceBitmap(LocalDate baseDate, TimeValue window) {
+            checkIfFrozen();
+            this.bitmapBaseDate = baseDate;
+            this.bitmapWindow = window;
+        }
+
+        public TimeValue calendarHorizon() {
+            return calendarHorizon;
+        }
+
+        public void setCalendarHorizon(TimeValue calendarHorizon) {
+            checkIfFrozen();
+            this.calendarHorizon = calendarHorizon;
+        }
+
+        public LocalDate horizonBaseDate() {
+            return horizonBaseDate;
+        }
+
+        public void setHorizonBaseDate(LocalDate horizonBaseDate) {
+            checkIfFrozen();
+            this.horizonBaseDate = horizonBaseDate;
+        }
+
+        /**
+         * Returns the cache the rules of the field are parsed with on this node.
+         */
+        public RecurrenceRuleCache ruleCache() {
+            return ruleCache;
+        }
+
+        public void setRuleCache(RecurrenceRuleCache ruleCache) {
+            checkIfFrozen();
+            this.ruleCache = ruleCache;
         }
 
         @Override
@@ -84,7 +212,133 @@ public class RecurringFieldMapper extends FieldMapper {
 
         @Override
         public Query termQuery(Object value, @Nullable QueryShardContext context) {
-            throw new QueryShardException(context, "Recurring fields are not searchable: [" + name() + "].");
+            return rangeQuery(value, value, true, true, null, null, null, context);
+        }
+
+        @Override
+        public Query rangeQuery(Object lowerTerm, Object upperTerm, boolean includeLower, boolean includeUpper,
+                                ShapeRelation relation, ZoneId timeZone, DateMathParser parser,
+                                QueryShardContext context) {
+            long from = EpochDays.MIN_VALUE;
+            long to = EpochDays.MAX_VALUE;
+            if (lowerTerm != null) {
+                from = parseDay(lowerTerm, false, timeZone, parser, context) + (includeLower ? 0 : 1);
+            }
+            if (upperTerm != null) {
+                to = parseDay(upperTerm, true, timeZone, parser, context) - (includeUpper ? 0 : 1);
+            }
+            return occurrencesQuery(Math.max(from, EpochDays.MIN_VALUE), Math.min(to, EpochDays.MAX_VALUE));
+        }
+
+        /**
+         * Documents having an occurrence between the given epoch days (inclusive). Documents without a rule are
+         * answered from the start and end date points, while documents with a rule are pre-filtered on their start
+         * date and occurrence envelope before the rule is evaluated. When occurrences are materialized, only documents
+         * whose materialization starts after {@code from} or stops before {@code to} are evaluated against their rule.
+         * With calendar terms, documents occurring in a year, month or week within the range match by term, and only
+         * the others occurring in the weeks at the ends of the range, or whose terms don't span it, are evaluated.
+         */
+        public Query occurrencesQuery(long from, long to) {
+            if (from > to) {
+                return new MatchNoDocsQuery("empty occurrence range on [" + name() + "]");
+            }
+            String startField = name() + "." + FieldNames.START_DATE;
+            String endField = name() + "." + FieldNames.END_DATE;
+            String rruleField = name() + "." + FieldNames.RRULE;
+
+            Query withoutRule = new BooleanQuery.Builder()
+                    .add(new BooleanQuery.Builder()
+                            .add(LongPoint.newRangeQuery(startField, EpochDays.toMillis(from), Long.MAX_VALUE), Occur.SHOULD)
+                            .add(LongPoint.newRangeQuery(endField, EpochDays.toMillis(from), Long.MAX_VALUE), Occur.SHOULD)
+                            .build(), Occur.FILTER)
+                    .add(new DocValuesFieldExistsQuery(rruleField), Occur.MUST_NOT)
+                    .build();
+
+            Query withRule = new OccurrencesWithinQuery(name(), from, to, ruleCache);
+            if (calendarHorizon != null && to - from <= MAX_CALENDAR_DAYS) {
+                withRule = calendarQuery(from, to, withRule);
+            }
+            if (materializeHorizon != null) {
+                Query beyondHorizon = new BooleanQuery.Builder()
+                        .add(withRule, Occur.FILTER)
+                        .add(spans(FieldNames.MATERIALIZED_FROM, FieldNames.MATERIALIZED_UNTIL, from, to), Occur.MUST_NOT)
+                        .build();
+                withRule = new BooleanQuery.Builder()
+                        .add(LongPoint.newRangeQuery(name() + "." + FieldNames.OCCURRENCES, from, to), Occur.SHOULD)
+                        .add(beyondHorizon, Occur.SHOULD)
+                        .build();
+            }
+
+            Query query = new BooleanQuery.Builder()
+                    .add(LongPoint.newRangeQuery(startField, Long.MIN_VALUE, EpochDays.toMillis(to + 1) - 1), Occur.FILTER)
+                    .add(envelopeQuery(name(), from, to), Occur.FILTER)
+                    .add(new BooleanQuery.Builder()
+                            .add(withoutRule, Occur.SHOULD)
+                            .add(withRule, Occur.SHOULD)
+                            .build(), Occur.FILTER)
+                    .build();
+            return new ConstantScoreQuery(query);
+        }
+
+        /**
+         * Documents of {@code field} whose occurrence envelope meets the given epoch days (inclusive), along with the
+         * documents indexed before envelopes were, which have to be evaluated.
+         */
+        public static Query envelopeQuery(String field, long from, long to) {
+            String envelopeField = field + "." + FieldNames.ENVELOPE;
+            return new BooleanQuery.Builder()
+                    .add(LongRange.newIntersectsQuery(envelopeField, new long[] { EpochDays.toMillis(from) },
+                            new long[] { EpochDays.toMillis(to) }), Occur.SHOULD)
+                    .add(new BooleanQuery.Builder()
+                            .add(new DocValuesFieldExistsQuery(field + "." + FieldNames.START_DATE), Occur.FILTER)
+                            .add(new DocValuesFieldExistsQuery(envelopeField), Occur.MUST_NOT)
+                            .build(), Occur.SHOULD)
+                    .build();
+        }
+
+        private Query calendarQuery(long from, long to, Query withRule) {
+            CalendarTerms.Cover cover = CalendarTerms.cover(from, to);
+            if (cover.cells.isEmpty()) {
+                return withRule;
+            }
+            String calendarField = name() + "." + FieldNames.CALENDAR;
+            BooleanQuery.Builder verified = new BooleanQuery.Builder();
+            if (!cover.boundaryWeeks.isEmpty()) {
+                verified.add(new BooleanQuery.Builder()
+                        .add(new TermInSetQuery(calendarField, cover.boundaryWeeks), Occur.FILTER)
+                        .add(withRule, Occur.FILTER)
+                        .build(), Occur.SHOULD);
+            }
+            verified.add(new BooleanQuery.Builder()
+                    .add(withRule, Occur.FILTER)
+                    .add(spans(FieldNames.CALENDAR_FROM, FieldNames.CALENDAR_UNTIL, from, to), Occur.MUST_NOT)
+                    .build(), Occur.SHOULD);
+            return new BooleanQuery.Builder()
+                    .add(new TermInSetQuery(calendarField, cover.cells), Occur.SHOULD)
+                    .add(verified.build(), Occur.SHOULD)
+                    .build();
+        }
+
+        // documents whose index time window covers the range, those indexed before windows had a start begin at theirs
+        private Query spans(String fromField, String untilField, long from, long to) {
+            return new BooleanQuery.Builder()
+                    .add(LongPoint.newRangeQuery(name() + "." + untilField, to, Long.MAX_VALUE), Occur.FILTER)
+                    .add(LongPoint.newRangeQuery(name() + "." + fromField, from + 1, Long.MAX_VALUE), Occur.MUST_NOT)
+                    .build();
+        }
+
+        /**
+         * Parses a {@code yyyy-MM-dd} date or date math expression into an epoch day.
+         */
+        public long parseDay(Object value, boolean roundUp, QueryShardContext context) {
+            return parseDay(value, roundUp, null, null, context);
+        }
+
+        private static long parseDay(Object value, boolean roundUp, ZoneId timeZone, DateMathParser parser,
+                                     QueryShardContext context) {
+            String text = value instanceof BytesRef ? ((BytesRef) value).utf8ToString() : value.toString();
+            DateMathParser dateMathParser = parser != null ? parser : DATE_MATH_PARSER;
+            return EpochDays.fromMillis(dateMathParser.parse(text, context::nowInMillis, roundUp, timeZone).toEpochMilli());
         }
 
         @Override
@@ -92,6 +346,23 @@ public class RecurringFieldMapper extends FieldMapper {
             return null;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (!super.equals(o)) return false;
+            RecurringFieldType that = (RecurringFieldType) o;
+            return Objects.equals(materializeHorizon, that.materializeHorizon)
+                    && Objects.equals(bitmapBaseDate, that.bitmapBaseDate)
+                    && Objects.equals(bitmapWindow, that.bitmapWindow)
+                    && Objects.equals(calendarHorizon, that.calendarHorizon)
+                    && Objects.equals(horizonBaseDate, that.horizonBaseDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(super.hashCode(), materializeHorizon, bitmapBaseDate, bitmapWindow, calendarHorizon,
+                    horizonBaseDate);
+        }
+
     }
 
     public static class Builder extends FieldMapper.Builder<Builder, RecurringFieldMapper> {
@@ -101,12 +372,56 @@ public class RecurringFieldMapper extends FieldMapper {
         private DateFieldMapper.Builder endDateBuilder = new DateFieldMapper.Builder(FieldNames.END_DATE)
                     .format("yyyy-MM-dd");
         private KeywordFieldMapper.Builder rruleBuilder = new KeywordFieldMapper.Builder(FieldNames.RRULE);
+        private NumberFieldMapper.Builder occurrencesBuilder = new NumberFieldMapper.Builder(FieldNames.OCCURRENCES,
+                    NumberFieldMapper.NumberType.LONG);
+        private NumberFieldMapper.Builder materializedUntilBuilder = new NumberFieldMapper.Builder(
+                    FieldNames.MATERIALIZED_UNTIL, NumberFieldMapper.NumberType.LONG);
+        private NumberFieldMapper.Builder materializedFromBuilder = new NumberFieldMapper.Builder(
+                    FieldNames.MATERIALIZED_FROM, NumberFieldMapper.NumberType.LONG);
+        private RangeFieldMapper.Builder envelopeBuilder = new RangeFieldMapper.Builder(FieldNames.ENVELOPE, RangeType.DATE)
+                    .format("yyyy-MM-dd");
+        private KeywordFieldMapper.Builder densityBuilder = new KeywordFieldMapper.Builder(FieldNames.DENSITY);
+        private KeywordFieldMapper.Builder calendarBuilder = new KeywordFieldMapper.Builder(FieldNames.CALENDAR);
+        private NumberFieldMapper.Builder calendarUntilBuilder = new NumberFieldMapper.Builder(
+                    FieldNames.CALENDAR_UNTIL, NumberFieldMapper.NumberType.LONG);
+        private NumberFieldMapper.Builder calendarFromBuilder = new NumberFieldMapper.Builder(
+                    FieldNames.CALENDAR_FROM, NumberFieldMapper.NumberType.LONG);
 
         protected Builder(String name) {
             super(name, new RecurringFieldType(), new RecurringFieldType());
             this.builder = this;
         }
 
+        @Override
+        public RecurringFieldType fieldType() {
+            return (RecurringFieldType) super.fieldType();
+        }
+
+        public Builder materializeHorizon(TimeValue materializeHorizon) {
+            fieldType().setMaterializeHorizon(materializeHorizon);
+            return this;
+        }
+
+        public Builder occurrenceBitmap(LocalDate baseDate, TimeValue window) {
+            fieldType().setOccurrenceBitmap(baseDate, window);
+            return this;
+        }
+
+        public Builder calendarHorizon(TimeValue calendarHorizon) {
+            fieldType().setCalendarHorizon(calendarHorizon);
+            return this;
+        }
+
+        public Builder horizonBaseDate(LocalDate horizonBaseDate) {
+            fieldType().setHorizonBaseDate(horizonBaseDate);
+            return this;
+        }
+
+        public Builder ruleCache(RecurrenceRuleCache ruleCache) {
+            fieldType().setRuleCache(ruleCache);
+            return this;
+        }
+
         @Override
         public RecurringFieldMapper build(BuilderContext context) {
 
@@ -115,6 +430,14 @@ public class RecurringFieldMapper extends FieldMapper {
             DateFieldMapper startDateMapper = startDateBuilder.build(context);
             DateFieldMapper endDateMapper = endDateBuilder.build(context);
             KeywordFieldMapper rruleMapper = rruleBuilder.build(context);
+            NumberFieldMapper occurrencesMapper = occurrencesBuilder.build(context);
+            NumberFieldMapper materializedUntilMapper = materializedUntilBuilder.build(context);
+            NumberFieldMapper materializedFromMapper = materializedFromBuilder.build(context);
+            RangeFieldMapper envelopeMapper = envelopeBuilder.build(context);
+            KeywordFieldMapper densityMapper = densityBuilder.build(context);
+            KeywordFieldMapper calendarMapper = calendarBuilder.build(context);
+            NumberFieldMapper calendarUntilMapper = calendarUntilBuilder.build(context);
+            NumberFieldMapper calendarFromMapper = calendarFromBuilder.build(context);
 
             context.path().remove();
 
@@ -134,7 +457,9 @@ public class RecurringFieldMapper extends FieldMapper {
 
             this.setupFieldType(context);
             return new RecurringFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
-                    startDateMapper, endDateMapper, rruleMapper, multiFieldsBuilder.build(this, context), copyTo);
+                    startDateMapper, endDateMapper, rruleMapper, occurrencesMapper, materializedUntilMapper,
+                    materializedFromMapper, envelopeMapper, densityMapper, calendarMapper, calendarUntilMapper,
+                    calendarFromMapper, multiFieldsBuilder.build(this, context), copyTo);
         }
 
     }
@@ -142,23 +467,109 @@ public class RecurringFieldMapper extends FieldMapper {
 
     public static class TypeParser implements Mapper.TypeParser {
 
+        private final RecurrenceRuleCache ruleCache;
+
+        public TypeParser(RecurrenceRuleCache ruleCache) {
+            this.ruleCache = ruleCache;
+        }
+
         @Override
         public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext)
                 throws MapperParsingException {
 
-            return new RecurringFieldMapper.Builder(name);
+            RecurringFieldMapper.Builder builder = new RecurringFieldMapper.Builder(name).ruleCache(ruleCache);
+            LocalDate bitmapBaseDate = null;
+            TimeValue bitmapWindow = null;
+
+            for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry<String, Object> entry = iterator.next();
+                if (Names.MATERIALIZE_HORIZON.equals(entry.getKey())) {
+                    builder.materializeHorizon(parseHorizon(name, entry.getValue()));
+                    iterator.remove();
+                } else if (Names.BITMAP_BASE_DATE.equals(entry.getKey())) {
+                    bitmapBaseDate = parseBaseDate(name, Names.BITMAP_BASE_DATE, entry.getValue());
+                    iterator.remove();
+                } else if (Names.BITMAP_WINDOW.equals(entry.getKey())) {
+                    bitmapWindow = parseDays(name, Names.BITMAP_WINDOW, entry.getValue(), MAX_BITMAP_WINDOW_DAYS);
+                    iterator.remove();
+                } else if (Names.CALENDAR_HORIZON.equals(entry.getKey())) {
+                    builder.calendarHorizon(parseDays(name, Names.CALENDAR_HORIZON, entry.getValue(), MAX_CALENDAR_DAYS));
+                    iterator.remove();
+                } else if (Names.HORIZON_BASE_DATE.equals(entry.getKey())) {
+                    builder.horizonBaseDate(parseBaseDate(name, Names.HORIZON_BASE_DATE, entry.getValue()));
+                    iterator.remove();
+                }
+            }
+            if ((bitmapBaseDate == null) != (bitmapWindow == null)) {
+                throw new MapperParsingException("[" + name + "." + Names.BITMAP_BASE_DATE + "] and [" + name + "."
+                        + Names.BITMAP_WINDOW + "] must be set together");
+            }
+            if (bitmapWindow != null) {
+                builder.occurrenceBitmap(bitmapBaseDate, bitmapWindow);
+            }
+
+            return builder;
+        }
+
+        private static LocalDate parseBaseDate(String name, String option, Object value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                return LocalDate.parse(XContentMapValues.nodeStringValue(value, null));
+            } catch (IllegalArgumentException e) {
+                throw new MapperParsingException("[" + name + "." + option + "] must be a yyyy-MM-dd date, got ["
+                        + value + "]", e);
+            }
+        }
+
+        private static TimeValue parseDays(String name, String option, Object value, int maxDays) {
+            if (value == null) {
+                return null;
+            }
+            String settingName = name + "." + option;
+            TimeValue days = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(value, null), settingName);
+            if (days.days() < 1 || days.days() > maxDays) {
+                throw new MapperParsingException("[" + settingName + "] must be between 1d and " + maxDays
+                        + "d, got [" + value + "]");
+            }
+            return days;
+        }
+
+        private static TimeValue parseHorizon(String name, Object value) {
+            if (value == null) {
+                return null;
+            }
+            String settingName = name + "." + Names.MATERIALIZE_HORIZON;
+            TimeValue horizon = TimeValue.parseTimeValue(XContentMapValues.nodeStringValue(value, null), settingName);
+            if (horizon.days() < 1) {
+                throw new MapperParsingException("[" + settingName + "] must be at least 1d, got [" + value + "]");
+            }
+            return horizon;
         }
     }
 
     protected RecurringFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
                                    Settings indexSettings, DateFieldMapper startDateMapper,
-                                   DateFieldMapper endDateMapper, KeywordFieldMapper rruleMapper, MultiFields multiFields,
-                                   CopyTo copyTo) {
+                                   DateFieldMapper endDateMapper, KeywordFieldMapper rruleMapper,
+                                   NumberFieldMapper occurrencesMapper, NumberFieldMapper materializedUntilMapper,
+                                   NumberFieldMapper materializedFromMapper, RangeFieldMapper envelopeMapper,
+                                   KeywordFieldMapper densityMapper, KeywordFieldMapper calendarMapper,
+                                   NumberFieldMapper calendarUntilMapper, NumberFieldMapper calendarFromMapper,
+                                   MultiFields multiFields, CopyTo copyTo) {
         super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
 
         this.startDateMapper = startDateMapper;
         this.endDateMapper = endDateMapper;
         this.rruleMapper = rruleMapper;
+        this.occurrencesMapper = occurrencesMapper;
+        this.materializedUntilMapper = materializedUntilMapper;
+        this.materializedFromMapper = materializedFromMapper;
+        this.envelopeMapper = envelopeMapper;
+        this.densityMapper = densityMapper;
+        this.calendarMapper = calendarMapper;
+        this.calendarUntilMapper = calendarUntilMapper;
+        this.calendarFromMapper = calendarFromMapper;
     }
 
     @Override
@@ -196,11 +607,140 @@ public class RecurringFieldMapper extends FieldMapper {
             rruleMapper.parse(context.createExternalValueContext(recurring.getRrule()));
         }
 
+        if (null != recurring.getStart()) {
+            Recurring.Density density = density(context, recurring);
+            long last = envelope(context, recurring, density);
+            if (null != fieldType().bitmapWindow() && null != recurring.getRrule() && density == Recurring.Density.REGULAR) {
+                bitmap(context, recurring);
+            }
+            if (null != fieldType().calendarHorizon() && null != recurring.getRrule()
+                    && density == Recurring.Density.REGULAR) {
+                calendar(context, recurring, last, fieldType().calendarHorizon());
+            }
+            if (null != fieldType().materializeHorizon()) {
+                materialize(context, recurring, fieldType().materializeHorizon());
+            }
+        }
+
         multiFields.parse(this, context.createExternalValueContext(recurring));
 
         context.path().remove();
     }
 
+    // rules making iterators walk many candidates per occurrence are flagged, regular ones are not
+    private Recurring.Density density(ParseContext context, Recurring recurring) throws IOException {
+        Recurring.Density density;
+        try {
+            density = recurring.getDensity();
+        } catch (ParseException e) {
+            throw new MapperParsingException("failed to parse rrule [" + recurring.getRrule() + "]", e);
+        }
+        if (density != Recurring.Density.REGULAR) {
+            densityMapper.parse(context.createExternalValueContext(density.name().toLowerCase(Locale.ROOT)));
+        }
+        return density;
+    }
+
+    // first to last occurrence, open ended if the series never ends, returns the last one or NO_DAY if open ended
+    private long envelope(ParseContext context, Recurring recurring, Recurring.Density density) throws IOException {
+        LocalDate first;
+        LocalDate last;
+        try {
+            first = recurring.getFirstOccurrence();
+            last = recurring.getLastOccurrence();
+        } catch (ParseException e) {
+            throw new MapperParsingException("failed to parse rrule [" + recurring.getRrule() + "]", e);
+        }
+        long from = EpochDays.toMillis(EpochDays.of(first));
+        if (last == null && density == Recurring.Density.NEVER_REPEATS) {
+            last = first;
+        }
+        long to = last != null ? EpochDays.toMillis(EpochDays.of(last)) : Long.MAX_VALUE;
+        envelopeMapper.parse(context.createExternalValueContext(new RangeFieldMapper.Range(RangeType.DATE, from, to, true, true)));
+        return last != null ? EpochDays.of(last) : Recurring.NO_DAY;
+    }
+
+    // cells occurring over the horizon, and from and until when they are known
+    private void calendar(ParseContext context, Recurring recurring, long last, TimeValue horizon) throws IOException {
+        long start = windowStart(recurring);
+        long limit = start + horizon.days();
+        Set<String> terms;
+        try {
+            terms = CalendarTerms.of(recurring.occurrences(start, limit));
+        } catch (ParseException e) {
+            throw new MapperParsingException("failed to parse rrule [" + recurring.getRrule() + "]", e);
+        }
+        for (String term : terms) {
+            calendarMapper.parse(context.createExternalValueContext(term));
+        }
+        long until = last != Recurring.NO_DAY && last <= limit ? Long.MAX_VALUE : limit;
+        calendarUntilMapper.parse(context.createExternalValueContext(until));
+        calendarFromMapper.parse(context.createExternalValueContext(start));
+    }
+
+    // index time windows start on the mapping's base date, so that series which started long ago are known around
+    // the dates queries are mostly about, and every copy of a document indexes the same window
+    private long windowStart(Recurring recurring) {
+        long start = EpochDays.of(recurring.getStart());
+        LocalDate baseDate = fieldType().horizonBaseDate();
+        return baseDate != null ? Math.max(start, EpochDays.of(baseDate)) : start;
+    }
+
+    // sparse rules are left to be evaluated, walking them over the window could take long
+    private void bitmap(ParseContext context, Recurring recurring) throws IOException {
+        BytesRef bitmap;
+        try {
+            bitmap = OccurrenceBitmap.encode(recurring, EpochDays.of(fieldType().bitmapBaseDate()),
+                    (int) fieldType().bitmapWindow().days());
+        } catch (ParseException e) {
+            throw new MapperParsingException("failed to parse rrule [" + recurring.getRrule() + "]", e);
+        }
+        context.doc().add(new BinaryDocValuesField(name() + "." + FieldNames.BITMAP, bitmap));
+    }
+
+    private void materialize(ParseContext context, Recurring recurring, TimeValue horizon) throws IOException {
+        long start = windowStart(recurring);
+        LocalDate limit = EpochDays.toLocalDate(start + horizon.days());
+        List<Long> days = new ArrayList<>();
+        boolean complete;
+        try {
+            complete = recurring.expandOccurrences(EpochDays.toLocalDate(start), limit, day -> days.add(EpochDays.of(day)));
+        } catch (ParseException e) {
+            throw new MapperParsingException("failed to parse rrule [" + recurring.getRrule() + "]", e);
+        }
+
+        for (Long day : days) {
+            occurrencesMapper.parse(context.createExternalValueContext(day));
+        }
+        long until = complete ? Long.MAX_VALUE : EpochDays.of(limit);
+        materializedUntilMapper.parse(context.createExternalValueContext(until));
+        materializedFromMapper.parse(context.createExternalValueContext(start));
+    }
+
+    @Override
+    protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+        super.doXContentBody(builder, includeDefaults, params);
+
+        TimeValue horizon = fieldType().materializeHorizon();
+        if (includeDefaults || horizon != null) {
+            builder.field(Names.MATERIALIZE_HORIZON, horizon != null ? horizon.getStringRep() : null);
+        }
+        TimeValue window = fieldType().bitmapWindow();
+        if (includeDefaults || window != null) {
+            LocalDate baseDate = fieldType().bitmapBaseDate();
+            builder.field(Names.BITMAP_BASE_DATE, baseDate != null ? baseDate.toString() : null);
+            builder.field(Names.BITMAP_WINDOW, window != null ? window.getStringRep() : null);
+        }
+        TimeValue calendarHorizon = fieldType().calendarHorizon();
+        if (includeDefaults || calendarHorizon != null) {
+            builder.field(Names.CALENDAR_HORIZON, calendarHorizon != null ? calendarHorizon.getStringRep() : null);
+        }
+        LocalDate horizonBaseDate = fieldType().horizonBaseDate();
+        if (includeDefaults || horizonBaseDate != null) {
+            builder.field(Names.HORIZON_BASE_DATE, horizonBaseDate != null ? horizonBaseDate.toString() : null);
+        }
+    }
+
     @Override
     protected String contentType() {
         return CONTENT_TYPE;
@@ -213,7 +753,9 @@ public class RecurringFieldMapper extends FieldMapper {
 
     @Override
     public Iterator<Mapper> iterator() {
-        List<? extends Mapper> extras = Arrays.asList(startDateMapper, endDateMapper, rruleMapper);
+        List<? extends Mapper> extras = Arrays.asList(startDateMapper, endDateMapper, rruleMapper, occurrencesMapper,
+                materializedUntilMapper, materializedFromMapper, envelopeMapper, densityMapper, calendarMapper,
+                calendarUntilMapper, calendarFromMapper);
         return Iterators.concat(super.iterator(), extras.iterator());
     }
 
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.index.query;
+
+import com.carrotsearch.hppc.LongByteHashMap;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.ElasticsearchParseException;
+import org.joda.time.LocalDate;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Objects;
+
+/**
+ * Matches documents whose rrule has an occurrence between two epoch days (inclusive). Only documents having a rule
+ * are considered, and the rule is evaluated once for each distinct rule and start date of a segment, so this is
+ * meant to be intersected with cheaper filters.
+ */
+public class OccurrencesWithinQuery extends Query {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+
+    private static final int COST_SAMPLE_SIZE = 16;
+    private static final float RULE_COST = 100f;
+    private static final float STEP_COST = 5f;
+    private static final float MAX_STEPS = 1_000_000f;
+
+    private final String field;
+    private final long from;
+    private final long to;
+    private final RecurrenceRuleCache ruleCache;
+
+    public OccurrencesWithinQuery(String field, long from, long to, RecurrenceRuleCache ruleCache) {
+        this.field = Objects.requireNonNull(field);
+        this.from = from;
+        this.to = to;
+        this.ruleCache = Objects.requireNonNull(ruleCache);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) {
+        final String startField = field + "." + RecurringFieldMapper.FieldNames.START_DATE;
+        final String rruleField = field + "." + RecurringFieldMapper.FieldNames.RRULE;
+        final LocalDate fromDate = EpochDays.toLocalDate(from);
+        final LocalDate toDate = EpochDays.toLocalDate(to);
+
+        return new ConstantScoreWeight(this, boost) {
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                LeafReader reader = context.reader();
+                final SortedNumericDocValues starts = DocValues.getSortedNumeric(reader, startField);
+                final SortedSetDocValues rrules = DocValues.getSortedSet(reader, rruleField);
+                final float matchCost = estimateMatchCost(reader, startField, rruleField);
+
+                TwoPhaseIterator twoPhase = new TwoPhaseIterator(rrules) {
+
+                    // answers by rule and start date, shared by all documents of the segment having both in common
+                    private final LongByteHashMap results = new LongByteHashMap();
+                    private final Recurring recurring = new Recurring();
+
+                    @Override
+                    public boolean matches() throws IOException {
+                        if (!starts.advanceExact(rrules.docID())) {
+                            return false;
+                        }
+                        long start = EpochDays.fromMillis(starts.nextValue());
+                        long ord = rrules.nextOrd();
+                        long key = RecurringDocValues.ruleKey(ord, start);
+                        byte result = key != RecurringDocValues.NO_KEY ? results.getOrDefault(key, UNKNOWN) : UNKNOWN;
+                        if (result == UNKNOWN) {
+                            result = matches(start, rrules.lookupOrd(ord).utf8ToString()) ? TRUE : FALSE;
+                            if (key != RecurringDocValues.NO_KEY && results.size() < RecurringDocValues.MAX_MEMOIZED_RESULTS) {
+                                results.put(key, result);
+                            }
+                        }
+                        return result == TRUE;
+                    }
+
+                    private boolean matches(long start, String rrule) {
+                        recurring.reset(start, Recurring.NO_DAY, ruleCache.get(rrule));
+                        try {
+                            return recurring.hasOccurrencesWithin(fromDate, toDate);
+                        } catch (ParseException e) {
+                            throw new ElasticsearchParseException("failed to parse rrule [{}]", e, rrule);
+                        }
+                    }
+
+                    @Override
+                    public float matchCost() {
+                        return matchCost;
+                    }
+                };
+                return new ConstantScoreScorer(this, score(), scoreMode, twoPhase);
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext ctx) {
+                return DocValues.isCacheable(ctx, startField, rruleField);
+            }
+        };
+    }
+
+    /**
+     * Estimates the cost of evaluating one document from a sample of the rules of the segment: setting up the rule's iterator plus
+     * the number of occurrences its iterator may walk from the earliest start date of the segment up to {@code from}.
+     */
+    private float estimateMatchCost(LeafReader reader, String startField, String rruleField) throws IOException {
+        SortedSetDocValues rrules = DocValues.getSortedSet(reader, rruleField);
+        long valueCount = rrules.getValueCount();
+        if (valueCount == 0) {
+            return RULE_COST;
+        }
+
+        PointValues points = reader.getPointValues(startField);
+        long minStart = points != null
+                ? EpochDays.fromMillis(LongPoint.decodeDimension(points.getMinPackedValue(), 0))
+                : from;
+        long span = Math.max(0, from - minStart);
+
+        int samples = (int) Math.min(COST_SAMPLE_SIZE, valueCount);
+        float total = 0;
+        for (int i = 0; i < samples; i++) {
+            String rrule = rrules.lookupOrd(i * valueCount / samples).utf8ToString();
+            int interval = ruleCache.get(rrule).approximateIntervalInDays();
+            total += RULE_COST + STEP_COST * Math.min(MAX_STEPS, (float) span / interval);
+        }
+        return total / samples;
+    }
+
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        if (visitor.acceptField(field)) {
+            visitor.visitLeaf(this);
+        }
+    }
+
+    @Override
+    public String toString(String defaultField) {
+        StringBuilder sb = new StringBuilder();
+        if (!field.equals(defaultField)) {
+            sb.append(field).append(':');
+        }
+        return sb.append("occurrences[")
+                .append(EpochDays.toLocalDate(from))
+                .append(" TO ")
+                .append(EpochDays.toLocalDate(to))
+                .append(']')
+                .toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!sameClassAs(o)) return false;
+        OccurrencesWithinQuery that = (OccurrencesWithinQuery) o;
+        return from == that.from && to == that.to && field.equals(that.field);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), field, from, to);
+    }
+}
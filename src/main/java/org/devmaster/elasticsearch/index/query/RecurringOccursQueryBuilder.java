@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.index.query;
+
+import org.apache.lucene.search.Query;
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Matches documents of a recurring field having an occurrence between {@code from} and {@code to}, both inclusive.
+ * Either bound may be omitted to leave that side of the window open.
+ */
+public class RecurringOccursQueryBuilder extends AbstractQueryBuilder<RecurringOccursQueryBuilder> {
+
+    public static final String NAME = "recurring_occurs";
+
+    public static final ParseField FIELD_FIELD = new ParseField("field");
+    public static final ParseField FROM_FIELD = new ParseField("from");
+    public static final ParseField TO_FIELD = new ParseField("to");
+
+    private final String fieldName;
+    private String from;
+    private String to;
+
+    public RecurringOccursQueryBuilder(String fieldName) {
+        if (Strings.isEmpty(fieldName)) {
+            throw new IllegalArgumentException("field name is null or empty");
+        }
+        this.fieldName = fieldName;
+    }
+
+    public RecurringOccursQueryBuilder(StreamInput in) throws IOException {
+        super(in);
+        fieldName = in.readString();
+        from = in.readOptionalString();
+        to = in.readOptionalString();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(fieldName);
+        out.writeOptionalString(from);
+        out.writeOptionalString(to);
+    }
+
+    public String fieldName() {
+        return fieldName;
+    }
+
+    public String from() {
+        return from;
+    }
+
+    public RecurringOccursQueryBuilder from(String from) {
+        this.from = from;
+        return this;
+    }
+
+    public String to() {
+        return to;
+    }
+
+    public RecurringOccursQueryBuilder to(String to) {
+        this.to = to;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(NAME);
+        builder.field(FIELD_FIELD.getPreferredName(), fieldName);
+        if (from != null) {
+            builder.field(FROM_FIELD.getPreferredName(), from);
+        }
+        if (to != null) {
+            builder.field(TO_FIELD.getPreferredName(), to);
+        }
+        printBoostAndQueryName(builder);
+        builder.endObject();
+    }
+
+    public static RecurringOccursQueryBuilder fromXContent(XContentParser parser) throws IOException {
+        String fieldName = null;
+        String from = null;
+        String to = null;
+        String queryName = null;
+        float boost = AbstractQueryBuilder.DEFAULT_BOOST;
+
+        XContentParser.Token token;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    fieldName = parser.text();
+                } else if (FROM_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    from = parser.textOrNull();
+                } else if (TO_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    to = parser.textOrNull();
+                } else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    queryName = parser.text();
+                } else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    boost = parser.floatValue();
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                            "] query does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                        "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+
+        if (fieldName == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+        }
+        if (from == null && to == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [from], [to] or both");
+        }
+
+        RecurringOccursQueryBuilder builder = new RecurringOccursQueryBuilder(fieldName);
+        builder.from(from);
+        builder.to(to);
+        builder.queryName(queryName);
+        builder.boost(boost);
+        return builder;
+    }
+
+    @Override
+    protected Query doToQuery(QueryShardContext context) throws IOException {
+        MappedFieldType fieldType = context.fieldMapper(fieldName);
+        if (fieldType == null) {
+            throw new QueryShardException(context, "failed to find field [" + fieldName + "]");
+        }
+        if (!(fieldType instanceof RecurringFieldMapper.RecurringFieldType)) {
+            throw new QueryShardException(context, "field [" + fieldName + "] is of type [" + fieldType.typeName()
+                    + "], but [" + NAME + "] only supports [" + RecurringFieldMapper.CONTENT_TYPE + "] fields");
+        }
+        return fieldType.rangeQuery(from, to, true, true, null, null, null, context);
+    }
+
+    @Override
+    protected boolean doEquals(RecurringOccursQueryBuilder other) {
+        return Objects.equals(fieldName, other.fieldName)
+                && Objects.equals(from, other.from)
+                && Objects.equals(to, other.to);
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Objects.hash(fieldName, from, to);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counters of the recurring scripts of this node.
+ */
+public final class RecurringMetrics {
+
+    private static final RecurringMetrics INSTANCE = new RecurringMetrics();
+
+    private final ConcurrentMap<String, ScriptMetrics> scripts = new ConcurrentHashMap<>();
+
+    private RecurringMetrics() {
+    }
+
+    public static RecurringMetrics instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the counters of the script called {@code name}, meant to be looked up once per segment rather than
+     * per document.
+     */
+    public ScriptMetrics script(String name) {
+        return scripts.computeIfAbsent(name, ScriptMetrics::new);
+    }
+
+    public List<ScriptStats> scriptStats() {
+        List<ScriptStats> stats = new ArrayList<>(scripts.size());
+        for (ScriptMetrics metrics : scripts.values()) {
+            stats.add(metrics.stats());
+        }
+        stats.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return stats;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.monitor;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one script, cheap enough to be updated for every document. Only evaluations, the calls that could not be
+ * answered from a memoized result, are timed.
+ */
+public final class ScriptMetrics {
+
+    private final String name;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder evaluationNanos = new LongAdder();
+    private final LongAdder iteratorSteps = new LongAdder();
+    private final LongAdder budgetExceeded = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Recorder recorder = new Recorder(2);
+    // everything recorded so far, updated from the recorder when read
+    private final Histogram evaluationTimes = new Histogram(2);
+
+    ScriptMetrics(String name) {
+        this.name = name;
+    }
+
+    public void onInvocation() {
+        invocations.increment();
+    }
+
+    public void onEvaluation(long nanos, long steps, boolean exceeded) {
+        evaluations.increment();
+        if (exceeded) {
+            budgetExceeded.increment();
+        }
+        evaluationNanos.add(nanos);
+        if (steps > 0) {
+            iteratorSteps.add(steps);
+        }
+        recorder.recordValue(Math.max(0, nanos));
+    }
+
+    public void onFailure() {
+        failures.increment();
+    }
+
+    public ScriptStats stats() {
+        long p99;
+        synchronized (evaluationTimes) {
+            evaluationTimes.add(recorder.getIntervalHistogram());
+            p99 = evaluationTimes.getTotalCount() > 0 ? evaluationTimes.getValueAtPercentile(99) : 0;
+        }
+        return new ScriptStats(name, invocations.sum(), evaluations.sum(), evaluationNanos.sum(), p99,
+                iteratorSteps.sum(), budgetExceeded.sum(), failures.sum());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.monitor;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class ScriptStats implements Writeable, ToXContentFragment {
+
+    private final String name;
+    private final long invocations;
+    private final long evaluations;
+    private final long evaluationNanos;
+    private final long p99EvaluationNanos;
+    private final long iteratorSteps;
+    private final long budgetExceeded;
+    private final long failures;
+
+    public ScriptStats(String name, long invocations, long evaluations, long evaluationNanos, long p99EvaluationNanos,
+                       long iteratorSteps, long budgetExceeded, long failures) {
+        this.name = name;
+        this.invocations = invocations;
+        this.evaluations = evaluations;
+        this.evaluationNanos = evaluationNanos;
+        this.p99EvaluationNanos = p99EvaluationNanos;
+        this.iteratorSteps = iteratorSteps;
+        this.budgetExceeded = budgetExceeded;
+        this.failures = failures;
+    }
+
+    public ScriptStats(StreamInput in) throws IOException {
+        this.name = in.readString();
+        this.invocations = in.readVLong();
+        this.evaluations = in.readVLong();
+        this.evaluationNanos = in.readVLong();
+        this.p99EvaluationNanos = in.readVLong();
+        this.iteratorSteps = in.readVLong();
+        this.budgetExceeded = in.readVLong();
+        this.failures = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(name);
+        out.writeVLong(invocations);
+        out.writeVLong(evaluations);
+        out.writeVLong(evaluationNanos);
+        out.writeVLong(p99EvaluationNanos);
+        out.writeVLong(iteratorSteps);
+        out.writeVLong(budgetExceeded);
+        out.writeVLong(failures);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public long getEvaluationNanos() {
+        return evaluationNanos;
+    }
+
+    public long getP99EvaluationNanos() {
+        return p99EvaluationNanos;
+    }
+
+    public long getIteratorSteps() {
+        return iteratorSteps;
+    }
+
+    /**
+     * Returns how many evaluations ran out of iterator steps.
+     */
+    public long getBudgetExceeded() {
+        return budgetExceeded;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(name);
+        builder.field("invocations", invocations);
+        builder.field("evaluations", evaluations);
+        builder.humanReadableField("evaluation_time_in_nanos", "evaluation_time",
+                new TimeValue(evaluationNanos, TimeUnit.NANOSECONDS));
+        builder.field("avg_evaluation_time_in_nanos", evaluations > 0 ? evaluationNanos / evaluations : 0);
+        builder.field("p99_evaluation_time_in_nanos", p99EvaluationNanos);
+        builder.field("iterator_steps", iteratorSteps);
+        builder.field("budget_exceeded", budgetExceeded);
+        builder.field("failures", failures);
+        return builder.endObject();
+    }
+}
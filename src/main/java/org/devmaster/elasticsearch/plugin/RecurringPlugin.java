@@ -15,45 +15,161 @@
 package org.devmaster.elasticsearch.plugin;
 
 
+import org.devmaster.elasticsearch.action.stats.RecurringStatsAction;
+import org.devmaster.elasticsearch.action.stats.TransportRecurringStatsAction;
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCache;
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCacheService;
 import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
-import org.devmaster.elasticsearch.script.HasAnyOccurrenceBetweenFilterScript;
-import org.devmaster.elasticsearch.script.HasOccurrencesAtFilterScript;
-import org.devmaster.elasticsearch.script.NextOccurrenceFieldScript;
-import org.devmaster.elasticsearch.script.NotHasExpiredFilterScript;
-import org.devmaster.elasticsearch.script.OccurBetweenFilterScript;
-import org.devmaster.elasticsearch.script.OccurrencesBetweenFieldScript;
+import org.devmaster.elasticsearch.index.query.RecurringOccursQueryBuilder;
+import org.devmaster.elasticsearch.rest.RestRecurringStatsAction;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCacheService;
+import org.devmaster.elasticsearch.script.RecurringScripts;
+import org.devmaster.elasticsearch.search.aggregations.InternalRecurringAgenda;
+import org.devmaster.elasticsearch.search.aggregations.InternalRecurringHistogram;
+import org.devmaster.elasticsearch.search.aggregations.InternalRecurringOccurrenceCount;
+import org.devmaster.elasticsearch.search.aggregations.RecurringAgendaAggregationBuilder;
+import org.devmaster.elasticsearch.search.aggregations.RecurringHistogramAggregationBuilder;
+import org.devmaster.elasticsearch.search.aggregations.RecurringOccurrenceCountAggregationBuilder;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.ScriptPlugin;
-import org.elasticsearch.script.FieldScript;
-import org.elasticsearch.script.FilterScript;
+import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
-import org.elasticsearch.script.ScriptFactory;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
-public class RecurringPlugin extends Plugin implements MapperPlugin, ScriptPlugin {
+public class RecurringPlugin extends Plugin implements ActionPlugin, MapperPlugin, ScriptPlugin, SearchPlugin {
+
+    public static final Setting<Long> MAX_ITERATOR_STEPS_SETTING =
+            Setting.longSetting("recurring.script.max_iterator_steps", 100_000, 1, Property.NodeScope);
+
+    // the caches of this node, accounted against its breakers by the cache services once they exist
+    private final RecurrenceRuleCache ruleCache;
+    private final RecurringFilterCache filterCache;
+
+    public RecurringPlugin(Settings settings) {
+        this.ruleCache = new RecurrenceRuleCache(settings, null);
+        this.filterCache = new RecurringFilterCache(settings, null);
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(RecurrenceRuleCache.CACHE_SIZE_SETTING, RecurrenceRuleCache.CACHE_EXPIRE_SETTING,
+                RecurringFilterCache.CACHE_SIZE_SETTING, MAX_ITERATOR_STEPS_SETTING);
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry,
+                                               IndexNameExpressionResolver indexNameExpressionResolver) {
+        return Arrays.asList(ruleCache, filterCache);
+    }
+
+    @Override
+    public Collection<Module> createGuiceModules() {
+        return Collections.singletonList(b -> {
+            b.bind(RecurrenceRuleCacheService.class).asEagerSingleton();
+            b.bind(RecurringFilterCacheService.class).asEagerSingleton();
+        });
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> getGuiceServiceClasses() {
+        return Arrays.asList(RecurrenceRuleCacheService.class, RecurringFilterCacheService.class);
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Collections.singletonList(new ActionHandler<>(RecurringStatsAction.INSTANCE, TransportRecurringStatsAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Collections.singletonList(new RestRecurringStatsAction());
+    }
 
     @Override
     public Map<String, Mapper.TypeParser> getMappers() {
-        return Collections.singletonMap(RecurringFieldMapper.CONTENT_TYPE, new RecurringFieldMapper.TypeParser());
+        return Collections.singletonMap(RecurringFieldMapper.CONTENT_TYPE, new RecurringFieldMapper.TypeParser(ruleCache));
+    }
+
+    @Override
+    public List<QuerySpec<?>> getQueries() {
+        return Collections.singletonList(new QuerySpec<>(RecurringOccursQueryBuilder.NAME,
+                RecurringOccursQueryBuilder::new, RecurringOccursQueryBuilder::fromXContent));
+    }
+
+    @Override
+    public List<AggregationSpec> getAggregations() {
+        return Arrays.asList(
+                new AggregationSpec(RecurringHistogramAggregationBuilder.NAME,
+                        RecurringHistogramAggregationBuilder::new,
+                        (XContentParser p, String name) -> RecurringHistogramAggregationBuilder.parse(name, p))
+                        .addResultReader(InternalRecurringHistogram::new),
+                new AggregationSpec(RecurringOccurrenceCountAggregationBuilder.NAME,
+                        RecurringOccurrenceCountAggregationBuilder::new,
+                        (XContentParser p, String name) -> RecurringOccurrenceCountAggregationBuilder.parse(name, p))
+                        .addResultReader(InternalRecurringOccurrenceCount::new),
+                new AggregationSpec(RecurringAgendaAggregationBuilder.NAME,
+                        RecurringAgendaAggregationBuilder::new,
+                        (XContentParser p, String name) -> RecurringAgendaAggregationBuilder.parse(name, p))
+                        .addResultReader(InternalRecurringAgenda::new));
     }
 
     @Override
     public ScriptEngine getScriptEngine(Settings settings, Collection<ScriptContext<?>> contexts) {
-        return new RecurringScriptEngine();
+        return new RecurringScriptEngine(new RecurringScripts(MAX_ITERATOR_STEPS_SETTING.get(settings), ruleCache,
+                filterCache));
     }
 
 
     private static class RecurringScriptEngine implements ScriptEngine {
 
+        private final RecurringScripts scripts;
+
+        private RecurringScriptEngine(RecurringScripts scripts) {
+            this.scripts = scripts;
+        }
+
         @Override
         public String getType() {
             return "recurring_scripts";
@@ -61,36 +177,23 @@ public class RecurringPlugin extends Plugin implements MapperPlugin, ScriptPlugi
 
         @Override
         public <T> T compile(String name, String code, ScriptContext<T> context, Map<String, String> params) {
-            if (!context.equals(FilterScript.CONTEXT) && !context.equals(FieldScript.CONTEXT)) {
+            if (!scripts.contexts().contains(context)) {
                 throw new IllegalArgumentException(getType()
                         + " scripts cannot be used for context ["
                         + context.name + "]");
             }
 
-            ScriptFactory factory;
-            if (HasAnyOccurrenceBetweenFilterScript.NAME.equals(code)) {
-                factory = new HasAnyOccurrenceBetweenFilterScript.Factory();
-            } else if (HasOccurrencesAtFilterScript.NAME.equals(code)) {
-                factory = new HasOccurrencesAtFilterScript.Factory();
-            } else if (OccurBetweenFilterScript.NAME.equals(code)) {
-                factory = new OccurBetweenFilterScript.Factory();
-            } else if (NotHasExpiredFilterScript.NAME.equals(code)) {
-                factory = new NotHasExpiredFilterScript.Factory();
-            } else if (NextOccurrenceFieldScript.NAME.equals(code)) {
-                factory = new NextOccurrenceFieldScript.Factory();
-            } else if (OccurrencesBetweenFieldScript.NAME.equals(code)) {
-                factory = new OccurrencesBetweenFieldScript.Factory();
-            } else throw new IllegalArgumentException("Not implemented");
-
-            return context.factoryClazz.cast(factory);
+            T factory = scripts.factory(context, code);
+            if (factory == null) {
+                throw new IllegalArgumentException("Unknown " + getType() + " script [" + code + "] for context ["
+                        + context.name + "]");
+            }
+            return factory;
         }
 
         @Override
         public Set<ScriptContext<?>> getSupportedContexts() {
-            Set<ScriptContext<?>> contexts = new HashSet<>();
-            contexts.add(FilterScript.CONTEXT);
-            contexts.add(FieldScript.CONTEXT);
-            return contexts;
+            return scripts.contexts();
         }
     }
 
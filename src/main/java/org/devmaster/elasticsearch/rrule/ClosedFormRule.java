@@ -0,0 +1,419 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.rrule;
+
+import com.google.ical.values.DateTimeValue;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RRule;
+import com.google.ical.values.WeekdayNum;
+import org.devmaster.elasticsearch.EpochDays;
+
+import java.util.List;
+
+/**
+ * Calendar arithmetic on epoch days for the common rule shapes: plain daily and weekly rules, monthly rules by day of
+ * the month or weekday and yearly rules by month. Gives the same answers as the rfc-2445 iterators, including the
+ * start date always being the first occurrence, and is only built for rules where that has been verified.
+ */
+final class ClosedFormRule {
+
+    static final long NONE = Long.MAX_VALUE;
+    static final long UNKNOWN = Long.MIN_VALUE;
+
+    // The iterators give up after generating 100 years (or 100 intervals of yearly rules) without an occurrence,
+    // advancing to a date included. Anything that gets near that is left to the iterators.
+    private static final int MAX_ADVANCE_STEPS = 60;
+    private static final int MAX_SEARCH_STEPS = 80;
+
+    private static final int MAX_COUNT = 1000;
+    private static final int MAX_DAILY_INTERVAL = 3650;
+    private static final int MAX_WEEKLY_INTERVAL = 520;
+    private static final int MAX_MONTHLY_INTERVAL = 12;
+    private static final int MAX_YEARLY_INTERVAL = 100;
+
+    private static final int ALL_MONTHS = 0x1FFE;
+    private static final int[] NO_INTS = new int[0];
+
+    private final Frequency freq;
+    private final int interval;
+    private final int weekStart;
+    // plain BYDAY as a bit set, bit 0 is Sunday
+    private final int weekdays;
+    // BYDAY with optional ordinals, relative to the month
+    private final int[] byDayNums;
+    private final int[] byDayWeekdays;
+    // BYMONTH as a bit set, bit 1 is January
+    private final int months;
+    private final int[] monthDays;
+    private final long until;
+    private final int count;
+
+    private ClosedFormRule(Frequency freq, int interval, int weekStart, int weekdays, int[] byDayNums, int[] byDayWeekdays,
+                           int months, int[] monthDays, long until, int count) {
+        this.freq = freq;
+        this.interval = interval;
+        this.weekStart = weekStart;
+        this.weekdays = weekdays;
+        this.byDayNums = byDayNums;
+        this.byDayWeekdays = byDayWeekdays;
+        this.months = months;
+        this.monthDays = monthDays;
+        this.until = until;
+        this.count = count;
+    }
+
+    /**
+     * Returns {@code null} if the rule has to be evaluated by iterating it.
+     */
+    static ClosedFormRule of(RRule rule) {
+        if (rule.getByWeekNo().length > 0 || rule.getByYearDay().length > 0 || rule.getBySetPos().length > 0
+                || rule.getByHour().length > 0 || rule.getByMinute().length > 0 || rule.getBySecond().length > 0) {
+            return null;
+        }
+
+        DateValue untilValue = rule.getUntil();
+        if (untilValue instanceof DateTimeValue) {
+            return null;
+        }
+        long until = untilValue != null ? EpochDays.of(untilValue.year(), untilValue.month(), untilValue.day()) : NONE;
+
+        int count = rule.getCount();
+        if (count < 0 || count > MAX_COUNT) {
+            return null;
+        }
+
+        int interval = Math.max(1, rule.getInterval());
+        int weekStart = rule.getWkSt() != null ? rule.getWkSt().jsDayNum : 1;
+
+        List<WeekdayNum> byDay = rule.getByDay();
+        boolean ordinals = false;
+        int weekdays = 0;
+        int[] byDayNums = new int[byDay.size()];
+        int[] byDayWeekdays = new int[byDay.size()];
+        for (int i = 0; i < byDay.size(); i++) {
+            WeekdayNum day = byDay.get(i);
+            ordinals |= day.num != 0;
+            weekdays |= 1 << day.wday.jsDayNum;
+            byDayNums[i] = day.num;
+            byDayWeekdays[i] = day.wday.jsDayNum;
+        }
+
+        int months = 0;
+        for (int month : rule.getByMonth()) {
+            months |= 1 << month;
+        }
+        int[] monthDays = rule.getByMonthDay();
+        if (monthDays.length == 0) {
+            monthDays = NO_INTS;
+        }
+
+        Frequency freq = rule.getFreq();
+        if (freq == Frequency.DAILY) {
+            // the iterators ignore INTERVAL when BYDAY is given
+            if (months != 0 || monthDays.length > 0 || ordinals || interval > MAX_DAILY_INTERVAL
+                    || (weekdays != 0 && interval > 1)) {
+                return null;
+            }
+        } else if (freq == Frequency.WEEKLY) {
+            if (months != 0 || monthDays.length > 0 || ordinals || interval > MAX_WEEKLY_INTERVAL) {
+                return null;
+            }
+        } else if (freq == Frequency.MONTHLY) {
+            // the iterators ignore INTERVAL when BYMONTH is given
+            if ((monthDays.length > 0 && !byDay.isEmpty()) || interval > MAX_MONTHLY_INTERVAL
+                    || (months != 0 && interval > 1)) {
+                return null;
+            }
+        } else if (freq == Frequency.YEARLY) {
+            if (!byDay.isEmpty() && (months == 0 || monthDays.length > 0)) {
+                return null;
+            }
+            if (interval > MAX_YEARLY_INTERVAL) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+
+        if (freq == Frequency.DAILY || freq == Frequency.WEEKLY) {
+            byDayNums = NO_INTS;
+            byDayWeekdays = NO_INTS;
+        } else {
+            weekdays = 0;
+        }
+        return new ClosedFormRule(freq, interval, weekStart, weekdays, byDayNums, byDayWeekdays, months, monthDays,
+                until, count);
+    }
+
+    /**
+     * Returns the first occurrence on or after {@code from} of a series starting on {@code start}, {@link #NONE}, or
+     * {@link #UNKNOWN} if the iterators might give a different answer.
+     */
+    long next(long start, long from) {
+        if (from <= start) {
+            return start;
+        }
+        int years = EpochDays.year(from) - EpochDays.year(start);
+        int steps = freq == Frequency.YEARLY ? years / interval : years;
+        if (steps > MAX_ADVANCE_STEPS) {
+            return UNKNOWN;
+        }
+        long day = nextInstance(start, from, MAX_SEARCH_STEPS - steps);
+        if (day == UNKNOWN) {
+            return UNKNOWN;
+        }
+        if (day > until) {
+            return NONE;
+        }
+        if (count > 0) {
+            long last = nextInstance(start, start, MAX_SEARCH_STEPS);
+            for (int i = 1; i < count && last != UNKNOWN && last < day; i++) {
+                last = nextInstance(start, last + 1, MAX_SEARCH_STEPS);
+            }
+            if (last == UNKNOWN) {
+                return UNKNOWN;
+            }
+            if (last < day) {
+                return NONE;
+            }
+        }
+        return day;
+    }
+
+    /**
+     * Returns how many occurrences a series starting on {@code start} has between {@code from} and {@code to}, both
+     * inclusive, or {@link #UNKNOWN} if they can't be counted without walking them. Only daily and weekly rules are
+     * counted, weeks at a time.
+     */
+    long count(long start, long from, long to) {
+        if (freq != Frequency.DAILY && freq != Frequency.WEEKLY) {
+            return UNKNOWN;
+        }
+        if (from > to || to < start) {
+            return 0;
+        }
+        long limit = count > 0 ? count : Long.MAX_VALUE;
+        long instances = Math.min(instancesUntil(start, to), limit) - Math.min(instancesUntil(start, from - 1), limit);
+        // the start date occurs even if the rule doesn't generate it
+        boolean extraStart = start >= from && instancesUntil(start, start) == 0;
+        return instances + (extraStart ? 1 : 0);
+    }
+
+    /**
+     * Returns the days between consecutive occurrences of a series starting on {@code start}, up to {@code to}, if
+     * they are evenly spaced from the start on, as for daily rules without BYDAY and weekly rules on the weekday of
+     * the start, or 0.
+     */
+    int period(long start, long to) {
+        if (EpochDays.year(to) - EpochDays.year(start) > MAX_ADVANCE_STEPS) {
+            return 0;
+        }
+        if (freq == Frequency.DAILY && weekdays == 0) {
+            return interval;
+        }
+        if (freq == Frequency.WEEKLY && (weekdays == 0 || weekdays == 1 << EpochDays.dayOfWeek(start))) {
+            return 7 * interval;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the last occurrence of a series starting on {@code start} whose occurrences are {@code period} days
+     * apart, or {@link #NONE} if it doesn't end.
+     */
+    long last(long start, int period) {
+        long last = count > 0 ? start + (long) (count - 1) * period : NONE;
+        if (until != NONE) {
+            last = Math.min(last, until < start ? start : start + (until - start) / period * period);
+        }
+        return last;
+    }
+
+    // days generated by the rule itself between start and last, both inclusive, UNTIL included but COUNT ignored
+    private long instancesUntil(long start, long last) {
+        last = Math.min(last, until);
+        if (last < start) {
+            return 0;
+        }
+        if (freq == Frequency.DAILY) {
+            if (weekdays == 0) {
+                return (last - start) / interval + 1;
+            }
+            return matchingDays(weekdays, start, last);
+        }
+        int days = weekdays != 0 ? weekdays : 1 << EpochDays.dayOfWeek(start);
+        long firstWeek = start - Math.floorMod(EpochDays.dayOfWeek(start) - weekStart, 7);
+        long lastWeek = Math.floorDiv(last - firstWeek, 7);
+        // the start date always falls in week 0, which is the partial one
+        long instances = matchingDays(days, start, Math.min(last, firstWeek + 6));
+        if (lastWeek == 0) {
+            return instances;
+        }
+        if (lastWeek % interval == 0) {
+            instances += matchingDays(days, firstWeek + 7 * lastWeek, last);
+        }
+        // whole weeks 1 to lastWeek - 1 generated by the rule
+        long wholeWeeks = (lastWeek - 1) / interval;
+        return instances + wholeWeeks * Integer.bitCount(days);
+    }
+
+    // days between from and to, both inclusive, whose day of the week is in the given bit set
+    private static long matchingDays(int days, long from, long to) {
+        if (from > to) {
+            return 0;
+        }
+        long matching = (to - from + 1) / 7 * Integer.bitCount(days);
+        for (long day = to - (to - from + 1) % 7 + 1; day <= to; day++) {
+            if ((days & (1 << EpochDays.dayOfWeek(day))) != 0) {
+                matching++;
+            }
+        }
+        return matching;
+    }
+
+    // first day on or after from (from >= start) generated by the rule itself, ignoring COUNT and UNTIL, looking
+    // at most maxSteps years (intervals of yearly rules) ahead
+    private long nextInstance(long start, long from, int maxSteps) {
+        switch (freq) {
+            case DAILY:
+                return nextDaily(start, from);
+            case WEEKLY:
+                return nextWeekly(start, from);
+            case MONTHLY:
+                return nextMonthly(start, from, maxSteps);
+            default:
+                return nextYearly(start, from, maxSteps);
+        }
+    }
+
+    private long nextDaily(long start, long from) {
+        if (weekdays == 0) {
+            long steps = Math.floorDiv(from - start + interval - 1, interval);
+            return start + steps * interval;
+        }
+        for (long day = from; ; day++) {
+            if ((weekdays & (1 << EpochDays.dayOfWeek(day))) != 0) {
+                return day;
+            }
+        }
+    }
+
+    private long nextWeekly(long start, long from) {
+        int days = weekdays != 0 ? weekdays : 1 << EpochDays.dayOfWeek(start);
+        long firstWeek = start - Math.floorMod(EpochDays.dayOfWeek(start) - weekStart, 7);
+        long week = Math.floorDiv(from - firstWeek, 7);
+        long day = from;
+        long offset = Math.floorMod(week, (long) interval);
+        if (offset != 0) {
+            week += interval - offset;
+            day = firstWeek + 7 * week;
+        }
+        while (true) {
+            for (long end = firstWeek + 7 * week + 7; day < end; day++) {
+                if ((days & (1 << EpochDays.dayOfWeek(day))) != 0) {
+                    return day;
+                }
+            }
+            week += interval;
+            day = firstWeek + 7 * week;
+        }
+    }
+
+    private long nextMonthly(long start, long from, int maxSteps) {
+        int startDay = EpochDays.dayOfMonth(start);
+        long startMonth = EpochDays.year(start) * 12L + EpochDays.monthOfYear(start) - 1;
+        long month = EpochDays.year(from) * 12L + EpochDays.monthOfYear(from) - 1;
+        int fromDay = EpochDays.dayOfMonth(from);
+        long offset = Math.floorMod(month - startMonth, (long) interval);
+        if (offset != 0) {
+            month += interval - offset;
+            fromDay = 1;
+        }
+        int mask = months != 0 ? months : ALL_MONTHS;
+        for (long last = month + 12L * maxSteps; month <= last; month += interval, fromDay = 1) {
+            int year = (int) Math.floorDiv(month, 12L);
+            int monthOfYear = (int) Math.floorMod(month, 12L) + 1;
+            if ((mask & (1 << monthOfYear)) != 0) {
+                int day = firstDayInMonth(year, monthOfYear, fromDay, startDay);
+                if (day != 0) {
+                    return EpochDays.of(year, monthOfYear, day);
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private long nextYearly(long start, long from, int maxSteps) {
+        int startYear = EpochDays.year(start);
+        int startDay = EpochDays.dayOfMonth(start);
+        int mask = months != 0 ? months : monthDays.length > 0 ? ALL_MONTHS : 1 << EpochDays.monthOfYear(start);
+        int year = EpochDays.year(from);
+        int fromMonth = EpochDays.monthOfYear(from);
+        int fromDay = EpochDays.dayOfMonth(from);
+        int offset = Math.floorMod(year - startYear, interval);
+        if (offset != 0) {
+            year += interval - offset;
+            fromMonth = 1;
+            fromDay = 1;
+        }
+        for (int step = 0; step <= maxSteps; step++, year += interval, fromMonth = 1) {
+            for (int month = fromMonth; month <= 12; month++, fromDay = 1) {
+                if ((mask & (1 << month)) != 0) {
+                    int day = firstDayInMonth(year, month, fromDay, startDay);
+                    if (day != 0) {
+                        return EpochDays.of(year, month, day);
+                    }
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+
+    // smallest matching day of the month that is not before fromDay, or 0
+    private int firstDayInMonth(int year, int month, int fromDay, int startDay) {
+        int length = EpochDays.lengthOfMonth(year, month);
+        int best = Integer.MAX_VALUE;
+        if (byDayNums.length > 0) {
+            int firstWeekday = EpochDays.dayOfWeek(EpochDays.of(year, month, 1));
+            for (int i = 0; i < byDayNums.length; i++) {
+                int first = 1 + Math.floorMod(byDayWeekdays[i] - firstWeekday, 7);
+                int num = byDayNums[i];
+                int day;
+                if (num == 0) {
+                    day = fromDay <= first ? first : first + (fromDay - first + 6) / 7 * 7;
+                } else if (num > 0) {
+                    day = first + 7 * (num - 1);
+                } else {
+                    int last = first + (length - first) / 7 * 7;
+                    day = last + 7 * (num + 1);
+                }
+                if (day >= fromDay && day >= 1 && day <= length) {
+                    best = Math.min(best, day);
+                }
+            }
+        } else if (monthDays.length > 0) {
+            for (int monthDay : monthDays) {
+                int day = monthDay > 0 ? monthDay : length + 1 + monthDay;
+                if (day >= fromDay && day >= 1 && day <= length) {
+                    best = Math.min(best, day);
+                }
+            }
+        } else if (startDay >= fromDay && startDay <= length) {
+            best = startDay;
+        }
+        return best == Integer.MAX_VALUE ? 0 : best;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.rrule;
+
+import com.google.ical.compat.jodatime.LocalDateIterator;
+import com.google.ical.compat.jodatime.LocalDateIteratorFactory;
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RDateList;
+import com.google.ical.values.RRule;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.devmaster.elasticsearch.EpochDays;
+import org.joda.time.LocalDate;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+/**
+ * An RRULE text parsed once and reusable for any start date. Iterators built from it behave exactly like
+ * {@link LocalDateIteratorFactory#createLocalDateIterator(String, LocalDate, boolean)} on the same text.
+ */
+public final class RecurrenceRule implements Accountable {
+
+    public static final long NO_OCCURRENCE = ClosedFormRule.NONE;
+
+    /**
+     * Returned by {@link #nextOccurrence(long, long)} when the rule has to be iterated instead.
+     */
+    public static final long UNKNOWN = ClosedFormRule.UNKNOWN;
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(RecurrenceRule.class);
+    // rough footprint of a parsed content line, its int arrays and list wrappers
+    private static final long LINE_RAM_BYTES_USED = 512;
+
+    // same line handling as RecurrenceIteratorFactory.parseContentLines
+    private static final Pattern FOLD = Pattern.compile("(?:\\r\\n?|\\n)[ \\t]");
+    private static final Pattern NEWLINE = Pattern.compile("[\\r\\n]+");
+    private static final Pattern RULE = Pattern.compile("^(?:R|EX)RULE[:;]", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DATE = Pattern.compile("^(?:R|EX)DATE[:;]", Pattern.CASE_INSENSITIVE);
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private final String text;
+    private final List<RRule> rules;
+    private final List<RDateList> dates;
+    private final List<RRule> exRules;
+    private final List<RDateList> exDates;
+    private final ParseException error;
+    private final int approximateIntervalInDays;
+    // set when nothing but the start date occurs
+    private final boolean startOnly;
+    private final ClosedFormRule closedForm;
+    private final long firstDate;
+
+    private RecurrenceRule(String text, List<RRule> rules, List<RDateList> dates,
+                           List<RRule> exRules, List<RDateList> exDates, ParseException error) {
+        this.text = text;
+        this.rules = rules;
+        this.dates = dates;
+        this.exRules = exRules;
+        this.exDates = exDates;
+        this.error = error;
+
+        int interval = Integer.MAX_VALUE;
+        for (RRule rule : rules) {
+            try {
+                interval = Math.min(interval, rule.approximateIntervalInDays());
+            } catch (IllegalArgumentException e) {
+                // dropped by the iterator as well
+            }
+        }
+        this.approximateIntervalInDays = interval == Integer.MAX_VALUE ? 1 : Math.max(1, interval);
+
+        boolean single = dates.isEmpty() && exRules.isEmpty() && exDates.isEmpty();
+        this.startOnly = single && rules.isEmpty();
+        this.closedForm = single && rules.size() == 1 ? ClosedFormRule.of(rules.get(0)) : null;
+
+        long first = NO_OCCURRENCE;
+        for (RDateList list : dates) {
+            for (DateValue date : list.getDatesUtc()) {
+                first = Math.min(first, EpochDays.of(date.year(), date.month(), date.day()));
+            }
+        }
+        this.firstDate = first;
+    }
+
+    /**
+     * Parses {@code text}. Bad lines are dropped and the first failure is kept, so that strict iterators can
+     * still report it.
+     */
+    public static RecurrenceRule parse(String text) {
+        List<RRule> rules = new ArrayList<>(1);
+        List<RDateList> dates = new ArrayList<>(0);
+        List<RRule> exRules = new ArrayList<>(0);
+        List<RDateList> exDates = new ArrayList<>(0);
+        ParseException error = null;
+
+        String unfolded = FOLD.matcher(text).replaceAll("").trim();
+        if (!unfolded.isEmpty()) {
+            for (String line : NEWLINE.split(unfolded)) {
+                line = line.trim();
+                try {
+                    if (RULE.matcher(line).find()) {
+                        RRule rule = new RRule(line);
+                        if ("rrule".equalsIgnoreCase(rule.getName())) {
+                            rules.add(rule);
+                        } else if ("exrule".equalsIgnoreCase(rule.getName())) {
+                            exRules.add(rule);
+                        }
+                    } else if (DATE.matcher(line).find()) {
+                        RDateList list = new RDateList(line, UTC);
+                        if ("rdate".equalsIgnoreCase(list.getName())) {
+                            dates.add(list);
+                        } else if ("exdate".equalsIgnoreCase(list.getName())) {
+                            exDates.add(list);
+                        }
+                    } else {
+                        throw new ParseException(line, 0);
+                    }
+                } catch (ParseException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+        }
+
+        return new RecurrenceRule(text, compact(rules), compact(dates), compact(exRules), compact(exDates), error);
+    }
+
+    private static <T> List<T> compact(List<T> list) {
+        switch (list.size()) {
+            case 0:
+                return Collections.emptyList();
+            case 1:
+                return Collections.singletonList(list.get(0));
+            default:
+                return Collections.unmodifiableList(list);
+        }
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns {@code true} if every line of the text could be parsed.
+     */
+    public boolean isValid() {
+        return error == null;
+    }
+
+    /**
+     * Returns {@code true} if every rule ends, by COUNT or UNTIL, so that any series has a last occurrence.
+     */
+    public boolean isFinite() {
+        for (RRule rule : rules) {
+            if (rule.getCount() <= 0 && rule.getUntil() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns roughly how many candidates an iterator of a series starting on {@code start} walks through to advance
+     * to {@code to}, as epoch days: the iterator generates every month in between, or every year for yearly rules,
+     * whether anything occurs in it or not.
+     */
+    public long advanceSteps(long start, long to) {
+        if (to <= start) {
+            return 1;
+        }
+        long years = EpochDays.year(to) - EpochDays.year(start);
+        boolean yearly = true;
+        for (List<RRule> list : Arrays.asList(rules, exRules)) {
+            for (RRule rule : list) {
+                yearly &= rule.getFreq() == Frequency.YEARLY;
+            }
+        }
+        if (yearly) {
+            return Math.max(1, years);
+        }
+        return Math.max(1, years * 12 + EpochDays.monthOfYear(to) - EpochDays.monthOfYear(start));
+    }
+
+    /**
+     * Returns roughly how many days apart consecutive occurrences of the densest rule are.
+     */
+    public int approximateIntervalInDays() {
+        return approximateIntervalInDays;
+    }
+
+    /**
+     * Returns the earliest RDATE as an epoch day, or {@link #NO_OCCURRENCE} if there is none. Series occur on it even
+     * if it comes before their start date.
+     */
+    public long firstDate() {
+        return firstDate;
+    }
+
+    /**
+     * Returns the first occurrence on or after {@code from} of a series starting on {@code start}, as epoch days,
+     * without iterating the rule. Returns {@link #NO_OCCURRENCE} if there is none, and {@link #UNKNOWN} if the rule
+     * is not simple enough and {@link #iterator(LocalDate, boolean)} has to be used instead.
+     */
+    public long nextOccurrence(long start, long from) {
+        if (startOnly) {
+            return from <= start ? start : NO_OCCURRENCE;
+        }
+        return closedForm != null ? closedForm.next(start, from) : UNKNOWN;
+    }
+
+    /**
+     * Returns how many occurrences a series starting on {@code start} has between {@code from} and {@code to}, as
+     * epoch days both inclusive, without iterating the rule. Returns {@link #UNKNOWN} if the rule is not simple
+     * enough, in which case {@link #nextOccurrence(long, long)} may still answer one occurrence at a time.
+     */
+    public long countOccurrences(long start, long from, long to) {
+        if (startOnly) {
+            return from <= start && start <= to ? 1 : 0;
+        }
+        return closedForm != null ? closedForm.count(start, from, to) : UNKNOWN;
+    }
+
+    /**
+     * Returns the days between consecutive occurrences of a series starting on {@code start}, up to {@code to}, if
+     * they are evenly spaced from the start on, or 0 if they are not or the rule has to be iterated to tell. Such a
+     * series ends on {@link #lastOccurrence(long, int)}.
+     */
+    public int period(long start, long to) {
+        if (startOnly) {
+            return 1;
+        }
+        return closedForm != null ? closedForm.period(start, to) : 0;
+    }
+
+    /**
+     * Returns the last occurrence of a series starting on {@code start} with a {@link #period(long, long)}, or
+     * {@link #NO_OCCURRENCE} if it doesn't end.
+     */
+    public long lastOccurrence(long start, int period) {
+        return startOnly ? start : closedForm.last(start, period);
+    }
+
+    public LocalDateIterator iterator(LocalDate start, boolean strict) throws ParseException {
+        if (strict && error != null) {
+            ParseException e = new ParseException(error.getMessage(), error.getErrorOffset());
+            e.initCause(error);
+            throw e;
+        }
+
+        DateValue dtStart = new DateValueImpl(start.getYear(), start.getMonthOfYear(), start.getDayOfMonth());
+        RDateList first = new RDateList(UTC);
+        first.setDatesUtc(new DateValue[] { dtStart });
+
+        List<RecurrenceIterator> inclusions = new ArrayList<>(rules.size() + dates.size());
+        for (RRule rule : rules) {
+            add(inclusions, rule, dtStart, strict);
+        }
+        for (RDateList list : dates) {
+            inclusions.add(RecurrenceIteratorFactory.createRecurrenceIterator(list));
+        }
+        RecurrenceIterator it = RecurrenceIteratorFactory.join(RecurrenceIteratorFactory.createRecurrenceIterator(first),
+                inclusions.toArray(new RecurrenceIterator[0]));
+
+        if (!exRules.isEmpty() || !exDates.isEmpty()) {
+            List<RecurrenceIterator> exclusions = new ArrayList<>(exRules.size() + exDates.size());
+            for (RRule rule : exRules) {
+                add(exclusions, rule, dtStart, strict);
+            }
+            for (RDateList list : exDates) {
+                exclusions.add(RecurrenceIteratorFactory.createRecurrenceIterator(list));
+            }
+            if (!exclusions.isEmpty()) {
+                RecurrenceIterator excluded = RecurrenceIteratorFactory.join(exclusions.get(0),
+                        exclusions.subList(1, exclusions.size()).toArray(new RecurrenceIterator[0]));
+                it = RecurrenceIteratorFactory.except(it, excluded);
+            }
+        }
+
+        return LocalDateIteratorFactory.createLocalDateIterator(it);
+    }
+
+    private static void add(List<RecurrenceIterator> iterators, RRule rule, DateValue dtStart, boolean strict) {
+        try {
+            iterators.add(RecurrenceIteratorFactory.createRecurrenceIterator(rule, dtStart, UTC));
+        } catch (IllegalArgumentException e) {
+            if (strict) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        int lines = rules.size() + dates.size() + exRules.size() + exDates.size();
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(text) + lines * LINE_RAM_BYTES_USED;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
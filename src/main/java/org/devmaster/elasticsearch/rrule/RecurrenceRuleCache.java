@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.rrule;
+
+import org.devmaster.elasticsearch.monitor.CacheStats;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.Closeable;
+import java.util.regex.Pattern;
+
+/**
+ * Node wide cache of parsed {@link RecurrenceRule}s keyed by their normalized text, so that a rule shared by many
+ * documents is parsed once instead of once per document and request.
+ */
+public final class RecurrenceRuleCache implements RemovalListener<String, RecurrenceRule>, Closeable {
+
+    public static final Setting<ByteSizeValue> CACHE_SIZE_SETTING =
+            Setting.memorySizeSetting("recurring.rrule_cache.size", "1%", Property.NodeScope);
+    public static final Setting<TimeValue> CACHE_EXPIRE_SETTING =
+            Setting.positiveTimeSetting("recurring.rrule_cache.expire", new TimeValue(0), Property.NodeScope);
+
+    private static final String BREAKER_LABEL = "recurring_rrule_cache";
+
+    private static final Pattern FOLD = Pattern.compile("(?:\\r\\n?|\\n)[ \\t]");
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n?");
+
+    private final Cache<String, RecurrenceRule> cache;
+    private volatile CircuitBreaker breaker;
+    private final CounterMetric hits = new CounterMetric();
+    private final CounterMetric misses = new CounterMetric();
+    private final CounterMetric evictions = new CounterMetric();
+
+    public RecurrenceRuleCache(Settings settings, CircuitBreaker breaker) {
+        this.breaker = breaker;
+        CacheBuilder<String, RecurrenceRule> cacheBuilder = CacheBuilder.<String, RecurrenceRule>builder()
+                .setMaximumWeight(CACHE_SIZE_SETTING.get(settings).getBytes())
+                .weigher((k, v) -> v.ramBytesUsed())
+                .removalListener(this);
+        if (CACHE_EXPIRE_SETTING.exists(settings)) {
+            cacheBuilder.setExpireAfterAccess(CACHE_EXPIRE_SETTING.get(settings));
+        }
+        this.cache = cacheBuilder.build();
+    }
+
+    /**
+     * Accounts the cache against {@code breaker} from now on, once the node's breakers exist. The cache is emptied
+     * first so that only accounted entries are released.
+     */
+    void setBreaker(CircuitBreaker breaker) {
+        clear();
+        this.breaker = breaker;
+    }
+
+    public RecurrenceRule get(String text) {
+        String key = normalize(text);
+        RecurrenceRule rule = cache.get(key);
+        if (rule != null) {
+            hits.inc();
+        } else {
+            misses.inc();
+            rule = RecurrenceRule.parse(key);
+            if (breaker != null) {
+                try {
+                    breaker.addEstimateBytesAndMaybeBreak(rule.ramBytesUsed(), BREAKER_LABEL);
+                } catch (CircuitBreakingException e) {
+                    // still usable, just not kept around
+                    return rule;
+                }
+            }
+            cache.put(key, rule);
+        }
+        return rule;
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<String, RecurrenceRule> notification) {
+        if (notification.getRemovalReason() == RemovalNotification.RemovalReason.EVICTED) {
+            evictions.inc();
+        }
+        if (breaker != null) {
+            breaker.addWithoutBreaking(-notification.getValue().ramBytesUsed());
+        }
+    }
+
+    public int count() {
+        return cache.count();
+    }
+
+    public long ramBytesUsed() {
+        return cache.weight();
+    }
+
+    public CacheStats stats() {
+        return new CacheStats("rrule_cache", count(), ramBytesUsed(), hits.count(), misses.count(), evictions.count());
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * Unfolds continuation lines, trims the text and unifies line breaks, none of which changes how the text is
+     * parsed. Texts that are already normalized, which is the common case, are returned as is.
+     */
+    static String normalize(String text) {
+        int length = text.length();
+        if (length == 0 || (text.charAt(0) > ' ' && text.charAt(length - 1) > ' ')) {
+            boolean plain = true;
+            for (int i = 0; i < length && plain; i++) {
+                char c = text.charAt(i);
+                char next = i + 1 < length ? text.charAt(i + 1) : 0;
+                plain = c != '\r' && (c != '\n' || (next != ' ' && next != '\t'));
+            }
+            if (plain) {
+                return text;
+            }
+        }
+        String unfolded = FOLD.matcher(text).replaceAll("").trim();
+        return LINE_BREAK.matcher(unfolded).replaceAll("\n");
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.rrule;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+
+/**
+ * Accounts the node's {@link RecurrenceRuleCache}, created by the plugin, against the fielddata circuit breaker like other
+ * node level caches, and empties it when the node closes.
+ */
+public class RecurrenceRuleCacheService extends AbstractLifecycleComponent {
+
+    private final RecurrenceRuleCache cache;
+
+    @Inject
+    public RecurrenceRuleCacheService(RecurrenceRuleCache cache, CircuitBreakerService breakerService) {
+        this.cache = cache;
+        cache.setBreaker(breakerService.getBreaker(CircuitBreaker.FIELDDATA));
+    }
+
+    public RecurrenceRuleCache cache() {
+        return cache;
+    }
+
+    @Override
+    protected void doStart() {
+    }
+
+    @Override
+    protected void doStop() {
+    }
+
+    @Override
+    protected void doClose() {
+        cache.close();
+    }
+}
@@ -16,91 +16,83 @@ package org.devmaster.elasticsearch.script;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.devmaster.elasticsearch.Recurring;
-import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
-import org.devmaster.elasticsearch.script.exceptions.FieldScriptCreationException;
 import org.devmaster.elasticsearch.script.exceptions.FieldScriptRunException;
 import org.elasticsearch.script.FieldScript;
-import org.elasticsearch.script.JodaCompatibleZonedDateTime;
 import org.elasticsearch.search.lookup.SearchLookup;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.text.ParseException;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
+/**
+ * Base of the field scripts on a recurring field. Documents sharing a rule and a start date get the same value from
+ * {@link #run()}, which is computed once for each such pair of a segment.
+ */
 public abstract class AbstractFieldScript extends FieldScript {
 
+    private final SegmentEvaluator.Evaluation evaluation = recurring -> run();
+    private SegmentScripts.Binding binding;
+
     protected AbstractFieldScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
         super(params, lookup, leafContext);
     }
 
+    @Override
+    public void setDocument(int docid) {
+        super.setDocument(docid);
+        binding.setDocument(docid);
+    }
+
     @Override
     public final Object execute() {
-        try {
-            return run();
-        } catch (ParseException e) {
-            throw new FieldScriptRunException(getName(), e);
-        }
+        return binding.evaluate(evaluation);
     }
 
     protected abstract String getName();
 
-    public static class Factory<T extends AbstractFieldScript> implements FieldScript.Factory {
-
-        private final Class<T> cls;
+    public static class Factory<T extends AbstractFieldScript> extends SegmentScripts.Factory<T>
+            implements FieldScript.Factory {
 
-        protected Factory(Class<T> cls) {
-            this.cls = cls;
+        protected Factory(SegmentScripts.Constructor<T> constructor, ScriptResources resources) {
+            super(constructor, resources);
         }
 
         @Override
         public LeafFactory<T> newFactory(Map<String, Object> params, SearchLookup lookup) {
-            return new LeafFactory<>(params, lookup, cls);
+            return new LeafFactory<>(scripts(params, lookup));
         }
     }
 
     public static class LeafFactory<T extends AbstractFieldScript> implements FieldScript.LeafFactory {
 
-        private final Map<String, Object> params;
-        private final SearchLookup lookup;
-        private final Class<T> cls;
+        private final SegmentScripts<T> scripts;
 
-        public LeafFactory(Map<String, Object> params, SearchLookup lookup, Class<T> cls) {
-            this.params = params;
-            this.lookup = lookup;
-            this.cls = cls;
+        private LeafFactory(SegmentScripts<T> scripts) {
+            this.scripts = scripts;
         }
 
         @Override
         public AbstractFieldScript newInstance(LeafReaderContext ctx) throws IOException {
-            try {
-                return (AbstractFieldScript) cls.getConstructors()[0].newInstance(params, lookup, ctx);
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-                throw new FieldScriptCreationException(cls, e);
-            }
+            AbstractFieldScript script = scripts.newInstance(ctx);
+            script.binding = scripts.bind(ctx, script.getName(), FieldScriptRunException::new);
+            return script;
         }
     }
 
     protected abstract Object run() throws ParseException;
 
+    /**
+     * Returns the parameters as parsed by the factory's {@link Factory#parse(ScriptParams)}.
+     */
+    protected <P> P parsedParams() {
+        return binding.parsedParams();
+    }
+
+    /**
+     * Returns the current document's values, in an instance that is reused for every document of the segment.
+     */
     protected Recurring getRecurring() {
-        String field = (String) getParams().get("field");
-        String startDateFieldName = field + "." + RecurringFieldMapper.FieldNames.START_DATE;
-        String endDateFieldName = field + "." + RecurringFieldMapper.FieldNames.END_DATE;
-        String rruleFieldName = field + "." + RecurringFieldMapper.FieldNames.RRULE;
-
-        String start = getDoc().containsKey(startDateFieldName)
-                ? ((JodaCompatibleZonedDateTime) getDoc().get(startDateFieldName).get(0)).format(DateTimeFormatter.ISO_LOCAL_DATE)
-                : null;
-        String end = getDoc().containsKey(endDateFieldName) && !getDoc().get(endDateFieldName).isEmpty()
-                ? ((JodaCompatibleZonedDateTime) getDoc().get(endDateFieldName).get(0)).format(DateTimeFormatter.ISO_LOCAL_DATE)
-                : null;
-        String rrule = getDoc().containsKey(rruleFieldName) && !getDoc().get(rruleFieldName).isEmpty()
-                ? getDoc().get(rruleFieldName).get(0).toString()
-                : null;
-
-        return new Recurring(start, end, rrule);
+        return binding.get();
     }
 
 }
@@ -14,33 +14,129 @@
 
 package org.devmaster.elasticsearch.script;
 
+import com.carrotsearch.hppc.LongByteHashMap;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.FixedBitSet;
 import org.devmaster.elasticsearch.Recurring;
-import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
-import org.devmaster.elasticsearch.script.exceptions.FilterScriptCreationException;
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCache;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.monitor.RecurringMetrics;
+import org.devmaster.elasticsearch.monitor.ScriptMetrics;
 import org.devmaster.elasticsearch.script.exceptions.FilterScriptRunException;
 import org.elasticsearch.script.FilterScript;
-import org.elasticsearch.script.JodaCompatibleZonedDateTime;
 import org.elasticsearch.search.lookup.SearchLookup;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.io.UncheckedIOException;
 import java.text.ParseException;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
+import java.util.TreeMap;
 
+/**
+ * Base of the filter scripts on a recurring field. Documents sharing a rule and a start date get the same answer from
+ * {@link #doFilter()}, which is evaluated once for each such pair of a segment. Once a filter is used repeatedly, the
+ * answers for whole segments are kept in the {@link RecurringFilterCache} under {@link #predicate()}, so repeating it
+ * only looks them up. Documents outside of the factory's {@link Factory#prefilter(String, Object)} don't match and are
+ * not evaluated.
+ */
 public abstract class AbstractFilterScript extends FilterScript {
 
+    private static final byte UNKNOWN = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+
+    private final LongByteHashMap results = new LongByteHashMap();
+    private RecurringDocValues values;
+    private LeafReaderContext leafContext;
+    private int docId;
+    // the prefilter of the request, and its documents in the segment
+    private Weight prefilter;
+    private DocIdSetIterator mayMatch;
+    // the answers for the whole segment, when taken from the filter cache
+    private FixedBitSet matches;
+    private ScriptMetrics metrics;
+    private Object parsedParams;
+
     public AbstractFilterScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
         super(params, lookup, leafContext);
     }
 
+    @Override
+    public void setDocument(int docid) {
+        super.setDocument(docid);
+        this.docId = docid;
+    }
+
     @Override
     public final boolean execute() {
+        metrics.onInvocation();
+        if (matches != null) {
+            return matches.get(docId);
+        }
+        return evaluate();
+    }
+
+    private boolean evaluate() {
         try {
-            return doFilter();
+            return test();
         } catch (ParseException e) {
+            metrics.onFailure();
             throw new FilterScriptRunException(getName(), e);
+        } catch (RuntimeException e) {
+            metrics.onFailure();
+            throw e;
+        }
+    }
+
+    private boolean test() throws ParseException {
+        if (prefilter != null && !mayMatch()) {
+            return false;
+        }
+        Recurring recurring = getRecurring();
+        long key = values.ruleKey();
+        if (key == RecurringDocValues.NO_KEY) {
+            return filter(recurring);
+        }
+        byte result = results.getOrDefault(key, UNKNOWN);
+        if (result == UNKNOWN) {
+            result = filter(recurring) ? TRUE : FALSE;
+            if (results.size() < RecurringDocValues.MAX_MEMOIZED_RESULTS) {
+                results.put(key, result);
+            }
+        }
+        return result == TRUE;
+    }
+
+    private boolean filter(Recurring recurring) throws ParseException {
+        long steps = recurring.getIteratorSteps();
+        long startTime = System.nanoTime();
+        boolean result = doFilter();
+        metrics.onEvaluation(System.nanoTime() - startTime, recurring.getIteratorSteps() - steps,
+                recurring.isBudgetExceeded());
+        return result;
+    }
+
+    // documents are visited in order, unless fetched again
+    private boolean mayMatch() {
+        try {
+            if (mayMatch == null || mayMatch.docID() > docId) {
+                Scorer scorer = prefilter.scorer(leafContext);
+                mayMatch = scorer != null ? scorer.iterator() : DocIdSetIterator.empty();
+            }
+            if (mayMatch.docID() < docId) {
+                mayMatch.advance(docId);
+            }
+            return mayMatch.docID() == docId;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -48,36 +144,95 @@ public abstract class AbstractFilterScript extends FilterScript {
 
     protected abstract boolean doFilter() throws ParseException;
 
+    /**
+     * Identifies this predicate and its parameters for the {@link RecurringFilterCache}, or returns {@code null} if
+     * its answers should not be cached. Has to change with anything else the answers depend on.
+     */
+    protected String predicate() {
+        Map<String, Object> params = new TreeMap<>(getParams());
+        // the scripts reading now add the day it resolves to, which changes less often
+        params.remove(ScriptParams.NOW);
+        return getName() + params;
+    }
+
+    // documents without a start date are not evaluated and never match. Gives up on a document failing to evaluate,
+    // which is only reported if the rest of the query lets it through
+    private FixedBitSet matchAll(LeafReader reader) throws IOException {
+        FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+        DocIdSetIterator docs = values.documents();
+        for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+            docId = doc;
+            try {
+                if (test()) {
+                    bits.set(doc);
+                }
+            } catch (ParseException | RuntimeException e) {
+                return null;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the parameters as parsed by the factory's {@link Factory#parse(ScriptParams)}.
+     */
+    @SuppressWarnings("unchecked")
+    protected <P> P parsedParams() {
+        return (P) parsedParams;
+    }
+
+    /**
+     * Returns the current document's values, in an instance that is reused for every document of the segment.
+     */
     protected Recurring getRecurring() {
-        String field = (String) getParams().get("field");
-        String startDateFieldName = field + "." + RecurringFieldMapper.FieldNames.START_DATE;
-        String endDateFieldName = field + "." + RecurringFieldMapper.FieldNames.END_DATE;
-        String rruleFieldName = field + "." + RecurringFieldMapper.FieldNames.RRULE;
-
-        String start = getDoc().containsKey(startDateFieldName)
-                ? ((JodaCompatibleZonedDateTime)getDoc().get(startDateFieldName).get(0)).format(DateTimeFormatter.ISO_LOCAL_DATE)
-                : null;
-        String end = getDoc().containsKey(endDateFieldName) && !getDoc().get(endDateFieldName).isEmpty()
-                ? ((JodaCompatibleZonedDateTime) getDoc().get(endDateFieldName).get(0)).format(DateTimeFormatter.ISO_LOCAL_DATE)
-                : null;
-        String rrule = getDoc().containsKey(rruleFieldName) && !getDoc().get(rruleFieldName).isEmpty()
-                ? getDoc().get(rruleFieldName).get(0).toString()
-                : null;
-
-        return new Recurring(start, end, rrule);
+        try {
+            return values.get(docId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates the script of a segment, usually a reference to the script's constructor.
+     */
+    @FunctionalInterface
+    public interface Constructor<T extends AbstractFilterScript> {
+        T create(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext);
     }
 
     public static class Factory<T extends  AbstractFilterScript> implements FilterScript.Factory {
 
-        private final Class<T> cls;
+        private final Constructor<T> constructor;
+        private final ScriptResources resources;
 
-        public Factory(Class<T> cls) {
-            this.cls = cls;
+        public Factory(Constructor<T> constructor, ScriptResources resources) {
+            this.constructor = constructor;
+            this.resources = resources;
         }
 
         @Override
         public LeafFactory<T> newFactory(Map<String, Object> params, SearchLookup lookup) {
-            return new LeafFactory<>(params, lookup, cls);
+            ScriptParams scriptParams = new ScriptParams(params);
+            String field = scriptParams.field();
+            Object parsedParams = parse(scriptParams);
+            return new LeafFactory<>(params, lookup, constructor, field, parsedParams, prefilter(field, parsedParams),
+                    resources);
+        }
+
+        /**
+         * Parses and validates the parameters of the script, once per request. The result is handed to every
+         * script instance through {@link #parsedParams()}.
+         */
+        protected Object parse(ScriptParams params) {
+            return null;
+        }
+
+        /**
+         * Returns a query matching every document the script may match, so that the others are not evaluated, or
+         * {@code null} to evaluate all documents having the field.
+         */
+        protected Query prefilter(String field, Object parsedParams) {
+            return null;
         }
     }
 
@@ -85,21 +240,55 @@ public abstract class AbstractFilterScript extends FilterScript {
 
         private final Map<String, Object> params;
         private final SearchLookup lookup;
-        private final Class<T> cls;
+        private final Constructor<T> constructor;
+        private final String field;
+        private final Object parsedParams;
+        private final Query prefilter;
+        private final ScriptResources resources;
+        private boolean used;
+        // the prefilter, created once for all the segments of the shard
+        private Weight prefilterWeight;
 
-        private LeafFactory(Map<String, Object> params, SearchLookup lookup, Class<T> cls) {
+        private LeafFactory(Map<String, Object> params, SearchLookup lookup, Constructor<T> constructor, String field,
+                            Object parsedParams, Query prefilter, ScriptResources resources) {
             this.params = params;
             this.lookup = lookup;
-            this.cls = cls;
+            this.constructor = constructor;
+            this.field = field;
+            this.parsedParams = parsedParams;
+            this.prefilter = prefilter;
+            this.resources = resources;
+        }
+
+        private Weight prefilterWeight(LeafReaderContext leafContext) throws IOException {
+            if (prefilterWeight == null) {
+                IndexSearcher searcher = new IndexSearcher(ReaderUtil.getTopLevelContext(leafContext));
+                searcher.setQueryCache(null);
+                prefilterWeight = searcher.createWeight(searcher.rewrite(prefilter), ScoreMode.COMPLETE_NO_SCORES, 1f);
+            }
+            return prefilterWeight;
         }
 
         @Override
         public FilterScript newInstance(LeafReaderContext leafContext) throws IOException {
-            try {
-                return (FilterScript) cls.getConstructors()[0].newInstance(params, lookup, leafContext);
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-                throw new FilterScriptCreationException(cls, e);
+            AbstractFilterScript script = constructor.create(params, lookup, leafContext);
+            script.values = resources.docValues(leafContext.reader(), field);
+            script.leafContext = leafContext;
+            if (prefilter != null) {
+                script.prefilter = prefilterWeight(leafContext);
+            }
+            script.parsedParams = parsedParams;
+            script.metrics = RecurringMetrics.instance().script(script.getName());
+            String predicate = script.predicate();
+            if (predicate != null) {
+                RecurringFilterCache cache = resources.filterCache();
+                if (!used) {
+                    cache.onUse(leafContext.reader(), field, predicate);
+                    used = true;
+                }
+                script.matches = cache.get(leafContext.reader(), field, predicate, script::matchAll);
             }
+            return script;
         }
 
     }
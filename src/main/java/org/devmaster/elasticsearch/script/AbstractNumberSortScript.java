@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.script.exceptions.SortScriptRunException;
+import org.elasticsearch.script.NumberSortScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Base of the number sort scripts on a recurring field. Documents sharing a rule and a start date get the same value
+ * from {@link #run(Recurring)}, which is computed once for each such pair of a segment, and documents without a value
+ * get {@link #missing()}.
+ */
+public abstract class AbstractNumberSortScript extends NumberSortScript {
+
+    private final SegmentEvaluator.DoubleEvaluation evaluation = this::run;
+    private SegmentScripts.Binding binding;
+
+    protected AbstractNumberSortScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
+        super(params, lookup, leafContext);
+    }
+
+    @Override
+    public void setDocument(int docid) {
+        super.setDocument(docid);
+        binding.setDocument(docid);
+    }
+
+    @Override
+    public final double execute() {
+        return binding.evaluate(missing(), evaluation);
+    }
+
+    protected abstract String getName();
+
+    protected abstract double run(Recurring recurring) throws ParseException;
+
+    /**
+     * Returns the value of documents without a value in the field.
+     */
+    protected abstract double missing();
+
+    /**
+     * Returns the parameters as parsed by the factory's {@link Factory#parse(ScriptParams)}.
+     */
+    protected <P> P parsedParams() {
+        return binding.parsedParams();
+    }
+
+    public static class Factory<T extends AbstractNumberSortScript> extends SegmentScripts.Factory<T>
+            implements NumberSortScript.Factory {
+
+        protected Factory(SegmentScripts.Constructor<T> constructor, ScriptResources resources) {
+            super(constructor, resources);
+        }
+
+        @Override
+        public LeafFactory<T> newFactory(Map<String, Object> params, SearchLookup lookup) {
+            return new LeafFactory<>(scripts(params, lookup));
+        }
+    }
+
+    public static class LeafFactory<T extends AbstractNumberSortScript> implements NumberSortScript.LeafFactory {
+
+        private final SegmentScripts<T> scripts;
+
+        private LeafFactory(SegmentScripts<T> scripts) {
+            this.scripts = scripts;
+        }
+
+        @Override
+        public boolean needs_score() {
+            return false;
+        }
+
+        @Override
+        public AbstractNumberSortScript newInstance(LeafReaderContext ctx) throws IOException {
+            AbstractNumberSortScript script = scripts.newInstance(ctx);
+            script.binding = scripts.bind(ctx, script.getName(), SortScriptRunException::new);
+            return script;
+        }
+    }
+}
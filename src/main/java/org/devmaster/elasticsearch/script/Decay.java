@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import java.util.Locale;
+
+/**
+ * Decay of a score with a distance, as in the decay functions of the {@code function_score} query: {@code 1} up to
+ * {@code offset}, {@code decay} at {@code offset + scale} and falling towards {@code 0} beyond.
+ */
+public final class Decay {
+
+    public enum Function {
+        GAUSS,
+        EXP,
+        LINEAR;
+
+        static Function fromString(String function) {
+            try {
+                return valueOf(function.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Parameter function must be one of [gauss, exp, linear] but was ["
+                        + function + "]");
+            }
+        }
+    }
+
+    private final Function function;
+    private final double offset;
+    // computed from scale and decay so that the score at offset + scale is decay
+    private final double factor;
+
+    public Decay(Function function, double scale, double offset, double decay) {
+        if (scale <= 0)
+            throw new IllegalArgumentException("Parameter scale must be positive");
+        if (offset < 0)
+            throw new IllegalArgumentException("Parameter offset can not be negative");
+        if (!(decay > 0 && decay < 1))
+            throw new IllegalArgumentException("Parameter decay must be between 0 and 1 exclusive but was [" + decay + "]");
+
+        this.function = function;
+        this.offset = offset;
+        switch (function) {
+            case GAUSS:
+                this.factor = 0.5 * Math.pow(scale, 2.0) / Math.log(decay);
+                break;
+            case EXP:
+                this.factor = Math.log(decay) / scale;
+                break;
+            default:
+                this.factor = scale / (1.0 - decay);
+        }
+    }
+
+    public double score(double distance) {
+        double value = Math.max(0.0, distance - offset);
+        switch (function) {
+            case GAUSS:
+                return Math.exp(0.5 * Math.pow(value, 2.0) / factor);
+            case EXP:
+                return Math.exp(factor * value);
+            default:
+                return Math.max(0.0, (factor - value) / factor);
+        }
+    }
+}
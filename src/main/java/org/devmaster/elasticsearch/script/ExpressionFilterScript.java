@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.devmaster.elasticsearch.EpochDays;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Filters by a {@link RecurringExpression}, given as the source of the script instead of the name of a predicate.
+ */
+public class ExpressionFilterScript extends AbstractFilterScript {
+
+    public static final String NAME = "expression";
+
+    private RecurringExpression.Evaluation evaluation;
+
+    public ExpressionFilterScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
+        super(params, lookup, leafContext);
+    }
+
+    @Override
+    protected String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected boolean doFilter() throws ParseException {
+        if (evaluation == null) {
+            RecurringExpression.Bound expression = parsedParams();
+            evaluation = expression.newEvaluation();
+        }
+        return evaluation.test(getRecurring());
+    }
+
+    @Override
+    protected String predicate() {
+        RecurringExpression.Bound expression = parsedParams();
+        return super.predicate() + "[" + expression + "]@" + expression.today();
+    }
+
+    public static class Factory extends AbstractFilterScript.Factory<ExpressionFilterScript> {
+
+        private final RecurringExpression expression;
+
+        public Factory(RecurringExpression expression, ScriptResources resources) {
+            super(ExpressionFilterScript::new, resources);
+            this.expression = expression;
+        }
+
+        @Override
+        protected RecurringExpression.Bound parse(ScriptParams params) {
+            return expression.bind(params, EpochDays.toLocalDate(params.today()));
+        }
+    }
+}
@@ -16,6 +16,7 @@ package org.devmaster.elasticsearch.script;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.elasticsearch.search.lookup.SearchLookup;
+import org.joda.time.Interval;
 
 import java.text.ParseException;
 import java.util.Map;
@@ -37,14 +38,18 @@ public class HasAnyOccurrenceBetweenFilterScript extends AbstractFilterScript {
 
     @Override
     protected boolean doFilter() throws ParseException {
-        String start = (String) getParams().get("start");
-        String end = (String) getParams().get("end");
-        return getRecurring().hasAnyOccurrenceBetween(start, end);
+        Interval interval = parsedParams();
+        return getRecurring().hasAnyOccurrenceBetween(interval);
     }
 
     public static class Factory extends AbstractFilterScript.Factory<HasAnyOccurrenceBetweenFilterScript> {
-        public Factory() {
-            super(HasAnyOccurrenceBetweenFilterScript.class);
+        public Factory(ScriptResources resources) {
+            super(HasAnyOccurrenceBetweenFilterScript::new, resources);
+        }
+
+        @Override
+        protected Interval parse(ScriptParams params) {
+            return new Interval(params.instant("start"), params.instant("end"));
         }
     }
 
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Matches events occurring on at least {@code minimum_match} of many days, given as for
+ * {@link OccurrencesAtFieldScript}, stopping at the day that settles it.
+ */
+public class HasOccurrencesAtAnyFilterScript extends AbstractFilterScript {
+
+    public static final String NAME = "hasOccurrencesAtAny";
+
+    private int matches;
+
+    public HasOccurrencesAtAnyFilterScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
+        super(params, lookup, leafContext);
+    }
+
+    @Override
+    protected String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected boolean doFilter() throws ParseException {
+        Arguments args = parsedParams();
+        matches = 0;
+        getRecurring().occurrencesAt(args.days, i -> ++matches < args.minimumMatch);
+        return matches >= args.minimumMatch;
+    }
+
+    public static class Factory extends AbstractFilterScript.Factory<HasOccurrencesAtAnyFilterScript> {
+
+        public Factory(ScriptResources resources) {
+            super(HasOccurrencesAtAnyFilterScript::new, resources);
+        }
+
+        @Override
+        protected Arguments parse(ScriptParams params) {
+            return new Arguments(params.days(), params.count("minimum_match", 1));
+        }
+    }
+
+    static final class Arguments {
+
+        final long[] days;
+        final int minimumMatch;
+
+        Arguments(long[] days, int minimumMatch) {
+            this.days = days;
+            this.minimumMatch = minimumMatch;
+        }
+    }
+}
@@ -17,7 +17,6 @@ package org.devmaster.elasticsearch.script;
 import org.apache.lucene.index.LeafReaderContext;
 import org.devmaster.elasticsearch.Recurring;
 import org.elasticsearch.search.lookup.SearchLookup;
-import org.joda.time.LocalDate;
 
 import java.text.ParseException;
 import java.util.Map;
@@ -41,14 +40,19 @@ public class HasOccurrencesAtFilterScript extends AbstractFilterScript {
     @Override
     protected boolean doFilter() throws ParseException {
         Recurring recurring = getRecurring();
-        String date = (String) getParams().get("date");
-        return recurring != null && recurring.hasOccurrencesAt(new LocalDate(date));
+        long day = parsedParams();
+        return recurring != null && recurring.hasOccurrencesAt(day);
     }
 
     public static class Factory extends AbstractFilterScript.Factory<HasOccurrencesAtFilterScript> {
 
-        public Factory() {
-            super(HasOccurrencesAtFilterScript.class);
+        public Factory(ScriptResources resources) {
+            super(HasOccurrencesAtFilterScript::new, resources);
+        }
+
+        @Override
+        protected Long parse(ScriptParams params) {
+            return params.epochDay("date");
         }
     }
 }
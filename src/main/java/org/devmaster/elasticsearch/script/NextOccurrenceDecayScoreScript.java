@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.devmaster.elasticsearch.Recurring;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Scores events by how soon they next occur from {@code origin}, with a {@link Decay} of the distance in days. Events
+ * that don't occur anymore score {@code 0}.
+ */
+public class NextOccurrenceDecayScoreScript extends AbstractScoreScript {
+
+    public static final String NAME = "nextOccurrenceDecay";
+
+    public NextOccurrenceDecayScoreScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
+        super(params, lookup, leafContext);
+    }
+
+    @Override
+    protected String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected double run(Recurring recurring) throws ParseException {
+        Arguments args = parsedParams();
+        long next = recurring.firstOccurrenceFrom(args.origin);
+        return next != Recurring.NO_DAY ? args.decay.score(next - args.origin) : 0.0;
+    }
+
+    @Override
+    protected double missing() {
+        return 0.0;
+    }
+
+    public static class Factory extends AbstractScoreScript.Factory<NextOccurrenceDecayScoreScript> {
+
+        public Factory(ScriptResources resources) {
+            super(NextOccurrenceDecayScoreScript::new, resources);
+        }
+
+        @Override
+        protected Arguments parse(ScriptParams params) {
+            Decay.Function function = Decay.Function.fromString(params.string("function", "exp"));
+            Decay decay = new Decay(function, params.duration("scale", null), params.duration("offset", "0d"),
+                    params.decimal("decay", 0.5));
+            return new Arguments(params.day("origin", "now/d"), decay);
+        }
+    }
+
+    static final class Arguments {
+
+        final long origin;
+        final Decay decay;
+
+        Arguments(long origin, Decay decay) {
+            this.origin = origin;
+            this.decay = decay;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.devmaster.elasticsearch.Recurring;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Sorts events by the days from {@code origin} to their next occurrence, {@code 0} for the ones occurring on it.
+ * Events that don't occur anymore sort last in ascending order.
+ */
+public class NextOccurrenceDistanceSortScript extends AbstractNumberSortScript {
+
+    public static final String NAME = "nextOccurrenceDistance";
+
+    public NextOccurrenceDistanceSortScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
+        super(params, lookup, leafContext);
+    }
+
+    @Override
+    protected String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected double run(Recurring recurring) throws ParseException {
+        long origin = parsedParams();
+        long next = recurring.firstOccurrenceFrom(origin);
+        return next != Recurring.NO_DAY ? next - origin : missing();
+    }
+
+    @Override
+    protected double missing() {
+        return Double.MAX_VALUE;
+    }
+
+    public static class Factory extends AbstractNumberSortScript.Factory<NextOccurrenceDistanceSortScript> {
+
+        public Factory(ScriptResources resources) {
+            super(NextOccurrenceDistanceSortScript::new, resources);
+        }
+
+        @Override
+        protected Long parse(ScriptParams params) {
+            return params.day("origin", "now/d");
+        }
+    }
+}
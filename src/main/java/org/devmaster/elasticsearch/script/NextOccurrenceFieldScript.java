@@ -15,6 +15,7 @@
 package org.devmaster.elasticsearch.script;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.devmaster.elasticsearch.EpochDays;
 import org.elasticsearch.search.lookup.SearchLookup;
 import org.joda.time.LocalDate;
 
@@ -36,14 +37,20 @@ public class NextOccurrenceFieldScript extends AbstractFieldScript {
 
     @Override
     protected Object run() throws ParseException {
-        LocalDate nextOccurrence = getRecurring().getNextOccurrence(LocalDate.now());
+        LocalDate from = parsedParams();
+        LocalDate nextOccurrence = getRecurring().getNextOccurrence(from);
         return nextOccurrence != null ? nextOccurrence.toString("yyyy-MM-dd") : null;
     }
 
     public static class Factory extends AbstractFieldScript.Factory<NextOccurrenceFieldScript> {
 
-        public Factory() {
-            super(NextOccurrenceFieldScript.class);
+        public Factory(ScriptResources resources) {
+            super(NextOccurrenceFieldScript::new, resources);
+        }
+
+        @Override
+        protected LocalDate parse(ScriptParams params) {
+            return EpochDays.toLocalDate(params.day("from", "now/d"));
         }
     }
 
@@ -15,11 +15,19 @@
 package org.devmaster.elasticsearch.script;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Query;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
 import org.elasticsearch.search.lookup.SearchLookup;
+import org.joda.time.LocalDate;
 
 import java.text.ParseException;
 import java.util.Map;
 
+/**
+ * Matches events occurring on or after a day. Events whose indexed occurrence envelope ends before it are rejected
+ * from the envelope points, without evaluating their rule.
+ */
 public class NotHasExpiredFilterScript extends AbstractFilterScript {
 
     public static final String NAME = "notHasExpired";
@@ -35,12 +43,29 @@ public class NotHasExpiredFilterScript extends AbstractFilterScript {
 
     @Override
     protected boolean doFilter() throws ParseException {
-        return getRecurring().notHasExpired();
+        LocalDate today = parsedParams();
+        return getRecurring().notHasExpired(today);
+    }
+
+    @Override
+    protected String predicate() {
+        return super.predicate() + "@" + parsedParams();
     }
 
     public static class Factory extends AbstractFilterScript.Factory<NotHasExpiredFilterScript> {
-        public Factory() {
-            super(NotHasExpiredFilterScript.class);
+        public Factory(ScriptResources resources) {
+            super(NotHasExpiredFilterScript::new, resources);
+        }
+
+        @Override
+        protected LocalDate parse(ScriptParams params) {
+            return EpochDays.toLocalDate(params.day("from", "now/d"));
+        }
+
+        @Override
+        protected Query prefilter(String field, Object parsedParams) {
+            return RecurringFieldMapper.RecurringFieldType.envelopeQuery(field, EpochDays.of((LocalDate) parsedParams),
+                    EpochDays.MAX_VALUE);
         }
     }
 }
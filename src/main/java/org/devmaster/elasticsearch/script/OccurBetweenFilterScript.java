@@ -35,14 +35,18 @@ public class OccurBetweenFilterScript extends AbstractFilterScript {
 
     @Override
     protected boolean doFilter() throws ParseException {
-        String start = (String) getParams().get("start");
-        String end = (String) getParams().get("end");
-        return getRecurring().occurBetween(start, end);
+        ScriptParams.DayRange range = parsedParams();
+        return getRecurring().occurBetween(range.from, range.to);
     }
 
     public static class Factory extends AbstractFilterScript.Factory<OccurBetweenFilterScript> {
-        public Factory() {
-            super(OccurBetweenFilterScript.class);
+        public Factory(ScriptResources resources) {
+            super(OccurBetweenFilterScript::new, resources);
+        }
+
+        @Override
+        protected ScriptParams.DayRange parse(ScriptParams params) {
+            return params.dayRange();
         }
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.devmaster.elasticsearch.EpochDays;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+/**
+ * How the field scripts listing occurrences return them, read from the {@code format} parameter.
+ */
+public enum OccurrenceFormat {
+    // yyyy-MM-dd strings
+    DATE,
+    EPOCH_DAY,
+    EPOCH_MILLIS,
+    // one bit per probed day, lowest bit first, in as many longs as it takes
+    BITMASK;
+
+    /**
+     * Returns the {@code format} parameter, {@link #DATE} if it is missing, rejecting {@link #BITMASK} unless the
+     * script probes given days.
+     */
+    static OccurrenceFormat parse(ScriptParams params, boolean bitmask) {
+        String format = params.string("format", null);
+        if (format == null) {
+            return DATE;
+        }
+        String names = bitmask ? "[date, epoch_day, epoch_millis, bitmask]" : "[date, epoch_day, epoch_millis]";
+        try {
+            OccurrenceFormat value = valueOf(format.toUpperCase(Locale.ROOT));
+            if (value != BITMASK || bitmask) {
+                return value;
+            }
+        } catch (IllegalArgumentException e) {
+            // rejected below
+        }
+        throw new IllegalArgumentException("Parameter format must be one of " + names + " but was [" + format + "]");
+    }
+
+    /**
+     * Returns an empty output for up to {@code size} days, the number of probed days for {@link #BITMASK}.
+     */
+    Output output(int size) {
+        return new Output(this, size);
+    }
+
+    /**
+     * Collects the days of a document in a format. Numbers are kept in a {@code long[]} and only boxed when the
+     * result is serialized.
+     */
+    static final class Output {
+
+        private final OccurrenceFormat format;
+        private final List<String> dates;
+        private long[] longs;
+        private int length;
+
+        private Output(OccurrenceFormat format, int size) {
+            this.format = format;
+            if (format == DATE) {
+                this.dates = new ArrayList<>(size);
+                this.longs = null;
+            } else if (format == BITMASK) {
+                this.dates = null;
+                this.longs = new long[(size + 63) >>> 6];
+                this.length = longs.length;
+            } else {
+                this.dates = null;
+                this.longs = new long[size];
+            }
+        }
+
+        /**
+         * Adds an epoch day, which can't be used with {@link #BITMASK}.
+         */
+        void add(long day) {
+            switch (format) {
+                case DATE:
+                    dates.add(EpochDays.toLocalDate(day).toString());
+                    break;
+                case EPOCH_DAY:
+                    push(day);
+                    break;
+                case EPOCH_MILLIS:
+                    push(EpochDays.toMillis(day));
+                    break;
+                default:
+                    throw new IllegalStateException("Days can't be added to a " + format + " output");
+            }
+        }
+
+        /**
+         * Adds the epoch day probed at {@code probe}.
+         */
+        void add(int probe, long day) {
+            if (format == BITMASK) {
+                longs[probe >>> 6] |= 1L << probe;
+            } else {
+                add(day);
+            }
+        }
+
+        private void push(long value) {
+            if (length == longs.length) {
+                longs = ArrayUtil.grow(longs, length + 1);
+            }
+            longs[length++] = value;
+        }
+
+        List<?> result() {
+            return format == DATE ? dates : new LongList(longs, length);
+        }
+    }
+
+    private static final class LongList extends AbstractList<Long> implements RandomAccess {
+
+        private final long[] values;
+        private final int length;
+
+        LongList(long[] values, int length) {
+            this.values = values;
+            this.length = length;
+        }
+
+        @Override
+        public Long get(int index) {
+            if (index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+            }
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Returns which of many days, given as {@code dates} or as {@code count} days from {@code date} {@code stride} days
+ * apart, the event occurs on, probing all of them in a single pass over its occurrences.
+ */
+public class OccurrencesAtFieldScript extends AbstractFieldScript {
+
+    public static final String NAME = "occurrencesAt";
+
+    public OccurrencesAtFieldScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
+        super(params, lookup, leafContext);
+    }
+
+    @Override
+    protected String getName() {
+        return NAME;
+    }
+
+    public static class Factory extends AbstractFieldScript.Factory<OccurrencesAtFieldScript> {
+
+        public Factory(ScriptResources resources) {
+            super(OccurrencesAtFieldScript::new, resources);
+        }
+
+        @Override
+        protected Arguments parse(ScriptParams params) {
+            return new Arguments(params.days(), OccurrenceFormat.parse(params, true));
+        }
+    }
+
+    static final class Arguments {
+
+        final long[] days;
+        final OccurrenceFormat format;
+
+        Arguments(long[] days, OccurrenceFormat format) {
+            this.days = days;
+            this.format = format;
+        }
+    }
+
+    @Override
+    protected Object run() throws ParseException {
+        Arguments args = parsedParams();
+        long[] days = args.days;
+        OccurrenceFormat.Output output = args.format.output(days.length);
+        getRecurring().occurrencesAt(days, i -> {
+            output.add(i, days[i]);
+            return true;
+        });
+        return output.result();
+    }
+}
@@ -36,15 +36,39 @@ public class OccurrencesBetweenFieldScript extends AbstractFieldScript {
 
     public static class Factory extends AbstractFieldScript.Factory<OccurrencesBetweenFieldScript> {
 
-        public Factory() {
-            super(OccurrencesBetweenFieldScript.class);
+        public Factory(ScriptResources resources) {
+            super(OccurrencesBetweenFieldScript::new, resources);
+        }
+
+        @Override
+        protected Arguments parse(ScriptParams params) {
+            return new Arguments(params.date("start"), params.date("end"), params.count("offset", 0),
+                    params.count("limit", Integer.MAX_VALUE), OccurrenceFormat.parse(params, false));
+        }
+    }
+
+    static final class Arguments {
+
+        final LocalDate start;
+        final LocalDate end;
+        final int offset;
+        final int limit;
+        final OccurrenceFormat format;
+
+        Arguments(LocalDate start, LocalDate end, int offset, int limit, OccurrenceFormat format) {
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+            this.limit = limit;
+            this.format = format;
         }
     }
 
     @Override
     protected Object run() throws ParseException {
-        LocalDate start = LocalDate.parse(getParams().get("start").toString());
-        LocalDate end = LocalDate.parse(getParams().get("end").toString());
-        return getRecurring().occurrencesBetween(start, end);
+        Arguments args = parsedParams();
+        OccurrenceFormat.Output output = args.format.output(Math.min(args.limit, 16));
+        getRecurring().occurrencesBetween(args.start, args.end, args.offset, args.limit, output::add);
+        return output.result();
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.rrule.RecurrenceRule;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Matches events sharing at least one day, between {@code start} and {@code end}, with the event given by the
+ * {@code start_date}, {@code end_date} and {@code rrule} parameters. See {@link Recurring#overlaps}.
+ */
+public class OverlapsFilterScript extends AbstractFilterScript {
+
+    public static final String NAME = "overlaps";
+
+    // the given event, which keeps state while evaluated and so is not shared between scripts
+    private Recurring event;
+
+    public OverlapsFilterScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) {
+        super(params, lookup, leafContext);
+    }
+
+    @Override
+    protected String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected boolean doFilter() throws ParseException {
+        Arguments args = parsedParams();
+        if (event == null) {
+            event = new Recurring();
+            event.reset(args.start, args.end, args.rule);
+        }
+        return getRecurring().overlaps(event, args.range.from, args.range.to);
+    }
+
+    public static class Factory extends AbstractFilterScript.Factory<OverlapsFilterScript> {
+
+        public Factory(ScriptResources resources) {
+            super(OverlapsFilterScript::new, resources);
+        }
+
+        @Override
+        protected Arguments parse(ScriptParams params) {
+            String end = params.string("end_date", null);
+            String rrule = params.string("rrule", null);
+            RecurrenceRule rule = rrule != null ? RecurrenceRule.parse(rrule) : null;
+            if (rule != null && !rule.isValid())
+                throw new IllegalArgumentException("Parameter rrule must be a recurrence rule but was [" + rrule + "]");
+
+            return new Arguments(params.epochDay("start_date"), end != null ? params.epochDay("end_date") : Recurring.NO_DAY,
+                    rule, params.dayRange());
+        }
+    }
+
+    static final class Arguments {
+
+        final long start;
+        final long end;
+        final RecurrenceRule rule;
+        final ScriptParams.DayRange range;
+
+        Arguments(long start, long end, RecurrenceRule rule, ScriptParams.DayRange range) {
+            this.start = start;
+            this.end = end;
+            this.rule = rule;
+            this.range = range;
+        }
+    }
+}
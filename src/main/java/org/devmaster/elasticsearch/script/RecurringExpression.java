@@ -0,0 +1,419 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import com.carrotsearch.hppc.LongObjectHashMap;
+import org.devmaster.elasticsearch.OccurrenceIterator;
+import org.devmaster.elasticsearch.Recurring;
+import org.joda.time.Interval;
+import org.joda.time.LocalDate;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Predicates of a recurring field combined with {@code and}, {@code or}, {@code not} and parentheses, such as
+ * {@code occurBetween(start, end) and notHasExpired() and not hasOccurrencesAt(holiday)}. The arguments of the
+ * predicates are names of script parameters.
+ * <p>
+ * Once {@link #bind(ScriptParams, LocalDate) bound} to the parameters of a request, a document is evaluated in a
+ * single pass: {@code hasOccurrencesAt} and {@code occurBetween} only need the first occurrence on or after a day,
+ * so they share one {@link OccurrenceIterator} that is advanced through their days in order, unless the document
+ * has an occurrence bitmap to answer them.
+ */
+public final class RecurringExpression {
+
+    private final String source;
+    private final Node root;
+
+    private RecurringExpression(String source, Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    public static RecurringExpression parse(String source) {
+        Parser parser = new Parser(source);
+        Node root = parser.expression();
+        if (parser.peek() != null) {
+            throw parser.error("unexpected [" + parser.peek() + "]");
+        }
+        return new RecurringExpression(source, root);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    /**
+     * Resolves the arguments of the predicates from {@code params}, with {@code today} as the day
+     * {@code notHasExpired} compares to.
+     */
+    public Bound bind(ScriptParams params, LocalDate today) {
+        Binder binder = new Binder(params, today);
+        Condition condition = root.bind(binder);
+        return new Bound(source, condition, binder.days(), today);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * An expression with its arguments resolved, shared by the scripts of a request.
+     */
+    public static final class Bound {
+
+        private final String source;
+        private final Condition condition;
+        private final long[] days;
+        private final LocalDate today;
+
+        private Bound(String source, Condition condition, long[] days, LocalDate today) {
+            this.source = source;
+            this.condition = condition;
+            this.days = days;
+            this.today = today;
+        }
+
+        public LocalDate today() {
+            return today;
+        }
+
+        /**
+         * Returns the state to evaluate documents with, which can't be shared between threads.
+         */
+        public Evaluation newEvaluation() {
+            return new Evaluation(this);
+        }
+
+        @Override
+        public String toString() {
+            return source;
+        }
+    }
+
+    public static final class Evaluation {
+
+        private final Bound bound;
+        // the first occurrence on or after each of the bound days, resolved up to the index resolved - 1
+        private final long[] next;
+        private int resolved;
+        private OccurrenceIterator occurrences;
+        private Recurring recurring;
+
+        private Evaluation(Bound bound) {
+            this.bound = bound;
+            this.next = new long[bound.days.length];
+        }
+
+        public boolean test(Recurring recurring) throws ParseException {
+            this.recurring = recurring;
+            this.occurrences = null;
+            this.resolved = 0;
+            return bound.condition.test(this);
+        }
+
+        // events without a rule are cheap to answer, and bitmaps answer without walking the rule
+        private boolean usesRecurring() {
+            return recurring.getRrule() == null || recurring.hasOccurrenceBitmap();
+        }
+
+        private long nextOccurrence(int probe) throws ParseException {
+            if (occurrences == null) {
+                occurrences = recurring.evaluateOccurrences(bound.days[0], Long.MAX_VALUE);
+                next[resolved++] = occurrences.day();
+            }
+            while (resolved <= probe) {
+                next[resolved] = occurrences.advanceTo(bound.days[resolved]);
+                resolved++;
+            }
+            return next[probe];
+        }
+    }
+
+    private interface Condition {
+
+        boolean test(Evaluation evaluation) throws ParseException;
+    }
+
+    /**
+     * Hands out the days of the predicates, which are only indexed in order once all of them are known.
+     */
+    private static final class Binder {
+
+        final ScriptParams params;
+        final LocalDate today;
+        private final LongObjectHashMap<Probe> probes = new LongObjectHashMap<>();
+
+        Binder(ScriptParams params, LocalDate today) {
+            this.params = params;
+            this.today = today;
+        }
+
+        Probe probe(long day) {
+            Probe probe = probes.get(day);
+            if (probe == null) {
+                probe = new Probe();
+                probes.put(day, probe);
+            }
+            return probe;
+        }
+
+        long[] days() {
+            long[] days = probes.keys().toArray();
+            Arrays.sort(days);
+            for (int i = 0; i < days.length; i++) {
+                probes.get(days[i]).index = i;
+            }
+            return days;
+        }
+    }
+
+    private static final class Probe {
+
+        int index;
+    }
+
+    private abstract static class Node {
+
+        abstract Condition bind(Binder binder);
+    }
+
+    private static final class And extends Node {
+
+        final Node left;
+        final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Condition bind(Binder binder) {
+            Condition left = this.left.bind(binder);
+            Condition right = this.right.bind(binder);
+            return evaluation -> left.test(evaluation) && right.test(evaluation);
+        }
+    }
+
+    private static final class Or extends Node {
+
+        final Node left;
+        final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Condition bind(Binder binder) {
+            Condition left = this.left.bind(binder);
+            Condition right = this.right.bind(binder);
+            return evaluation -> left.test(evaluation) || right.test(evaluation);
+        }
+    }
+
+    private static final class Not extends Node {
+
+        final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Condition bind(Binder binder) {
+            Condition operand = this.operand.bind(binder);
+            return evaluation -> !operand.test(evaluation);
+        }
+    }
+
+    private static final class Predicate extends Node {
+
+        final String name;
+        final List<String> arguments;
+
+        Predicate(String name, List<String> arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Condition bind(Binder binder) {
+            switch (name) {
+                case HasOccurrencesAtFilterScript.NAME: {
+                    long day = binder.params.epochDay(arguments.get(0));
+                    Probe probe = binder.probe(day);
+                    return evaluation -> evaluation.usesRecurring()
+                            ? evaluation.recurring.hasOccurrencesAt(day)
+                            : evaluation.nextOccurrence(probe.index) == day;
+                }
+                case OccurBetweenFilterScript.NAME: {
+                    long from = binder.params.epochDay(arguments.get(0));
+                    long to = binder.params.epochDay(arguments.get(1));
+                    Probe probe = binder.probe(from);
+                    return evaluation -> evaluation.usesRecurring()
+                            ? evaluation.recurring.occurBetween(from, to)
+                            : evaluation.nextOccurrence(probe.index) <= to;
+                }
+                case HasAnyOccurrenceBetweenFilterScript.NAME: {
+                    Interval interval = new Interval(binder.params.instant(arguments.get(0)),
+                            binder.params.instant(arguments.get(1)));
+                    return evaluation -> evaluation.recurring.hasAnyOccurrenceBetween(interval);
+                }
+                case NotHasExpiredFilterScript.NAME: {
+                    LocalDate today = binder.today;
+                    return evaluation -> evaluation.recurring.notHasExpired(today);
+                }
+                default:
+                    throw new AssertionError(name);
+            }
+        }
+    }
+
+    private static final class Parser {
+
+        private final String source;
+        private int position;
+        private String token;
+        private int tokenStart;
+
+        Parser(String source) {
+            this.source = source;
+            advance();
+        }
+
+        // expression := term ('or' term)*
+        Node expression() {
+            Node node = term();
+            while ("or".equals(token)) {
+                advance();
+                node = new Or(node, term());
+            }
+            return node;
+        }
+
+        // term := factor ('and' factor)*
+        private Node term() {
+            Node node = factor();
+            while ("and".equals(token)) {
+                advance();
+                node = new And(node, factor());
+            }
+            return node;
+        }
+
+        // factor := 'not' factor | '(' expression ')' | predicate '(' arguments ')'
+        private Node factor() {
+            if ("not".equals(token)) {
+                advance();
+                return new Not(factor());
+            }
+            if ("(".equals(token)) {
+                advance();
+                Node node = expression();
+                expect(")");
+                return node;
+            }
+            String name = identifier("a predicate");
+            int arity = arity(name);
+            expect("(");
+            List<String> arguments = new ArrayList<>(arity);
+            if (!")".equals(token)) {
+                arguments.add(identifier("a parameter name"));
+                while (",".equals(token)) {
+                    advance();
+                    arguments.add(identifier("a parameter name"));
+                }
+            }
+            expect(")");
+            if (arguments.size() != arity) {
+                throw error("[" + name + "] takes " + arity + " parameters but got " + arguments.size());
+            }
+            return new Predicate(name, arguments);
+        }
+
+        private int arity(String name) {
+            switch (name) {
+                case NotHasExpiredFilterScript.NAME:
+                    return 0;
+                case HasOccurrencesAtFilterScript.NAME:
+                    return 1;
+                case OccurBetweenFilterScript.NAME:
+                case HasAnyOccurrenceBetweenFilterScript.NAME:
+                    return 2;
+                default:
+                    throw error("unknown predicate [" + name + "]");
+            }
+        }
+
+        private String identifier(String expected) {
+            if (token == null || !Character.isJavaIdentifierStart(token.charAt(0))
+                    || "and".equals(token) || "or".equals(token) || "not".equals(token)) {
+                throw error("expected " + expected + " but got [" + (token != null ? token : "end of expression") + "]");
+            }
+            String identifier = token;
+            advance();
+            return identifier;
+        }
+
+        private void expect(String expected) {
+            if (!expected.equals(token)) {
+                throw error("expected [" + expected + "] but got [" + (token != null ? token : "end of expression") + "]");
+            }
+            advance();
+        }
+
+        String peek() {
+            return token;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid expression [" + source + "] at position " + tokenStart
+                    + ": " + message);
+        }
+
+        private void advance() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+            tokenStart = position;
+            if (position == source.length()) {
+                token = null;
+                return;
+            }
+            char c = source.charAt(position);
+            if (Character.isJavaIdentifierStart(c)) {
+                int end = position + 1;
+                while (end < source.length() && Character.isJavaIdentifierPart(source.charAt(end))) {
+                    end++;
+                }
+                token = source.substring(position, end);
+                position = end;
+            } else {
+                token = String.valueOf(c);
+                position++;
+                if ("(),".indexOf(c) < 0) {
+                    throw error("unexpected character [" + c + "]");
+                }
+            }
+        }
+    }
+}
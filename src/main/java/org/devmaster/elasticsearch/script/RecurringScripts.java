@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCache;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.script.FieldScript;
+import org.elasticsearch.script.FilterScript;
+import org.elasticsearch.script.NumberSortScript;
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.script.ScriptContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The scripts of the {@code recurring_scripts} engine. Their factories are built once, when the engine is created,
+ * so compiling a script is only a lookup by context and name.
+ */
+public final class RecurringScripts {
+
+    private static final class Descriptor {
+
+        final ScriptContext<?> context;
+        final String name;
+        // builds the factory from the resources of the node
+        final Function<ScriptResources, ?> factory;
+
+        Descriptor(ScriptContext<?> context, String name, Function<ScriptResources, ?> factory) {
+            this.context = context;
+            this.name = name;
+            this.factory = factory;
+        }
+    }
+
+    private static final List<Descriptor> DESCRIPTORS = Arrays.asList(
+            new Descriptor(FilterScript.CONTEXT, HasAnyOccurrenceBetweenFilterScript.NAME,
+                    HasAnyOccurrenceBetweenFilterScript.Factory::new),
+            new Descriptor(FilterScript.CONTEXT, HasOccurrencesAtFilterScript.NAME, HasOccurrencesAtFilterScript.Factory::new),
+            new Descriptor(FilterScript.CONTEXT, HasOccurrencesAtAnyFilterScript.NAME,
+                    HasOccurrencesAtAnyFilterScript.Factory::new),
+            new Descriptor(FilterScript.CONTEXT, OccurBetweenFilterScript.NAME, OccurBetweenFilterScript.Factory::new),
+            new Descriptor(FilterScript.CONTEXT, NotHasExpiredFilterScript.NAME, NotHasExpiredFilterScript.Factory::new),
+            new Descriptor(FilterScript.CONTEXT, OverlapsFilterScript.NAME, OverlapsFilterScript.Factory::new),
+            new Descriptor(FieldScript.CONTEXT, NextOccurrenceFieldScript.NAME, NextOccurrenceFieldScript.Factory::new),
+            new Descriptor(FieldScript.CONTEXT, OccurrencesAtFieldScript.NAME, OccurrencesAtFieldScript.Factory::new),
+            new Descriptor(FieldScript.CONTEXT, OccurrencesBetweenFieldScript.NAME, OccurrencesBetweenFieldScript.Factory::new),
+            new Descriptor(FieldScript.CONTEXT, OccurrencesCountFieldScript.NAME, OccurrencesCountFieldScript.Factory::new),
+            new Descriptor(ScoreScript.CONTEXT, NextOccurrenceDecayScoreScript.NAME,
+                    NextOccurrenceDecayScoreScript.Factory::new),
+            new Descriptor(NumberSortScript.CONTEXT, NextOccurrenceDistanceSortScript.NAME,
+                    NextOccurrenceDistanceSortScript.Factory::new)
+    );
+
+    private final Map<ScriptContext<?>, Map<String, Object>> factories = new HashMap<>();
+    private final ScriptResources resources;
+
+    /**
+     * Creates the scripts of a node, parsing rules with its {@code ruleCache} and keeping filter answers in its
+     * {@code filterCache}.
+     */
+    public RecurringScripts(long maxIteratorSteps, RecurrenceRuleCache ruleCache, RecurringFilterCache filterCache) {
+        this.resources = new ScriptResources(maxIteratorSteps, ruleCache, filterCache);
+        for (Descriptor descriptor : DESCRIPTORS) {
+            factories.computeIfAbsent(descriptor.context, context -> new HashMap<>())
+                    .put(descriptor.name, descriptor.factory.apply(resources));
+        }
+    }
+
+    public Set<ScriptContext<?>> contexts() {
+        return Collections.unmodifiableSet(factories.keySet());
+    }
+
+    /**
+     * Returns the factory of the script {@code name} in {@code context}, or {@code null} if there is no such script.
+     * Filters that are not a script name are parsed as a {@link RecurringExpression}.
+     */
+    public <T> T factory(ScriptContext<T> context, String name) {
+        Map<String, Object> scripts = factories.get(context);
+        Object factory = scripts != null ? scripts.get(name) : null;
+        if (factory == null && context.equals(FilterScript.CONTEXT)) {
+            factory = new ExpressionFilterScript.Factory(RecurringExpression.parse(name), resources);
+        }
+        return factory != null ? context.factoryClazz.cast(factory) : null;
+    }
+}
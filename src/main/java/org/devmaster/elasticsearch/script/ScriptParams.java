@@ -0,0 +1,294 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.devmaster.elasticsearch.EpochDays;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.time.DateFormatter;
+import org.elasticsearch.common.time.DateMathParser;
+import org.elasticsearch.common.unit.TimeValue;
+import org.joda.time.Instant;
+import org.joda.time.LocalDate;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Typed access to the parameters of a script. Script factories use it to parse and validate the parameters once per
+ * shard of a request, so that a bad parameter fails the request up front and documents are only compared to parsed
+ * values.
+ */
+public final class ScriptParams {
+
+    /**
+     * A range of days, both inclusive, as epoch days.
+     */
+    public static final class DayRange {
+
+        public final long from;
+        public final long to;
+
+        DayRange(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * The number of days {@link #days()} returns at most, as every document is probed on each of them.
+     */
+    public static final int MAX_DAYS = 4096;
+
+    /**
+     * The parameter giving {@code now}, as epoch millis or an instant, so that every shard of a request resolves the
+     * same day. Each shard reads its own clock otherwise.
+     */
+    public static final String NOW = "now";
+
+    private static final DateMathParser DATE_MATH_PARSER = DateFormatter.forPattern("yyyy-MM-dd").toDateMathParser();
+
+    private final Map<String, Object> params;
+    private final LongSupplier clock;
+    private long nowInMillis = -1;
+
+    public ScriptParams(Map<String, Object> params) {
+        this(params, System::currentTimeMillis);
+    }
+
+    ScriptParams(Map<String, Object> params, LongSupplier clock) {
+        this.params = params;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the name of the recurring field the script runs on.
+     */
+    public String field() {
+        Object field = params.get("field");
+        if (field == null || Strings.isNullOrEmpty(field.toString()))
+            throw new IllegalArgumentException("Parameter field can not be null or empty");
+
+        return field.toString();
+    }
+
+    public LocalDate date(String name) {
+        Object value = required(name);
+        try {
+            return new LocalDate(value.toString());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a date but was [" + value + "]", e);
+        }
+    }
+
+    public long epochDay(String name) {
+        return EpochDays.of(date(name));
+    }
+
+    /**
+     * Returns the days from the {@code start} to the {@code end} parameter.
+     */
+    public DayRange dayRange() {
+        return new DayRange(epochDay("start"), epochDay("end"));
+    }
+
+    /**
+     * Returns the days of the {@code dates} parameter, a list of dates in ascending order, or else {@code count} days
+     * from the {@code date} parameter, {@code stride} days apart. Either way there can't be more than
+     * {@link #MAX_DAYS} days.
+     */
+    public long[] days() {
+        Object dates = params.get("dates");
+        if (dates == null) {
+            long day = epochDay("date");
+            int stride = count("stride", 1);
+            int count = count("count", 1);
+            if (stride == 0)
+                throw new IllegalArgumentException("Parameter stride must be at least 1");
+            if (count > MAX_DAYS)
+                throw new IllegalArgumentException("Parameter count can not be greater than " + MAX_DAYS);
+
+            long[] days = new long[count];
+            for (int i = 0; i < count; i++) {
+                days[i] = day + (long) i * stride;
+            }
+            return days;
+        }
+        if (!(dates instanceof List))
+            throw new IllegalArgumentException("Parameter dates must be a list of dates but was [" + dates + "]");
+
+        List<?> values = (List<?>) dates;
+        if (values.size() > MAX_DAYS)
+            throw new IllegalArgumentException("Parameter dates can not have more than " + MAX_DAYS + " dates");
+
+        long[] days = new long[values.size()];
+        for (int i = 0; i < days.length; i++) {
+            Object value = values.get(i);
+            try {
+                days[i] = EpochDays.of(new LocalDate(String.valueOf(value)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Parameter dates must be a list of dates but had [" + value + "]", e);
+            }
+            if (i > 0 && days[i] <= days[i - 1])
+                throw new IllegalArgumentException("Parameter dates must be in ascending order but [" + value
+                        + "] follows [" + values.get(i - 1) + "]");
+        }
+        return days;
+    }
+
+    /**
+     * Returns the day of a {@code yyyy-MM-dd} date or date math parameter such as {@code now/d}, or of
+     * {@code defaultValue} if it is missing, in the zone of the {@code time_zone} parameter. {@code now} is the
+     * {@link #NOW} parameter, or else read once per instance, which factories create once per shard, so every document
+     * of a shard is compared to the same day.
+     */
+    public long day(String name, String defaultValue) {
+        Object value = params.get(name);
+        return parseDay(name, value != null ? value.toString() : defaultValue);
+    }
+
+    /**
+     * Returns today in the zone of the {@code time_zone} parameter.
+     */
+    public long today() {
+        return parseDay("now", "now/d");
+    }
+
+    private long parseDay(String name, String text) {
+        ZoneId timeZone = timeZone();
+        java.time.Instant instant;
+        try {
+            instant = DATE_MATH_PARSER.parse(text, this::nowInMillis, false, timeZone);
+        } catch (ElasticsearchParseException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a date but was [" + text + "]", e);
+        }
+        return instant.atZone(timeZone).toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Returns the {@code time_zone} parameter, {@code UTC} if it is missing.
+     */
+    public ZoneId timeZone() {
+        Object value = params.get("time_zone");
+        if (value == null) {
+            return ZoneOffset.UTC;
+        }
+        try {
+            return ZoneId.of(value.toString());
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Parameter time_zone must be a time zone but was [" + value + "]", e);
+        }
+    }
+
+    private long nowInMillis() {
+        if (nowInMillis == -1) {
+            Object now = params.get(NOW);
+            nowInMillis = now != null ? parseNow(now) : clock.getAsLong();
+        }
+        return nowInMillis;
+    }
+
+    private static long parseNow(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            String text = value.toString();
+            return text.chars().allMatch(Character::isDigit) && !text.isEmpty()
+                    ? Long.parseLong(text) : Instant.parse(text).getMillis();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Parameter " + NOW + " must be epoch millis or an instant but was ["
+                    + value + "]", e);
+        }
+    }
+
+    public Instant instant(String name) {
+        Object value = required(name);
+        try {
+            return Instant.parse(value.toString());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be an instant but was [" + value + "]", e);
+        }
+    }
+
+    /**
+     * Returns a parameter that can't be negative, or {@code defaultValue} if it is missing.
+     */
+    public int count(String name, int defaultValue) {
+        Object value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int count;
+        try {
+            count = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number but was [" + value + "]", e);
+        }
+        if (count < 0)
+            throw new IllegalArgumentException("Parameter " + name + " can not be negative");
+
+        return count;
+    }
+
+    /**
+     * Returns a number of days given as a time value such as {@code 7d} or as a number, or {@code defaultValue}, which
+     * makes the parameter required when {@code null}.
+     */
+    public long duration(String name, String defaultValue) {
+        Object value = params.get(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        String text = value != null ? value.toString() : defaultValue;
+        if (Strings.isNullOrEmpty(text))
+            throw new IllegalArgumentException("Parameter " + name + " can not be null or empty");
+
+        try {
+            return TimeValue.parseTimeValue(text, name).days();
+        } catch (ElasticsearchParseException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number of days but was [" + text + "]", e);
+        }
+    }
+
+    public double decimal(String name, double defaultValue) {
+        Object value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number but was [" + value + "]", e);
+        }
+    }
+
+    public String string(String name, String defaultValue) {
+        Object value = params.get(name);
+        return value != null ? value.toString() : defaultValue;
+    }
+
+    private Object required(String name) {
+        Object value = params.get(name);
+        if (value == null || Strings.isNullOrEmpty(value.toString()))
+            throw new IllegalArgumentException("Parameter " + name + " can not be null or empty");
+
+        return value;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReader;
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCache;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+
+import java.io.IOException;
+
+/**
+ * What the scripts of a node evaluate with: its caches and the iterator steps an evaluation may take. Handed by the
+ * engine to every factory.
+ */
+public final class ScriptResources {
+
+    private final long maxIteratorSteps;
+    private final RecurrenceRuleCache ruleCache;
+    private final RecurringFilterCache filterCache;
+
+    ScriptResources(long maxIteratorSteps, RecurrenceRuleCache ruleCache, RecurringFilterCache filterCache) {
+        this.maxIteratorSteps = maxIteratorSteps;
+        this.ruleCache = ruleCache;
+        this.filterCache = filterCache;
+    }
+
+    /**
+     * Returns new doc values of {@code field} in the segment of {@code reader}.
+     */
+    RecurringDocValues docValues(LeafReader reader, String field) throws IOException {
+        return new RecurringDocValues(reader, field, ruleCache, maxIteratorSteps);
+    }
+
+    RecurringFilterCache filterCache() {
+        return filterCache;
+    }
+}
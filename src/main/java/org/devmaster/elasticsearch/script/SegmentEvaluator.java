@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import com.carrotsearch.hppc.LongDoubleHashMap;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.monitor.RecurringMetrics;
+import org.devmaster.elasticsearch.monitor.ScriptMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.ParseException;
+import java.util.function.BiFunction;
+
+/**
+ * Runs a script on the documents of a segment for the script bases: reads the recurring field, computes the result
+ * once for each rule key of the segment, records the script's metrics and wraps the failures in the exception of the
+ * script context.
+ */
+final class SegmentEvaluator {
+
+    @FunctionalInterface
+    interface DoubleEvaluation {
+        double run(Recurring recurring) throws ParseException;
+    }
+
+    @FunctionalInterface
+    interface Evaluation {
+        Object run(Recurring recurring) throws ParseException;
+    }
+
+    private final RecurringDocValues values;
+    private final String name;
+    private final BiFunction<String, ParseException, RuntimeException> failure;
+    private final ScriptMetrics metrics;
+    private DocIdSetIterator documents;
+    private LongDoubleHashMap doubles;
+    private LongObjectHashMap<Object> objects;
+
+    /**
+     * Evaluates the script {@code name} on {@code values}, turning parse failures into {@code failure}.
+     */
+    SegmentEvaluator(RecurringDocValues values, String name,
+                     BiFunction<String, ParseException, RuntimeException> failure) throws IOException {
+        this.values = values;
+        this.name = name;
+        this.failure = failure;
+        this.metrics = RecurringMetrics.instance().script(name);
+        this.documents = values.documents();
+    }
+
+    /**
+     * Returns the result of {@code evaluation} for {@code doc}, or {@code missing} if it has no value in the field.
+     */
+    double evaluate(int doc, double missing, DoubleEvaluation evaluation) {
+        metrics.onInvocation();
+        try {
+            if (!hasValue(doc)) {
+                return missing;
+            }
+            Recurring recurring = values.get(doc);
+            long key = values.ruleKey();
+            if (key == RecurringDocValues.NO_KEY) {
+                return runDouble(recurring, evaluation);
+            }
+            if (doubles == null) {
+                doubles = new LongDoubleHashMap();
+            }
+            int index = doubles.indexOf(key);
+            if (doubles.indexExists(index)) {
+                return doubles.indexGet(index);
+            }
+            double result = runDouble(recurring, evaluation);
+            if (doubles.size() < RecurringDocValues.MAX_MEMOIZED_RESULTS) {
+                doubles.indexInsert(index, key, result);
+            }
+            return result;
+        } catch (ParseException | IOException | RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Returns the result of {@code evaluation} for {@code doc}, which is also evaluated without a value in the field.
+     */
+    Object evaluate(int doc, Evaluation evaluation) {
+        metrics.onInvocation();
+        try {
+            Recurring recurring = values.get(doc);
+            long key = values.ruleKey();
+            if (key == RecurringDocValues.NO_KEY) {
+                return run(recurring, evaluation);
+            }
+            if (objects == null) {
+                objects = new LongObjectHashMap<>();
+            }
+            int index = objects.indexOf(key);
+            if (objects.indexExists(index)) {
+                return objects.indexGet(index);
+            }
+            Object result = run(recurring, evaluation);
+            if (objects.size() < RecurringDocValues.MAX_MEMOIZED_RESULTS) {
+                objects.indexInsert(index, key, result);
+            }
+            return result;
+        } catch (ParseException | IOException | RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Returns the values of {@code doc}, in an instance that is reused for every document of the segment.
+     */
+    Recurring get(int doc) {
+        try {
+            return values.get(doc);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private RuntimeException failed(Exception e) {
+        metrics.onFailure();
+        if (e instanceof ParseException) {
+            return failure.apply(name, (ParseException) e);
+        }
+        if (e instanceof IOException) {
+            return new UncheckedIOException((IOException) e);
+        }
+        return (RuntimeException) e;
+    }
+
+    // documents are visited in order, unless fetched again
+    private boolean hasValue(int doc) throws IOException {
+        if (documents.docID() > doc) {
+            documents = values.documents();
+        }
+        if (documents.docID() < doc) {
+            documents.advance(doc);
+        }
+        return documents.docID() == doc;
+    }
+
+    private double runDouble(Recurring recurring, DoubleEvaluation evaluation) throws ParseException {
+        long steps = recurring.getIteratorSteps();
+        long startTime = System.nanoTime();
+        double result = evaluation.run(recurring);
+        metrics.onEvaluation(System.nanoTime() - startTime, recurring.getIteratorSteps() - steps,
+                recurring.isBudgetExceeded());
+        return result;
+    }
+
+    private Object run(Recurring recurring, Evaluation evaluation) throws ParseException {
+        long steps = recurring.getIteratorSteps();
+        long startTime = System.nanoTime();
+        Object result = evaluation.run(recurring);
+        metrics.onEvaluation(System.nanoTime() - startTime, recurring.getIteratorSteps() - steps,
+                recurring.isBudgetExceeded());
+        return result;
+    }
+}
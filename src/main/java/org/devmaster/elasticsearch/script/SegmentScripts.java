@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.script;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.devmaster.elasticsearch.Recurring;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Creates the scripts of a request for the score, sort and field script bases, which extend the classes of different
+ * script contexts and can't share a superclass: the field and the parameters are resolved once per request, and each
+ * script of a segment is bound to a {@link SegmentEvaluator} of its own.
+ */
+final class SegmentScripts<T> {
+
+    /**
+     * Creates the script of a segment, usually a reference to the script's constructor.
+     */
+    @FunctionalInterface
+    interface Constructor<T> {
+        T create(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext);
+    }
+
+    /**
+     * The part of the script factories that doesn't depend on the script context.
+     */
+    abstract static class Factory<T> {
+
+        private final Constructor<T> constructor;
+        private final ScriptResources resources;
+
+        Factory(Constructor<T> constructor, ScriptResources resources) {
+            this.constructor = constructor;
+            this.resources = resources;
+        }
+
+        /**
+         * Parses and validates the parameters of the script, once per request. The result is handed to every
+         * script instance through its {@code parsedParams()}.
+         */
+        protected Object parse(ScriptParams params) {
+            return null;
+        }
+
+        final SegmentScripts<T> scripts(Map<String, Object> params, SearchLookup lookup) {
+            ScriptParams scriptParams = new ScriptParams(params);
+            return new SegmentScripts<>(params, lookup, constructor, scriptParams.field(), parse(scriptParams),
+                    resources);
+        }
+    }
+
+    private final Map<String, Object> params;
+    private final SearchLookup lookup;
+    private final Constructor<T> constructor;
+    private final String field;
+    private final Object parsedParams;
+    private final ScriptResources resources;
+
+    private SegmentScripts(Map<String, Object> params, SearchLookup lookup, Constructor<T> constructor, String field,
+                           Object parsedParams, ScriptResources resources) {
+        this.params = params;
+        this.lookup = lookup;
+        this.constructor = constructor;
+        this.field = field;
+        this.parsedParams = parsedParams;
+        this.resources = resources;
+    }
+
+    /**
+     * Creates the script of a segment, which has to be bound before it runs.
+     */
+    T newInstance(LeafReaderContext ctx) {
+        return constructor.create(params, lookup, ctx);
+    }
+
+    /**
+     * Returns what the script {@code name} of a segment evaluates documents with, turning parse failures into
+     * {@code failure}.
+     */
+    Binding bind(LeafReaderContext ctx, String name, BiFunction<String, ParseException, RuntimeException> failure)
+            throws IOException {
+        return new Binding(new SegmentEvaluator(resources.docValues(ctx.reader(), field), name, failure), parsedParams);
+    }
+
+    /**
+     * The evaluator, parsed parameters and current document of a script.
+     */
+    static final class Binding {
+
+        private final SegmentEvaluator evaluator;
+        private final Object parsedParams;
+        private int docId;
+
+        private Binding(SegmentEvaluator evaluator, Object parsedParams) {
+            this.evaluator = evaluator;
+            this.parsedParams = parsedParams;
+        }
+
+        void setDocument(int docId) {
+            this.docId = docId;
+        }
+
+        double evaluate(double missing, SegmentEvaluator.DoubleEvaluation evaluation) {
+            return evaluator.evaluate(docId, missing, evaluation);
+        }
+
+        Object evaluate(SegmentEvaluator.Evaluation evaluation) {
+            return evaluator.evaluate(docId, evaluation);
+        }
+
+        Recurring get() {
+            return evaluator.get(docId);
+        }
+
+        @SuppressWarnings("unchecked")
+        <P> P parsedParams() {
+            return (P) parsedParams;
+        }
+    }
+}
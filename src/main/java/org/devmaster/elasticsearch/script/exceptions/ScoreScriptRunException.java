@@ -14,11 +14,9 @@
 
 package org.devmaster.elasticsearch.script.exceptions;
 
-import org.devmaster.elasticsearch.script.AbstractFieldScript;
+public class ScoreScriptRunException extends RuntimeException {
 
-public class FieldScriptCreationException extends RuntimeException {
-
-    public FieldScriptCreationException(Class<? extends AbstractFieldScript> cls, Throwable cause) {
-        super("Failed on create field script [" + cls.getName() + "]", cause);
+    public ScoreScriptRunException(String name, Throwable cause) {
+        super("Failed on run score script [" + name + "]", cause);
     }
 }
@@ -14,11 +14,9 @@
 
 package org.devmaster.elasticsearch.script.exceptions;
 
-import org.devmaster.elasticsearch.script.AbstractFilterScript;
+public class SortScriptRunException extends RuntimeException {
 
-public class FilterScriptCreationException extends RuntimeException {
-
-    public FilterScriptCreationException(Class<? extends AbstractFilterScript> cls, Throwable cause) {
-        super("Failed on create filter script [" + cls.getName() + "]", cause);
+    public SortScriptRunException(String name, Throwable cause) {
+        super("Failed on run sort script [" + name + "]", cause);
     }
 }
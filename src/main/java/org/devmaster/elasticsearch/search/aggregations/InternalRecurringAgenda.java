@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import org.devmaster.elasticsearch.EpochDays;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A page of occurrences ordered by date and document id, with the {@code after} key of the next page when it may
+ * have any occurrence.
+ */
+public class InternalRecurringAgenda extends InternalAggregation {
+
+    public static class Occurrence implements Writeable, ToXContentObject {
+
+        static final Comparator<Occurrence> ORDER = Comparator.comparingLong((Occurrence o) -> o.day).thenComparing(o -> o.id);
+
+        private final long day;
+        private final String id;
+
+        public Occurrence(long day, String id) {
+            this.day = day;
+            this.id = id;
+        }
+
+        Occurrence(StreamInput in) throws IOException {
+            this.day = in.readZLong();
+            this.id = in.readString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeZLong(day);
+            out.writeString(id);
+        }
+
+        /**
+         * Returns the day of the occurrence, formatted as yyyy-MM-dd.
+         */
+        public String getDate() {
+            return EpochDays.toLocalDate(day).toString();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field(RecurringAgendaAggregationBuilder.DATE_FIELD.getPreferredName(), getDate());
+            builder.field(RecurringAgendaAggregationBuilder.ID_FIELD.getPreferredName(), id);
+            return builder.endObject();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            Occurrence other = (Occurrence) obj;
+            return day == other.day && Objects.equals(id, other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(day, id);
+        }
+    }
+
+    private final List<Occurrence> occurrences;
+    private final int size;
+
+    InternalRecurringAgenda(String name, List<Occurrence> occurrences, int size,
+                            List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.occurrences = occurrences;
+        this.size = size;
+    }
+
+    public InternalRecurringAgenda(StreamInput in) throws IOException {
+        super(in);
+        occurrences = in.readList(Occurrence::new);
+        size = in.readVInt();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeList(occurrences);
+        out.writeVInt(size);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return RecurringAgendaAggregationBuilder.NAME;
+    }
+
+    public List<Occurrence> getOccurrences() {
+        return occurrences;
+    }
+
+    /**
+     * Returns the last occurrence of a full page, to be passed as {@code after} to get the next one, or {@code null}
+     * if there is no next page.
+     */
+    public Occurrence afterKey() {
+        return occurrences.size() == size ? occurrences.get(occurrences.size() - 1) : null;
+    }
+
+    @Override
+    public InternalAggregation reduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        List<Occurrence> merged = new ArrayList<>();
+        for (InternalAggregation aggregation : aggregations) {
+            merged.addAll(((InternalRecurringAgenda) aggregation).occurrences);
+        }
+        merged.sort(Occurrence.ORDER);
+        List<Occurrence> page = new ArrayList<>(merged.subList(0, Math.min(size, merged.size())));
+        return new InternalRecurringAgenda(name, page, size, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    public Object getProperty(List<String> path) {
+        if (path.isEmpty()) {
+            return this;
+        }
+        throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray("occurrences");
+        for (Occurrence occurrence : occurrences) {
+            occurrence.toXContent(builder, params);
+        }
+        builder.endArray();
+        Occurrence after = afterKey();
+        if (after != null) {
+            builder.field(RecurringAgendaAggregationBuilder.AFTER_FIELD.getPreferredName(), after);
+        }
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        if (!super.equals(obj)) return false;
+        InternalRecurringAgenda other = (InternalRecurringAgenda) obj;
+        return size == other.size && Objects.equals(occurrences, other.occurrences);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), occurrences, size);
+    }
+}
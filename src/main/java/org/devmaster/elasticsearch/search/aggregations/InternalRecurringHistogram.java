@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import com.carrotsearch.hppc.LongObjectHashMap;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.aggregations.InternalMultiBucketAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Result of a {@link RecurringHistogramAggregationBuilder}: buckets ordered by key, counting occurrences.
+ */
+public class InternalRecurringHistogram
+        extends InternalMultiBucketAggregation<InternalRecurringHistogram, InternalRecurringHistogram.Bucket> {
+
+    public static class Bucket extends InternalMultiBucketAggregation.InternalBucket {
+
+        private final long key;
+        private final long docCount;
+        private final InternalAggregations aggregations;
+        private final transient DocValueFormat format;
+
+        public Bucket(long key, long docCount, DocValueFormat format, InternalAggregations aggregations) {
+            this.key = key;
+            this.docCount = docCount;
+            this.format = format;
+            this.aggregations = aggregations;
+        }
+
+        Bucket(StreamInput in, DocValueFormat format) throws IOException {
+            this.format = format;
+            this.key = in.readLong();
+            this.docCount = in.readVLong();
+            this.aggregations = new InternalAggregations(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeLong(key);
+            out.writeVLong(docCount);
+            aggregations.writeTo(out);
+        }
+
+        @Override
+        public Object getKey() {
+            return ZonedDateTime.ofInstant(Instant.ofEpochMilli(key), ZoneOffset.UTC);
+        }
+
+        @Override
+        public String getKeyAsString() {
+            return format.format(key).toString();
+        }
+
+        /**
+         * Returns the number of occurrences in this bucket.
+         */
+        @Override
+        public long getDocCount() {
+            return docCount;
+        }
+
+        @Override
+        public Aggregations getAggregations() {
+            return aggregations;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field(CommonFields.KEY_AS_STRING.getPreferredName(), getKeyAsString());
+            builder.field(CommonFields.KEY.getPreferredName(), key);
+            builder.field(CommonFields.DOC_COUNT.getPreferredName(), docCount);
+            aggregations.toXContentInternal(builder, params);
+            return builder.endObject();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            Bucket other = (Bucket) obj;
+            return key == other.key
+                    && docCount == other.docCount
+                    && Objects.equals(aggregations, other.aggregations);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, docCount, aggregations);
+        }
+    }
+
+    private final List<Bucket> buckets;
+    private final DocValueFormat format;
+
+    InternalRecurringHistogram(String name, List<Bucket> buckets, DocValueFormat format,
+                               List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.buckets = buckets;
+        this.format = format;
+    }
+
+    public InternalRecurringHistogram(StreamInput in) throws IOException {
+        super(in);
+        format = in.readNamedWriteable(DocValueFormat.class);
+        buckets = in.readList(stream -> new Bucket(stream, format));
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeNamedWriteable(format);
+        out.writeList(buckets);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return RecurringHistogramAggregationBuilder.NAME;
+    }
+
+    @Override
+    public InternalRecurringHistogram create(List<Bucket> buckets) {
+        return new InternalRecurringHistogram(name, buckets, format, pipelineAggregators(), metaData);
+    }
+
+    @Override
+    public Bucket createBucket(InternalAggregations aggregations, Bucket prototype) {
+        return new Bucket(prototype.key, prototype.docCount, format, aggregations);
+    }
+
+    @Override
+    protected Bucket reduceBucket(List<Bucket> buckets, ReduceContext context) {
+        long docCount = 0;
+        List<InternalAggregations> aggregations = new ArrayList<>(buckets.size());
+        for (Bucket bucket : buckets) {
+            docCount += bucket.docCount;
+            aggregations.add(bucket.aggregations);
+        }
+        return new Bucket(buckets.get(0).key, docCount, format, InternalAggregations.reduce(aggregations, context));
+    }
+
+    @Override
+    public List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public InternalAggregation reduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        LongObjectHashMap<List<Bucket>> bucketsByKey = new LongObjectHashMap<>();
+        for (InternalAggregation aggregation : aggregations) {
+            for (Bucket bucket : ((InternalRecurringHistogram) aggregation).buckets) {
+                List<Bucket> sameKey = bucketsByKey.get(bucket.key);
+                if (sameKey == null) {
+                    sameKey = new ArrayList<>(aggregations.size());
+                    bucketsByKey.put(bucket.key, sameKey);
+                }
+                sameKey.add(bucket);
+            }
+        }
+        long[] keys = bucketsByKey.keys().toArray();
+        Arrays.sort(keys);
+        List<Bucket> reduced = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            reduced.add(reduceBucket(bucketsByKey.get(key), reduceContext));
+        }
+        reduceContext.consumeBucketsAndMaybeBreak(reduced.size());
+        return create(reduced);
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray(CommonFields.BUCKETS.getPreferredName());
+        for (Bucket bucket : buckets) {
+            bucket.toXContent(builder, params);
+        }
+        return builder.endArray();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        if (!super.equals(obj)) return false;
+        InternalRecurringHistogram other = (InternalRecurringHistogram) obj;
+        return Objects.equals(buckets, other.buckets)
+                && Objects.equals(format, other.format);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), buckets, format);
+    }
+}
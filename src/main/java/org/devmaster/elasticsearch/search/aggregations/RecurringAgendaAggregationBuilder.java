@@ -0,0 +1,277 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+
+public class RecurringAgendaAggregationBuilder extends AbstractAggregationBuilder<RecurringAgendaAggregationBuilder> {
+
+    public static final String NAME = "recurring_agenda";
+
+    public static final int DEFAULT_SIZE = 10;
+    public static final int MAX_SIZE = 10_000;
+
+    public static final ParseField FIELD_FIELD = new ParseField("field");
+    public static final ParseField FROM_FIELD = new ParseField("from");
+    public static final ParseField TO_FIELD = new ParseField("to");
+    public static final ParseField SIZE_FIELD = new ParseField("size");
+    public static final ParseField AFTER_FIELD = new ParseField("after");
+    public static final ParseField DATE_FIELD = new ParseField("date");
+    public static final ParseField ID_FIELD = new ParseField("id");
+
+    private String field;
+    private String from;
+    private String to;
+    private int size = DEFAULT_SIZE;
+    private String afterDate;
+    private String afterId;
+
+    public RecurringAgendaAggregationBuilder(String name) {
+        super(name);
+    }
+
+    protected RecurringAgendaAggregationBuilder(RecurringAgendaAggregationBuilder clone,
+                                                AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+        super(clone, factoriesBuilder, metaData);
+        this.field = clone.field;
+        this.from = clone.from;
+        this.to = clone.to;
+        this.size = clone.size;
+        this.afterDate = clone.afterDate;
+        this.afterId = clone.afterId;
+    }
+
+    public RecurringAgendaAggregationBuilder(StreamInput in) throws IOException {
+        super(in);
+        field = in.readString();
+        from = in.readString();
+        to = in.readString();
+        size = in.readVInt();
+        afterDate = in.readOptionalString();
+        afterId = in.readOptionalString();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeString(from);
+        out.writeString(to);
+        out.writeVInt(size);
+        out.writeOptionalString(afterDate);
+        out.writeOptionalString(afterId);
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public RecurringAgendaAggregationBuilder field(String field) {
+        if (Strings.isEmpty(field)) {
+            throw new IllegalArgumentException("[" + FIELD_FIELD.getPreferredName() + "] must not be null or empty: [" + name + "]");
+        }
+        this.field = field;
+        return this;
+    }
+
+    public String from() {
+        return from;
+    }
+
+    public RecurringAgendaAggregationBuilder from(String from) {
+        this.from = from;
+        return this;
+    }
+
+    public String to() {
+        return to;
+    }
+
+    public RecurringAgendaAggregationBuilder to(String to) {
+        this.to = to;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public RecurringAgendaAggregationBuilder size(int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("[" + SIZE_FIELD.getPreferredName() + "] must be between 1 and "
+                    + MAX_SIZE + ": [" + name + "]");
+        }
+        this.size = size;
+        return this;
+    }
+
+    public String afterDate() {
+        return afterDate;
+    }
+
+    public String afterId() {
+        return afterId;
+    }
+
+    /**
+     * Starts the page right after the occurrence on {@code date} of the document {@code id}, which is the
+     * {@code after} key of the previous page.
+     */
+    public RecurringAgendaAggregationBuilder after(String date, String id) {
+        if (date == null || id == null) {
+            throw new IllegalArgumentException("[" + AFTER_FIELD.getPreferredName() + "] requires a date and an id: ["
+                    + name + "]");
+        }
+        this.afterDate = date;
+        this.afterId = id;
+        return this;
+    }
+
+    @Override
+    protected AggregationBuilder shallowCopy(AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+        return new RecurringAgendaAggregationBuilder(this, factoriesBuilder, metaData);
+    }
+
+    @Override
+    protected AggregatorFactory doBuild(QueryShardContext queryShardContext, AggregatorFactory parent,
+                                        AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+        if (!subFactoriesBuilder.getAggregatorFactories().isEmpty()) {
+            throw new IllegalArgumentException("[" + NAME + "] aggregation [" + name + "] does not support sub aggregations");
+        }
+
+        MappedFieldType fieldType = queryShardContext.fieldMapper(field);
+        if (fieldType == null) {
+            // unmapped on this index, nothing occurs
+            return new RecurringAgendaAggregatorFactory(name, queryShardContext, parent, subFactoriesBuilder, metaData,
+                    null, null, 0, -1, size, 0, null);
+        }
+        if (!(fieldType instanceof RecurringFieldMapper.RecurringFieldType)) {
+            throw new IllegalArgumentException("field [" + field + "] is of type [" + fieldType.typeName()
+                    + "], but [" + NAME + "] only supports [" + RecurringFieldMapper.CONTENT_TYPE + "] fields");
+        }
+        RecurringFieldMapper.RecurringFieldType recurringFieldType = (RecurringFieldMapper.RecurringFieldType) fieldType;
+        long fromDay = recurringFieldType.parseDay(from, false, queryShardContext);
+        long toDay = recurringFieldType.parseDay(to, true, queryShardContext);
+        long afterDay = afterDate != null ? recurringFieldType.parseDay(afterDate, false, queryShardContext) : fromDay;
+        return new RecurringAgendaAggregatorFactory(name, queryShardContext, parent, subFactoriesBuilder, metaData,
+                field, recurringFieldType.ruleCache(), fromDay, toDay, size, afterDay, afterId);
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(FIELD_FIELD.getPreferredName(), field);
+        builder.field(FROM_FIELD.getPreferredName(), from);
+        builder.field(TO_FIELD.getPreferredName(), to);
+        builder.field(SIZE_FIELD.getPreferredName(), size);
+        if (afterDate != null) {
+            builder.startObject(AFTER_FIELD.getPreferredName());
+            builder.field(DATE_FIELD.getPreferredName(), afterDate);
+            builder.field(ID_FIELD.getPreferredName(), afterId);
+            builder.endObject();
+        }
+        return builder.endObject();
+    }
+
+    public static RecurringAgendaAggregationBuilder parse(String aggregationName, XContentParser parser) throws IOException {
+        RecurringAgendaAggregationBuilder builder = new RecurringAgendaAggregationBuilder(aggregationName);
+
+        XContentParser.Token token;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.field(parser.text());
+                } else if (FROM_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.from(parser.text());
+                } else if (TO_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.to(parser.text());
+                } else if (SIZE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.size(parser.intValue());
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                            "] aggregation does not support [" + currentFieldName + "]");
+                }
+            } else if (token == XContentParser.Token.START_OBJECT
+                    && AFTER_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                String date = null;
+                String id = null;
+                while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                    if (token == XContentParser.Token.FIELD_NAME) {
+                        currentFieldName = parser.currentName();
+                    } else if (token.isValue() && DATE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                        date = parser.text();
+                    } else if (token.isValue() && ID_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                        id = parser.text();
+                    } else {
+                        throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] [" +
+                                AFTER_FIELD.getPreferredName() + "] does not support [" + currentFieldName + "]");
+                    }
+                }
+                builder.after(date, id);
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                        "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+
+        if (builder.field == null || builder.from == null || builder.to == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [field], [from] and [to]");
+        }
+        return builder;
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), field, from, to, size, afterDate, afterId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        if (!super.equals(obj)) return false;
+        RecurringAgendaAggregationBuilder other = (RecurringAgendaAggregationBuilder) obj;
+        return Objects.equals(field, other.field)
+                && Objects.equals(from, other.from)
+                && Objects.equals(to, other.to)
+                && size == other.size
+                && Objects.equals(afterDate, other.afterDate)
+                && Objects.equals(afterId, other.afterId);
+    }
+}
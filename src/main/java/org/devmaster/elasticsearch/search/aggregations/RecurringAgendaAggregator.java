@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.OccurrenceIterator;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.index.mapper.IdFieldMapper;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorBase;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the occurrences of the collected documents in (date, id) order. Only the documents whose first occurrence
+ * after the cursor is among the {@code size} smallest can be part of the page, so at most {@code size} documents are
+ * kept while collecting, and their occurrences are only expanded as the page is filled.
+ * <p>
+ * No document occurs before its start date or the earliest RDATE of its rule, read before anything else: once
+ * {@code size} documents are kept, the ones whose earliest day is after the last of them are skipped without
+ * evaluating their rule. On segments sorted by start date and without RDATE lines, no later document can do better
+ * either, so collection of the segment ends there.
+ */
+class RecurringAgendaAggregator extends AggregatorBase {
+
+    private final String field;
+    private final RecurrenceRuleCache ruleCache;
+    private final long from;
+    private final long to;
+    private final int size;
+    private final long afterDay;
+    private final String afterId;
+
+    private final Comparator<Entry> order = Comparator.comparingLong((Entry entry) -> entry.occurrences.day())
+            .thenComparing(Entry::id);
+    // the largest first occurrence kept is on top, to be replaced by smaller ones
+    private final PriorityQueue<Entry> candidates;
+
+    RecurringAgendaAggregator(String name, AggregatorFactories factories, SearchContext context, Aggregator parent,
+                              List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData,
+                              String field, RecurrenceRuleCache ruleCache, long from, long to, int size, long afterDay,
+                              String afterId) throws IOException {
+        super(name, factories, context, parent, pipelineAggregators, metaData);
+        this.field = field;
+        this.ruleCache = ruleCache;
+        this.from = Math.max(from, afterDay);
+        this.to = to;
+        this.size = size;
+        this.afterDay = afterDay;
+        this.afterId = afterId;
+        this.candidates = new PriorityQueue<>(size, order.reversed());
+    }
+
+    @Override
+    protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        if (field == null || from > to) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        RecurringDocValues values = new RecurringDocValues(ctx.reader(), field, ruleCache);
+        SortedNumericDocValues starts = values.startDates();
+        // terminating a sub aggregation would stop the other buckets of its parent too
+        boolean sortedByStart = parent == null && isSortedByStart(ctx.reader());
+        return new LeafBucketCollectorBase(sub, null) {
+
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                assert bucket == 0;
+                if (starts.docID() < doc) {
+                    starts.advance(doc);
+                }
+                if (starts.docID() != doc) {
+                    return;
+                }
+                // the start date is cheaper to read, only an earlier RDATE can keep a document it skips
+                if (skip(EpochDays.fromMillis(starts.nextValue())) && skip(values.get(doc).getEarliestDay())) {
+                    if (sortedByStart && !values.hasRdates()) {
+                        throw new CollectionTerminatedException();
+                    }
+                    return;
+                }
+                Recurring recurring = values.get(doc);
+                OccurrenceIterator occurrences;
+                try {
+                    occurrences = recurring.occurrences(from, to);
+                } catch (ParseException e) {
+                    throw new ElasticsearchParseException("failed to parse rrule [{}]", e, recurring.getRrule());
+                }
+                Entry entry = new Entry(occurrences, ctx.reader(), doc);
+                if (afterId != null && occurrences.day() == afterDay && entry.id().compareTo(afterId) <= 0) {
+                    nextOccurrence(entry);
+                }
+                if (occurrences.day() == OccurrenceIterator.NO_MORE_OCCURRENCES) {
+                    return;
+                }
+                if (candidates.size() < size) {
+                    candidates.add(entry);
+                } else if (order.compare(entry, candidates.peek()) < 0) {
+                    candidates.poll();
+                    candidates.add(entry);
+                }
+            }
+        };
+    }
+
+    // no occurrence from the given day on can be part of the page
+    private boolean skip(long earliest) {
+        earliest = Math.max(from, earliest);
+        return earliest > to || (candidates.size() == size && earliest > candidates.peek().occurrences.day());
+    }
+
+    private boolean isSortedByStart(LeafReader reader) {
+        Sort sort = reader.getMetaData().getSort();
+        if (sort == null) {
+            return false;
+        }
+        SortField first = sort.getSort()[0];
+        return !first.getReverse()
+                && (field + "." + RecurringFieldMapper.FieldNames.START_DATE).equals(first.getField());
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long owningBucketOrdinal) {
+        assert owningBucketOrdinal == 0;
+        PriorityQueue<Entry> queue = new PriorityQueue<>(Math.max(1, candidates.size()), order);
+        queue.addAll(candidates);
+        List<InternalRecurringAgenda.Occurrence> page = new ArrayList<>(Math.min(size, 16));
+        while (page.size() < size && !queue.isEmpty()) {
+            Entry entry = queue.poll();
+            page.add(new InternalRecurringAgenda.Occurrence(entry.occurrences.day(), entry.id()));
+            if (nextOccurrence(entry) != OccurrenceIterator.NO_MORE_OCCURRENCES) {
+                queue.add(entry);
+            }
+        }
+        return new InternalRecurringAgenda(name, page, size, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalRecurringAgenda(name, Collections.emptyList(), size, pipelineAggregators(), metaData());
+    }
+
+    private static long nextOccurrence(Entry entry) {
+        try {
+            return entry.occurrences.nextOccurrence();
+        } catch (ParseException e) {
+            throw new ElasticsearchParseException("failed to parse rrule of [{}]", e, entry.id());
+        }
+    }
+
+    private static final class Entry {
+
+        final OccurrenceIterator occurrences;
+        final LeafReader reader;
+        final int doc;
+        // loaded when the order of two documents occurring on the same day is needed
+        private String id;
+
+        Entry(OccurrenceIterator occurrences, LeafReader reader, int doc) {
+            this.occurrences = occurrences;
+            this.reader = reader;
+            this.doc = doc;
+        }
+
+        String id() {
+            if (id == null) {
+                IdVisitor visitor = new IdVisitor();
+                try {
+                    reader.document(doc, visitor);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                id = visitor.id;
+            }
+            return id;
+        }
+    }
+
+    private static final class IdVisitor extends StoredFieldVisitor {
+
+        private String id;
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (IdFieldMapper.NAME.equals(fieldInfo.name)) {
+                return Status.YES;
+            }
+            return id != null ? Status.STOP : Status.NO;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            id = Uid.decodeId(value);
+        }
+    }
+}
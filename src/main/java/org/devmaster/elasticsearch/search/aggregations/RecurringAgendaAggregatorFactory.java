@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+class RecurringAgendaAggregatorFactory extends AggregatorFactory {
+
+    private final String field;
+    private final RecurrenceRuleCache ruleCache;
+    private final long from;
+    private final long to;
+    private final int size;
+    private final long afterDay;
+    private final String afterId;
+
+    RecurringAgendaAggregatorFactory(String name, QueryShardContext queryShardContext, AggregatorFactory parent,
+                                     AggregatorFactories.Builder subFactoriesBuilder, Map<String, Object> metaData,
+                                     String field, RecurrenceRuleCache ruleCache, long from, long to, int size,
+                                     long afterDay, String afterId)
+            throws IOException {
+        super(name, queryShardContext, parent, subFactoriesBuilder, metaData);
+        this.field = field;
+        this.ruleCache = ruleCache;
+        this.from = from;
+        this.to = to;
+        this.size = size;
+        this.afterDay = afterDay;
+        this.afterId = afterId;
+    }
+
+    @Override
+    protected Aggregator createInternal(SearchContext searchContext, Aggregator parent, boolean collectsFromSingleBucket,
+                                        List<PipelineAggregator> pipelineAggregators,
+                                        Map<String, Object> metaData) throws IOException {
+        if (!collectsFromSingleBucket) {
+            return asMultiBucketAggregator(this, searchContext, parent);
+        }
+        return new RecurringAgendaAggregator(name, factories, searchContext, parent, pipelineAggregators, metaData,
+                field, ruleCache, from, to, size, afterDay, afterId);
+    }
+}
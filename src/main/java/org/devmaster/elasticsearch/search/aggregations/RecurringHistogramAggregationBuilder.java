@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Rounding;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Counts the occurrences of a recurring field between {@code from} and {@code to}, both inclusive, per calendar
+ * interval. Every occurrence counts, so a daily event adds 7 to each weekly bucket.
+ */
+public class RecurringHistogramAggregationBuilder extends AbstractAggregationBuilder<RecurringHistogramAggregationBuilder> {
+
+    public static final String NAME = "recurring_histogram";
+
+    public static final ParseField FIELD_FIELD = new ParseField("field");
+    public static final ParseField FROM_FIELD = new ParseField("from");
+    public static final ParseField TO_FIELD = new ParseField("to");
+    public static final ParseField CALENDAR_INTERVAL_FIELD = new ParseField("calendar_interval");
+
+    private String field;
+    private String from;
+    private String to;
+    private String calendarInterval;
+
+    public RecurringHistogramAggregationBuilder(String name) {
+        super(name);
+    }
+
+    protected RecurringHistogramAggregationBuilder(RecurringHistogramAggregationBuilder clone,
+                                                   AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+        super(clone, factoriesBuilder, metaData);
+        this.field = clone.field;
+        this.from = clone.from;
+        this.to = clone.to;
+        this.calendarInterval = clone.calendarInterval;
+    }
+
+    public RecurringHistogramAggregationBuilder(StreamInput in) throws IOException {
+        super(in);
+        field = in.readString();
+        from = in.readString();
+        to = in.readString();
+        calendarInterval = in.readString();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeString(from);
+        out.writeString(to);
+        out.writeString(calendarInterval);
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public RecurringHistogramAggregationBuilder field(String field) {
+        if (Strings.isEmpty(field)) {
+            throw new IllegalArgumentException("[" + FIELD_FIELD.getPreferredName() + "] must not be null or empty: [" + name + "]");
+        }
+        this.field = field;
+        return this;
+    }
+
+    public String from() {
+        return from;
+    }
+
+    public RecurringHistogramAggregationBuilder from(String from) {
+        this.from = from;
+        return this;
+    }
+
+    public String to() {
+        return to;
+    }
+
+    public RecurringHistogramAggregationBuilder to(String to) {
+        this.to = to;
+        return this;
+    }
+
+    public String calendarInterval() {
+        return calendarInterval;
+    }
+
+    /**
+     * Sets the interval of the buckets, one of the calendar units of {@code date_histogram} such as {@code week} or
+     * {@code 1M}.
+     */
+    public RecurringHistogramAggregationBuilder calendarInterval(String calendarInterval) {
+        if (!DateHistogramAggregationBuilder.DATE_FIELD_UNITS.containsKey(calendarInterval)) {
+            throw new IllegalArgumentException("The supplied interval [" + calendarInterval + "] could not be parsed as a "
+                    + "calendar interval: [" + name + "]");
+        }
+        this.calendarInterval = calendarInterval;
+        return this;
+    }
+
+    @Override
+    protected AggregationBuilder shallowCopy(AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+        return new RecurringHistogramAggregationBuilder(this, factoriesBuilder, metaData);
+    }
+
+    @Override
+    protected AggregatorFactory doBuild(QueryShardContext queryShardContext, AggregatorFactory parent,
+                                        AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+        if (!subFactoriesBuilder.getAggregatorFactories().isEmpty()) {
+            throw new IllegalArgumentException("[" + NAME + "] aggregation [" + name + "] does not support sub aggregations");
+        }
+        Rounding rounding = Rounding.builder(DateHistogramAggregationBuilder.DATE_FIELD_UNITS.get(calendarInterval)).build();
+
+        MappedFieldType fieldType = queryShardContext.fieldMapper(field);
+        if (fieldType == null) {
+            // unmapped on this index, nothing to count
+            return new RecurringHistogramAggregatorFactory(name, queryShardContext, parent, subFactoriesBuilder, metaData,
+                    null, null, 0, -1, rounding);
+        }
+        if (!(fieldType instanceof RecurringFieldMapper.RecurringFieldType)) {
+            throw new IllegalArgumentException("field [" + field + "] is of type [" + fieldType.typeName()
+                    + "], but [" + NAME + "] only supports [" + RecurringFieldMapper.CONTENT_TYPE + "] fields");
+        }
+        RecurringFieldMapper.RecurringFieldType recurringFieldType = (RecurringFieldMapper.RecurringFieldType) fieldType;
+        long fromDay = recurringFieldType.parseDay(from, false, queryShardContext);
+        long toDay = recurringFieldType.parseDay(to, true, queryShardContext);
+        return new RecurringHistogramAggregatorFactory(name, queryShardContext, parent, subFactoriesBuilder, metaData,
+                field, recurringFieldType.ruleCache(), fromDay, toDay, rounding);
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(FIELD_FIELD.getPreferredName(), field);
+        builder.field(FROM_FIELD.getPreferredName(), from);
+        builder.field(TO_FIELD.getPreferredName(), to);
+        builder.field(CALENDAR_INTERVAL_FIELD.getPreferredName(), calendarInterval);
+        return builder.endObject();
+    }
+
+    public static RecurringHistogramAggregationBuilder parse(String aggregationName, XContentParser parser) throws IOException {
+        RecurringHistogramAggregationBuilder builder = new RecurringHistogramAggregationBuilder(aggregationName);
+
+        XContentParser.Token token;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.field(parser.text());
+                } else if (FROM_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.from(parser.text());
+                } else if (TO_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.to(parser.text());
+                } else if (CALENDAR_INTERVAL_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.calendarInterval(parser.text());
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                            "] aggregation does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                        "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+
+        if (builder.field == null || builder.from == null || builder.to == null || builder.calendarInterval == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [field], [from], [to] and ["
+                    + CALENDAR_INTERVAL_FIELD.getPreferredName() + "]");
+        }
+        return builder;
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), field, from, to, calendarInterval);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        if (!super.equals(obj)) return false;
+        RecurringHistogramAggregationBuilder other = (RecurringHistogramAggregationBuilder) obj;
+        return Objects.equals(field, other.field)
+                && Objects.equals(from, other.from)
+                && Objects.equals(to, other.to)
+                && Objects.equals(calendarInterval, other.calendarInterval);
+    }
+}
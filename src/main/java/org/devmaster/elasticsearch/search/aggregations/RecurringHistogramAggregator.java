@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import com.carrotsearch.hppc.LongLongHashMap;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.Rounding;
+import org.elasticsearch.common.time.DateFormatter;
+import org.elasticsearch.index.mapper.DateFieldMapper;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorBase;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Expands the occurrences of each document straight into bucket counters. Documents of a segment sharing a rule and a
+ * start date have the same occurrences, so their buckets are computed once and kept as runs of
+ * {@code (bucket key, count)} pairs. Buckets are counted against {@code search.max_buckets} as they are created, so a
+ * small interval over a long window fails before the counters take up the heap.
+ */
+class RecurringHistogramAggregator extends AggregatorBase {
+
+    static final DocValueFormat FORMAT = new DocValueFormat.DateTime(DateFormatter.forPattern("yyyy-MM-dd"),
+            ZoneOffset.UTC, DateFieldMapper.Resolution.MILLISECONDS);
+
+    // longs kept in memoized runs per segment at most
+    private static final int MAX_MEMOIZED_LONGS = 1 << 20;
+
+    private final String field;
+    private final RecurrenceRuleCache ruleCache;
+    private final long from;
+    private final long to;
+    private final Rounding rounding;
+    private final LongLongHashMap counts = new LongLongHashMap();
+    private final IntConsumer multiBucketConsumer;
+    // buckets already accounted for by the consumer
+    private int consumedBuckets;
+
+    // runs of the document being expanded
+    private long[] runs = new long[16];
+    private int runsLength;
+    private long bucketStart;
+    private long bucketEnd;
+    private final LongConsumer addOccurrence = this::addOccurrence;
+
+    RecurringHistogramAggregator(String name, AggregatorFactories factories, SearchContext context, Aggregator parent,
+                                 List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData,
+                                 String field, RecurrenceRuleCache ruleCache, long from, long to, Rounding rounding)
+            throws IOException {
+        super(name, factories, context, parent, pipelineAggregators, metaData);
+        this.field = field;
+        this.ruleCache = ruleCache;
+        this.from = from;
+        this.to = to;
+        this.rounding = rounding;
+        this.multiBucketConsumer = context.aggregations().multiBucketConsumer();
+    }
+
+    @Override
+    protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        if (field == null || from > to) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        RecurringDocValues values = new RecurringDocValues(ctx.reader(), field, ruleCache);
+        DocIdSetIterator docs = values.documents();
+        LongObjectHashMap<long[]> memo = new LongObjectHashMap<>();
+        return new LeafBucketCollectorBase(sub, null) {
+
+            private int memoizedLongs;
+
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                assert bucket == 0;
+                if (docs.docID() < doc) {
+                    docs.advance(doc);
+                }
+                if (docs.docID() != doc) {
+                    return;
+                }
+                Recurring recurring = values.get(doc);
+                long key = values.ruleKey();
+                long[] buckets = key != RecurringDocValues.NO_KEY ? memo.get(key) : null;
+                if (buckets == null) {
+                    buckets = expand(recurring);
+                    if (key != RecurringDocValues.NO_KEY && memo.size() < RecurringDocValues.MAX_MEMOIZED_RESULTS
+                            && memoizedLongs + buckets.length <= MAX_MEMOIZED_LONGS) {
+                        memo.put(key, buckets);
+                        memoizedLongs += buckets.length;
+                    }
+                }
+                for (int i = 0; i < buckets.length; i += 2) {
+                    counts.addTo(buckets[i], buckets[i + 1]);
+                }
+                if (counts.size() > consumedBuckets) {
+                    multiBucketConsumer.accept(counts.size() - consumedBuckets);
+                    consumedBuckets = counts.size();
+                }
+            }
+        };
+    }
+
+    private long[] expand(Recurring recurring) {
+        runsLength = 0;
+        bucketStart = Long.MAX_VALUE;
+        bucketEnd = Long.MIN_VALUE;
+        try {
+            recurring.forEachOccurrence(from, to, addOccurrence);
+        } catch (ParseException e) {
+            throw new ElasticsearchParseException("failed to parse rrule [{}]", e, recurring.getRrule());
+        }
+        return Arrays.copyOf(runs, runsLength);
+    }
+
+    // occurrences come in order, so each bucket is one run
+    private void addOccurrence(long day) {
+        long millis = EpochDays.toMillis(day);
+        if (millis >= bucketStart && millis < bucketEnd) {
+            runs[runsLength - 1]++;
+            return;
+        }
+        bucketStart = rounding.round(millis);
+        bucketEnd = rounding.nextRoundingValue(bucketStart);
+        if (runsLength + 2 > runs.length) {
+            runs = ArrayUtil.grow(runs, runsLength + 2);
+        }
+        runs[runsLength++] = bucketStart;
+        runs[runsLength++] = 1;
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long owningBucketOrdinal) {
+        assert owningBucketOrdinal == 0;
+        List<InternalRecurringHistogram.Bucket> buckets = new ArrayList<>(counts.size());
+        long[] keys = counts.keys().toArray();
+        Arrays.sort(keys);
+        for (long key : keys) {
+            buckets.add(new InternalRecurringHistogram.Bucket(key, counts.get(key), FORMAT, InternalAggregations.EMPTY));
+        }
+        return new InternalRecurringHistogram(name, buckets, FORMAT, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalRecurringHistogram(name, Collections.emptyList(), FORMAT, pipelineAggregators(), metaData());
+    }
+}
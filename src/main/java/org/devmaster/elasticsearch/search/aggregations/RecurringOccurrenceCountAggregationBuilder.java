@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import org.devmaster.elasticsearch.index.mapper.RecurringFieldMapper;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+
+public class RecurringOccurrenceCountAggregationBuilder
+        extends AbstractAggregationBuilder<RecurringOccurrenceCountAggregationBuilder> {
+
+    public static final String NAME = "recurring_occurrence_count";
+
+    public static final ParseField FIELD_FIELD = new ParseField("field");
+    public static final ParseField FROM_FIELD = new ParseField("from");
+    public static final ParseField TO_FIELD = new ParseField("to");
+
+    private String field;
+    private String from;
+    private String to;
+
+    public RecurringOccurrenceCountAggregationBuilder(String name) {
+        super(name);
+    }
+
+    protected RecurringOccurrenceCountAggregationBuilder(RecurringOccurrenceCountAggregationBuilder clone,
+                                                         AggregatorFactories.Builder factoriesBuilder,
+                                                         Map<String, Object> metaData) {
+        super(clone, factoriesBuilder, metaData);
+        this.field = clone.field;
+        this.from = clone.from;
+        this.to = clone.to;
+    }
+
+    public RecurringOccurrenceCountAggregationBuilder(StreamInput in) throws IOException {
+        super(in);
+        field = in.readString();
+        from = in.readString();
+        to = in.readString();
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeString(field);
+        out.writeString(from);
+        out.writeString(to);
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public RecurringOccurrenceCountAggregationBuilder field(String field) {
+        if (Strings.isEmpty(field)) {
+            throw new IllegalArgumentException("[" + FIELD_FIELD.getPreferredName() + "] must not be null or empty: [" + name + "]");
+        }
+        this.field = field;
+        return this;
+    }
+
+    public String from() {
+        return from;
+    }
+
+    public RecurringOccurrenceCountAggregationBuilder from(String from) {
+        this.from = from;
+        return this;
+    }
+
+    public String to() {
+        return to;
+    }
+
+    public RecurringOccurrenceCountAggregationBuilder to(String to) {
+        this.to = to;
+        return this;
+    }
+
+    @Override
+    protected AggregationBuilder shallowCopy(AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+        return new RecurringOccurrenceCountAggregationBuilder(this, factoriesBuilder, metaData);
+    }
+
+    @Override
+    protected AggregatorFactory doBuild(QueryShardContext queryShardContext, AggregatorFactory parent,
+                                        AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+        if (!subFactoriesBuilder.getAggregatorFactories().isEmpty()) {
+            throw new IllegalArgumentException("[" + NAME + "] aggregation [" + name + "] does not support sub aggregations");
+        }
+
+        MappedFieldType fieldType = queryShardContext.fieldMapper(field);
+        if (fieldType == null) {
+            // unmapped on this index, nothing to count
+            return new RecurringOccurrenceCountAggregatorFactory(name, queryShardContext, parent, subFactoriesBuilder,
+                    metaData, null, null, 0, -1);
+        }
+        if (!(fieldType instanceof RecurringFieldMapper.RecurringFieldType)) {
+            throw new IllegalArgumentException("field [" + field + "] is of type [" + fieldType.typeName()
+                    + "], but [" + NAME + "] only supports [" + RecurringFieldMapper.CONTENT_TYPE + "] fields");
+        }
+        RecurringFieldMapper.RecurringFieldType recurringFieldType = (RecurringFieldMapper.RecurringFieldType) fieldType;
+        long fromDay = recurringFieldType.parseDay(from, false, queryShardContext);
+        long toDay = recurringFieldType.parseDay(to, true, queryShardContext);
+        return new RecurringOccurrenceCountAggregatorFactory(name, queryShardContext, parent, subFactoriesBuilder,
+                metaData, field, recurringFieldType.ruleCache(), fromDay, toDay);
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(FIELD_FIELD.getPreferredName(), field);
+        builder.field(FROM_FIELD.getPreferredName(), from);
+        builder.field(TO_FIELD.getPreferredName(), to);
+        return builder.endObject();
+    }
+
+    public static RecurringOccurrenceCountAggregationBuilder parse(String aggregationName, XContentParser parser)
+            throws IOException {
+        RecurringOccurrenceCountAggregationBuilder builder = new RecurringOccurrenceCountAggregationBuilder(aggregationName);
+
+        XContentParser.Token token;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.field(parser.text());
+                } else if (FROM_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.from(parser.text());
+                } else if (TO_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+                    builder.to(parser.text());
+                } else {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                            "] aggregation does not support [" + currentFieldName + "]");
+                }
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "[" + NAME +
+                        "] unknown token [" + token + "] after [" + currentFieldName + "]");
+            }
+        }
+
+        if (builder.field == null || builder.from == null || builder.to == null) {
+            throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires [field], [from] and [to]");
+        }
+        return builder;
+    }
+
+    @Override
+    public String getType() {
+        return NAME;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), field, from, to);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        if (!super.equals(obj)) return false;
+        RecurringOccurrenceCountAggregationBuilder other = (RecurringOccurrenceCountAggregationBuilder) obj;
+        return Objects.equals(field, other.field)
+                && Objects.equals(from, other.from)
+                && Objects.equals(to, other.to);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.search.aggregations;
+
+import com.carrotsearch.hppc.LongLongHashMap;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.devmaster.elasticsearch.Recurring;
+import org.devmaster.elasticsearch.index.fielddata.RecurringDocValues;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.lease.Releasables;
+import org.elasticsearch.common.util.BigArrays;
+import org.elasticsearch.common.util.LongArray;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+class RecurringOccurrenceCountAggregator extends NumericMetricsAggregator.SingleValue {
+
+    private final String field;
+    private final RecurrenceRuleCache ruleCache;
+    private final long from;
+    private final long to;
+    private LongArray counts;
+
+    RecurringOccurrenceCountAggregator(String name, SearchContext context, Aggregator parent,
+                                       List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData,
+                                       String field, RecurrenceRuleCache ruleCache, long from, long to) throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.field = field;
+        this.ruleCache = ruleCache;
+        this.from = from;
+        this.to = to;
+        if (field != null) {
+            counts = context.bigArrays().newLongArray(1, true);
+        }
+    }
+
+    @Override
+    protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        if (field == null || from > to) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        BigArrays bigArrays = context.bigArrays();
+        RecurringDocValues values = new RecurringDocValues(ctx.reader(), field, ruleCache);
+        DocIdSetIterator docs = values.documents();
+        LongLongHashMap memo = new LongLongHashMap();
+        return new LeafBucketCollectorBase(sub, null) {
+
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                counts = bigArrays.grow(counts, bucket + 1);
+                if (docs.docID() < doc) {
+                    docs.advance(doc);
+                }
+                if (docs.docID() != doc) {
+                    return;
+                }
+                Recurring recurring = values.get(doc);
+                long key = values.ruleKey();
+                int index = key != RecurringDocValues.NO_KEY ? memo.indexOf(key) : -1;
+                long count;
+                if (index >= 0) {
+                    count = memo.indexGet(index);
+                } else {
+                    count = count(recurring);
+                    if (key != RecurringDocValues.NO_KEY && memo.size() < RecurringDocValues.MAX_MEMOIZED_RESULTS) {
+                        memo.indexInsert(index, key, count);
+                    }
+                }
+                counts.increment(bucket, count);
+            }
+        };
+    }
+
+    private long count(Recurring recurring) {
+        try {
+            return recurring.countOccurrences(from, to);
+        } catch (ParseException e) {
+            throw new ElasticsearchParseException("failed to parse rrule [{}]", e, recurring.getRrule());
+        }
+    }
+
+    @Override
+    public double metric(long owningBucketOrd) {
+        return counts == null || owningBucketOrd >= counts.size() ? 0 : counts.get(owningBucketOrd);
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long owningBucketOrdinal) {
+        if (counts == null || owningBucketOrdinal >= counts.size()) {
+            return buildEmptyAggregation();
+        }
+        return new InternalRecurringOccurrenceCount(name, counts.get(owningBucketOrdinal), pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalRecurringOccurrenceCount(name, 0, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public void doClose() {
+        Releasables.close(counts);
+    }
+}
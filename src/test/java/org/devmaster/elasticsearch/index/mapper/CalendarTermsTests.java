@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.index.mapper;
+
+import org.apache.lucene.util.BytesRef;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.Recurring;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CalendarTermsTests {
+
+    @Test
+    public void testIsoWeeks() {
+        assertEquals("2026-W53", CalendarTerms.week(EpochDays.of(2027, 1, 1)));
+        assertEquals("2025-W01", CalendarTerms.week(EpochDays.of(2024, 12, 30)));
+        assertEquals("2027-W09", CalendarTerms.week(EpochDays.of(2027, 3, 1)));
+    }
+
+    @Test
+    public void testOccurrenceTerms() throws ParseException {
+        Recurring recurring = new Recurring("2018-01-29", null, "RRULE:FREQ=DAILY");
+        assertEquals(Arrays.asList("2018", "2018-01", "2018-W05", "2018-02", "2018-W06"),
+                new ArrayList<>(CalendarTerms.of(recurring.occurrences(EpochDays.of(2018, 1, 29), EpochDays.of(2018, 2, 5)))));
+    }
+
+    @Test
+    public void testCover() {
+        CalendarTerms.Cover cover = CalendarTerms.cover(EpochDays.of(2027, 1, 15), EpochDays.of(2030, 12, 31));
+        assertEquals(Arrays.asList("2028", "2029", "2030", "2027-02", "2027-03", "2027-04", "2027-05", "2027-06",
+                "2027-07", "2027-08", "2027-09", "2027-10", "2027-11", "2027-12", "2027-W03", "2027-W04"),
+                strings(cover.cells));
+        assertEquals(Collections.singletonList("2027-W02"), strings(cover.boundaryWeeks));
+
+        cover = CalendarTerms.cover(EpochDays.of(2020, 1, 25), EpochDays.of(2020, 1, 28));
+        assertEquals(Collections.emptyList(), strings(cover.cells));
+        assertEquals(Arrays.asList("2020-W04", "2020-W05"), strings(cover.boundaryWeeks));
+    }
+
+    private static List<String> strings(Iterable<BytesRef> terms) {
+        List<String> strings = new ArrayList<>();
+        terms.forEach(term -> strings.add(term.utf8ToString()));
+        return strings;
+    }
+}
@@ -14,12 +14,19 @@
 
 package org.devmaster.elasticsearch.index.mapper;
 
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.OccurrenceBitmap;
 import org.devmaster.elasticsearch.Recurring;
 import org.joda.time.LocalDate;
 import org.junit.Test;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -96,6 +103,12 @@ public class RecurringTests {
         assertNotNull(nextOccur);
         assertEquals(1, nextOccur.getDayOfWeek());
         assertTrue(nextOccur.isEqual(today) || nextOccur.isAfter(today));
+
+        // the start date is the first of the count, as for the other scripts
+        Recurring threeDays = recurring("2020-01-01", null, "RRULE:FREQ=DAILY;COUNT=3");
+        assertEquals(toLocalDate("2020-01-01"), threeDays.getNextOccurrence(toLocalDate("2019-12-01")));
+        assertEquals(toLocalDate("2020-01-03"), threeDays.getNextOccurrence(toLocalDate("2020-01-03")));
+        assertNull(threeDays.getNextOccurrence(toLocalDate("2020-01-04")));
     }
 
     @Test
@@ -214,6 +227,193 @@ public class RecurringTests {
         assertFalse(recurrence.hasOccurrencesAt(toLocalDate("2016-12-27")));
     }
 
+    @Test
+    public void testIteratorBudget() throws ParseException {
+        Recurring recurring = recurring("2000-02-29", null, "RRULE:FREQ=DAILY;BYMONTH=2;BYMONTHDAY=29");
+        List<String> all = recurring.occurrencesBetween(toLocalDate("2000-01-01"), toLocalDate("2030-01-01"));
+        assertEquals(8, all.size());
+        assertFalse(recurring.isBudgetExceeded());
+
+        recurring.setMaxIteratorSteps(4);
+        List<String> some = recurring.occurrencesBetween(toLocalDate("2000-01-01"), toLocalDate("2030-01-01"));
+        assertEquals(all.subList(0, 3), some);
+        assertTrue(recurring.isBudgetExceeded());
+        assertEquals(some, recurring.occurrencesBetween(toLocalDate("2000-01-01"), toLocalDate("2030-01-01")));
+
+        assertTrue(recurring.hasOccurrencesAt(toLocalDate("2000-02-29")));
+        assertFalse(recurring.isBudgetExceeded());
+    }
+
+    @Test
+    public void testIteratorBudgetCountsAdvances() throws ParseException {
+        // no february 30th to find, the iterator would walk a century of februaries to get there
+        Recurring recurring = recurring("1900-01-01", null, "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30");
+        recurring.setMaxIteratorSteps(3);
+        assertFalse(recurring.hasOccurrencesAt(toLocalDate("2020-02-10")));
+        assertTrue(recurring.isBudgetExceeded());
+
+        recurring.setMaxIteratorSteps(200);
+        assertFalse(recurring.hasOccurrencesAt(toLocalDate("2020-02-10")));
+        assertFalse(recurring.isBudgetExceeded());
+    }
+
+    @Test
+    public void testIteratorBudgetOfOccurrencesAt() throws ParseException {
+        // second wednesdays since 1950, walked month by month
+        Recurring recurring = recurring("1950-01-01", null, "RRULE:FREQ=MONTHLY;BYDAY=2WE");
+        long[] days = { EpochDays.of(2020, 1, 8), EpochDays.of(2020, 2, 12) };
+        recurring.setMaxIteratorSteps(3);
+        List<Integer> probes = new ArrayList<>();
+        recurring.occurrencesAt(days, probes::add);
+        assertEquals(Collections.emptyList(), probes);
+        assertTrue(recurring.isBudgetExceeded());
+
+        recurring.setMaxIteratorSteps(2000);
+        long steps = recurring.getIteratorSteps();
+        recurring.occurrencesAt(days, probes::add);
+        assertEquals(Arrays.asList(0, 1), probes);
+        assertFalse(recurring.isBudgetExceeded());
+        assertTrue(recurring.getIteratorSteps() > steps);
+    }
+
+    @Test
+    public void testOccurrencesBetweenPage() throws ParseException {
+        Recurring recurring = recurring("2016-01-01", null, "RRULE:FREQ=WEEKLY;BYDAY=TU,TH;WKST=SU");
+        List<Long> days = new ArrayList<>();
+        recurring.occurrencesBetween(toLocalDate("2016-01-02"), toLocalDate("2026-01-20"), 1, 2, days::add);
+        assertEquals(Arrays.asList(EpochDays.of(toLocalDate("2016-01-07")), EpochDays.of(toLocalDate("2016-01-12"))), days);
+
+        days.clear();
+        recurring("2016-01-01", "2016-01-05", null).occurrencesBetween(toLocalDate("2016-01-01"),
+                toLocalDate("2016-01-20"), 0, 10, days::add);
+        assertEquals(Collections.singletonList(EpochDays.of(toLocalDate("2016-01-01"))), days);
+
+        days.clear();
+        recurring("2016-01-01", null, null).occurrencesBetween(toLocalDate("2016-01-02"),
+                toLocalDate("2016-01-20"), 0, 10, days::add);
+        assertEquals(Collections.emptyList(), days);
+        assertFalse(recurring("2016-01-01", null, null).hasAnyOccurrenceBetween("2016-01-02", "2016-01-20"));
+        assertTrue(recurring("2016-01-01", null, null).hasAnyOccurrenceBetween("2015-12-20", "2016-01-20"));
+    }
+
+    @Test
+    public void testCountOccurrences() throws ParseException {
+        long from = EpochDays.of(toLocalDate("2018-01-01"));
+        long to = EpochDays.of(toLocalDate("2018-12-31"));
+        assertEquals(53, recurring("2018-01-01", null, "RRULE:FREQ=WEEKLY;BYDAY=MO").countOccurrences(from, to));
+        assertEquals(12, recurring("2017-12-29", null, "RRULE:FREQ=MONTHLY;BYDAY=-1FR").countOccurrences(from, to));
+        assertEquals(11, recurring("2017-12-29", null, "RRULE:FREQ=MONTHLY;BYDAY=-1FR;BYSETPOS=1\nEXDATE:20180223")
+                .countOccurrences(from, to));
+        assertEquals(2, recurring("2017-12-30", "2018-01-02", null).countOccurrences(from, to));
+        assertEquals(0, recurring("2019-01-01", null, null).countOccurrences(from, to));
+    }
+
+    @Test
+    public void testDensity() throws ParseException {
+        assertEquals(Recurring.Density.REGULAR, recurring("2016-11-23", null, null).getDensity());
+        assertEquals(Recurring.Density.REGULAR, recurring("2016-11-23", null, "RRULE:FREQ=MONTHLY;BYDAY=MO,WE").getDensity());
+        assertEquals(Recurring.Density.REGULAR, recurring("2016-11-23", null, "RRULE:FREQ=DAILY;COUNT=1").getDensity());
+        assertEquals(Recurring.Density.SPARSE,
+                recurring("2000-02-29", null, "RRULE:FREQ=DAILY;BYMONTH=2;BYMONTHDAY=29").getDensity());
+        assertEquals(Recurring.Density.NEVER_REPEATS,
+                recurring("1970-01-01", null, "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30").getDensity());
+    }
+
+    @Test
+    public void testOccurrenceBitmapMatchesRule() throws ParseException {
+        long base = EpochDays.of(toLocalDate("2018-01-01"));
+        String[][] events = {
+                {"2016-01-01", "RRULE:FREQ=WEEKLY;BYDAY=TU,TH;WKST=SU"},
+                {"2018-02-05", "RRULE:FREQ=MONTHLY;BYDAY=2WE;WKST=SU"},
+                {"2018-03-10", "RRULE:FREQ=DAILY;COUNT=40"},
+                {"2019-12-25", "RRULE:FREQ=YEARLY;BYMONTH=12;BYMONTHDAY=25"},
+        };
+        for (String[] event : events) {
+            Recurring expected = recurring(event[0], null, event[1]);
+            Recurring actual = recurring(event[0], null, event[1]);
+            OccurrenceBitmap bitmap = new OccurrenceBitmap();
+            bitmap.reset(OccurrenceBitmap.encode(actual, base, 1095));
+            actual.setOccurrenceBitmap(bitmap);
+            for (long day = base - 40; day < base + 1135; day++) {
+                assertEquals(event[1] + " at " + day, expected.hasOccurrencesAt(day), actual.hasOccurrencesAt(day));
+                assertEquals(event[1] + " from " + day, expected.occurBetween(day, day + 9), actual.occurBetween(day, day + 9));
+                assertEquals(event[1] + " after " + day, expected.firstOccurrenceFrom(day), actual.firstOccurrenceFrom(day));
+            }
+        }
+    }
+
+    @Test
+    public void testOccurrencesAtMatchesHasOccurrencesAt() throws ParseException {
+        String[][] events = {
+                {"2016-01-01", null, "RRULE:FREQ=WEEKLY;BYDAY=TU,TH;WKST=SU"},
+                {"2018-02-05", null, "RRULE:FREQ=MONTHLY;BYDAY=2WE;WKST=SU"},
+                {"2018-03-10", null, "RRULE:FREQ=DAILY;COUNT=40"},
+                {"2018-03-10", "2018-03-20", null},
+        };
+        long[] days = new long[60];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = EpochDays.of(2018, 2, 1) + 3L * i;
+        }
+        for (String[] event : events) {
+            Recurring recurring = recurring(event[0], event[1], event[2]);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < days.length; i++) {
+                if (recurring.hasOccurrencesAt(days[i])) {
+                    expected.add(i);
+                }
+            }
+            List<Integer> actual = new ArrayList<>();
+            recurring.occurrencesAt(days, actual::add);
+            assertEquals(Arrays.toString(event), expected, actual);
+        }
+    }
+
+    @Test
+    public void testOverlapsMatchesOccurrences() throws ParseException {
+        String[][] events = {
+                {"2018-01-01", null, "RRULE:FREQ=DAILY;INTERVAL=3"},
+                {"2018-01-04", null, "RRULE:FREQ=DAILY;INTERVAL=4;COUNT=20"},
+                {"2018-01-02", null, "RRULE:FREQ=WEEKLY;INTERVAL=2;UNTIL=20180601"},
+                {"2018-01-10", null, "RRULE:FREQ=WEEKLY;BYDAY=TU,TH;WKST=SU"},
+                {"2018-02-05", null, "RRULE:FREQ=MONTHLY;BYDAY=2WE;WKST=SU"},
+                {"2018-03-10", "2018-03-20", null},
+                {"2018-04-03", null, null},
+        };
+        long from = EpochDays.of(2018, 1, 15);
+        long to = EpochDays.of(2018, 9, 30);
+        for (String[] event : events) {
+            for (String[] otherEvent : events) {
+                Recurring recurring = recurring(event[0], event[1], event[2]);
+                Recurring other = recurring(otherEvent[0], otherEvent[1], otherEvent[2]);
+                Set<Long> days = new HashSet<>();
+                recurring.forEachOccurrence(from, to, days::add);
+                Set<Long> common = new HashSet<>();
+                other.forEachOccurrence(from, to, day -> {
+                    if (days.contains(day)) {
+                        common.add(day);
+                    }
+                });
+                assertEquals(Arrays.toString(event) + " and " + Arrays.toString(otherEvent),
+                        !common.isEmpty(), recurring.overlaps(other, from, to));
+            }
+        }
+    }
+
+    @Test
+    public void testIteratorBudgetOfOverlaps() throws ParseException {
+        Recurring recurring = recurring("1950-01-01", null, "RRULE:FREQ=MONTHLY;BYDAY=2WE");
+        Recurring other = recurring("2020-01-01", null, "RRULE:FREQ=WEEKLY;BYDAY=WE,FR");
+        long from = EpochDays.of(2020, 1, 1);
+        long to = EpochDays.of(2020, 12, 31);
+        recurring.setMaxIteratorSteps(3);
+        assertFalse(recurring.overlaps(other, from, to));
+        assertTrue(recurring.isBudgetExceeded());
+
+        recurring.setMaxIteratorSteps(2000);
+        assertTrue(recurring.overlaps(other, from, to));
+        assertFalse(recurring.isBudgetExceeded());
+    }
+
     private Recurring recurring(String start, String end, String rrule) {
         return new Recurring(start, end, rrule);
     }
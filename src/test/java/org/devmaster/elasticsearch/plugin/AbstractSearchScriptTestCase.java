@@ -14,9 +14,12 @@
 
 package org.devmaster.elasticsearch.plugin;
 
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCacheService;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCacheService;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.test.ESIntegTestCase;
+import org.junit.After;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -24,7 +27,7 @@ import java.util.Collections;
 import static org.elasticsearch.cluster.metadata.IndexMetaData.SETTING_NUMBER_OF_REPLICAS;
 import static org.elasticsearch.cluster.metadata.IndexMetaData.SETTING_NUMBER_OF_SHARDS;
 
-@ESIntegTestCase.ClusterScope(scope = ESIntegTestCase.Scope.SUITE, numDataNodes = 1)
+@ESIntegTestCase.ClusterScope(scope = ESIntegTestCase.Scope.SUITE, numDataNodes = 1, transportClientRatio = 0)
 public abstract class AbstractSearchScriptTestCase extends ESIntegTestCase {
 
     @Override
@@ -41,4 +44,15 @@ public abstract class AbstractSearchScriptTestCase extends ESIntegTestCase {
         return Collections.singletonList(RecurringPlugin.class);
     }
 
+    @After
+    public void clearRuleCaches() {
+        // the node caches are accounted against the fielddata breaker, which has to be back to 0 after each test
+        for (RecurrenceRuleCacheService service : internalCluster().getInstances(RecurrenceRuleCacheService.class)) {
+            service.cache().clear();
+        }
+        for (RecurringFilterCacheService service : internalCluster().getInstances(RecurringFilterCacheService.class)) {
+            service.cache().clear();
+        }
+    }
+
 }
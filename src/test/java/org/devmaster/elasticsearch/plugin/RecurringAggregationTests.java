@@ -0,0 +1,248 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.plugin;
+
+import org.devmaster.elasticsearch.search.aggregations.InternalRecurringAgenda;
+import org.devmaster.elasticsearch.search.aggregations.InternalRecurringHistogram;
+import org.devmaster.elasticsearch.search.aggregations.InternalRecurringOccurrenceCount;
+import org.devmaster.elasticsearch.search.aggregations.RecurringAgendaAggregationBuilder;
+import org.devmaster.elasticsearch.search.aggregations.RecurringHistogramAggregationBuilder;
+import org.devmaster.elasticsearch.search.aggregations.RecurringOccurrenceCountAggregationBuilder;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.MultiBucketConsumerService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class RecurringAggregationTests extends AbstractSearchScriptTestCase {
+
+    private void indexEvents() throws Exception {
+        indexEvents(Settings.EMPTY);
+    }
+
+    private void indexEvents(Settings settings) throws Exception {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                .startObject("name").field("type", "text").endObject()
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject();
+
+        assertAcked(prepareCreate("test").setSettings(settings).addMapping("_doc", mapping));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "_doc", "1")
+                .setSource(createDoc("Weekly review", "2018-01-01", null, "RRULE:FREQ=WEEKLY")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "2")
+                .setSource(createDoc("Another weekly review", "2018-01-01", null, "RRULE:FREQ=WEEKLY")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "3")
+                .setSource(createDoc("Training", "2018-01-03", null, "RRULE:FREQ=DAILY;COUNT=3")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "4")
+                .setSource(createDoc("Conference", "2018-01-10", "2018-01-12", null)));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "5")
+                .setSource(createDoc("Launch", "2018-02-01", null, null)));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "6")
+                .setSource(createDoc("Last friday", "2017-12-29", null, "RRULE:FREQ=MONTHLY;BYDAY=-1FR\nEXDATE:20180223")));
+        indexRandom(true, indexBuilders);
+    }
+
+    public void testRecurringHistogram() throws Exception {
+        indexEvents();
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setSize(0)
+                .addAggregation(new RecurringHistogramAggregationBuilder("per_week")
+                        .field("recurrent_date").from("2018-01-01").to("2018-01-31").calendarInterval("week"))
+                .get();
+        assertNoFailures(searchResponse);
+
+        InternalRecurringHistogram histogram = searchResponse.getAggregations().get("per_week");
+        List<InternalRecurringHistogram.Bucket> buckets = histogram.getBuckets();
+        assertEquals(5, buckets.size());
+        assertBucket(buckets.get(0), "2018-01-01", 5);
+        assertBucket(buckets.get(1), "2018-01-08", 5);
+        assertBucket(buckets.get(2), "2018-01-15", 2);
+        assertBucket(buckets.get(3), "2018-01-22", 3);
+        assertBucket(buckets.get(4), "2018-01-29", 2);
+
+        searchResponse = client().prepareSearch("test")
+                .setSize(0)
+                .addAggregation(new RecurringHistogramAggregationBuilder("per_month")
+                        .field("recurrent_date").from("2018-01-01").to("2018-02-28").calendarInterval("1M"))
+                .get();
+        assertNoFailures(searchResponse);
+
+        histogram = searchResponse.getAggregations().get("per_month");
+        buckets = histogram.getBuckets();
+        assertEquals(2, buckets.size());
+        assertBucket(buckets.get(0), "2018-01-01", 17);
+        assertBucket(buckets.get(1), "2018-02-01", 9);
+    }
+
+    public void testRecurringHistogramMaxBuckets() throws Exception {
+        // a single shard, so the failure is not hidden by the partial results of other shards
+        indexEvents(Settings.builder().put("index.number_of_shards", 1).build());
+
+        // two centuries of mondays, one bucket each
+        SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class, () -> client().prepareSearch("test")
+                .setSize(0)
+                .addAggregation(new RecurringHistogramAggregationBuilder("per_day")
+                        .field("recurrent_date").from("2018-01-01").to("2218-12-31").calendarInterval("day"))
+                .get());
+        assertThat(ExceptionsHelper.unwrap(e, MultiBucketConsumerService.TooManyBucketsException.class), notNullValue());
+    }
+
+    public void testOccurrenceCount() throws Exception {
+        indexEvents();
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("start", "2018-01-01");
+        params.put("end", "2018-01-31");
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setSize(10)
+                .addScriptField("occurrences", new Script(ScriptType.INLINE, "recurring_scripts", "occurrencesCount", params))
+                .addAggregation(new RecurringOccurrenceCountAggregationBuilder("occurrences")
+                        .field("recurrent_date").from("2018-01-01").to("2018-01-31"))
+                .get();
+        assertNoFailures(searchResponse);
+
+        InternalRecurringOccurrenceCount count = searchResponse.getAggregations().get("occurrences");
+        assertEquals(17, count.getValue());
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("1", 5L);
+        expected.put("2", 5L);
+        expected.put("3", 3L);
+        expected.put("4", 3L);
+        expected.put("5", 0L);
+        expected.put("6", 1L);
+        assertEquals(6, searchResponse.getHits().getHits().length);
+        for (SearchHit hit : searchResponse.getHits()) {
+            assertEquals(hit.getId(), expected.get(hit.getId()), hit.field("occurrences").getValue());
+        }
+    }
+
+    public void testAgendaPages() throws Exception {
+        indexEvents();
+        assertAgendaPages();
+    }
+
+    public void testAgendaPagesSortedByStart() throws Exception {
+        indexEvents(Settings.builder()
+                .put("index.number_of_shards", 1)
+                .put("index.sort.field", "recurrent_date.start_date")
+                .build());
+        assertAgendaPages();
+    }
+
+    public void testAgendaRdateBeforeStart() throws Exception {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject();
+        assertAcked(prepareCreate("test")
+                .setSettings(Settings.builder()
+                        .put("index.number_of_shards", 1)
+                        .put("index.sort.field", "recurrent_date.start_date"))
+                .addMapping("_doc", mapping));
+        indexRandom(true,
+                client().prepareIndex("test", "_doc", "1")
+                        .setSource(createDoc("Weekly review", "2018-01-01", null, "RRULE:FREQ=WEEKLY")),
+                client().prepareIndex("test", "_doc", "2")
+                        .setSource(createDoc("Kickoff", "2018-01-20", null, "RRULE:FREQ=YEARLY\nRDATE:20180102")));
+
+        List<String> occurrences = new ArrayList<>();
+        InternalRecurringAgenda.Occurrence after = null;
+        for (int i = 0; i < 3; i++) {
+            RecurringAgendaAggregationBuilder agenda = new RecurringAgendaAggregationBuilder("agenda")
+                    .field("recurrent_date").from("2018-01-01").to("2018-01-31").size(1);
+            if (after != null) {
+                agenda.after(after.getDate(), after.getId());
+            }
+            SearchResponse searchResponse = client().prepareSearch("test").setSize(0).addAggregation(agenda).get();
+            assertNoFailures(searchResponse);
+            InternalRecurringAgenda page = searchResponse.getAggregations().get("agenda");
+            after = page.afterKey();
+            occurrences.add(after.getDate() + "/" + after.getId());
+        }
+        assertEquals(Arrays.asList("2018-01-01/1", "2018-01-02/2", "2018-01-08/1"), occurrences);
+    }
+
+    private void assertAgendaPages() {
+        List<String> expected = Arrays.asList("2018-01-01/1", "2018-01-01/2", "2018-01-03/3", "2018-01-04/3",
+                "2018-01-05/3", "2018-01-08/1", "2018-01-08/2", "2018-01-10/4", "2018-01-11/4", "2018-01-12/4",
+                "2018-01-15/1", "2018-01-15/2", "2018-01-22/1", "2018-01-22/2", "2018-01-26/6", "2018-01-29/1",
+                "2018-01-29/2");
+
+        List<String> occurrences = new ArrayList<>();
+        InternalRecurringAgenda.Occurrence after = null;
+        int pages = 0;
+        do {
+            RecurringAgendaAggregationBuilder agenda = new RecurringAgendaAggregationBuilder("agenda")
+                    .field("recurrent_date").from("2018-01-01").to("2018-01-31").size(4);
+            if (after != null) {
+                agenda.after(after.getDate(), after.getId());
+            }
+            SearchResponse searchResponse = client().prepareSearch("test").setSize(0).addAggregation(agenda).get();
+            assertNoFailures(searchResponse);
+
+            InternalRecurringAgenda page = searchResponse.getAggregations().get("agenda");
+            for (InternalRecurringAgenda.Occurrence occurrence : page.getOccurrences()) {
+                occurrences.add(occurrence.getDate() + "/" + occurrence.getId());
+            }
+            after = page.afterKey();
+            if (after != null) {
+                assertTrue(Strings.toString(searchResponse).contains("\"after\":{\"date\":\"" + after.getDate() + "\""));
+            }
+            pages++;
+        } while (after != null);
+
+        assertEquals(expected, occurrences);
+        assertEquals(5, pages);
+    }
+
+    private static void assertBucket(InternalRecurringHistogram.Bucket bucket, String key, long occurrences) {
+        assertEquals(key, bucket.getKeyAsString());
+        assertEquals(key, occurrences, bucket.getDocCount());
+    }
+
+    private XContentBuilder createDoc(String name, String dtstart, String dtend, String rrule) throws IOException {
+        return jsonBuilder().startObject()
+                .field("name", name)
+                .startObject("recurrent_date")
+                .field("start_date", dtstart)
+                .field("end_date", dtend)
+                .field("rrule", rrule)
+                .endObject()
+                .endObject();
+    }
+}
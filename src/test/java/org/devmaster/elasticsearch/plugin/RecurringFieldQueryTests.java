@@ -0,0 +1,348 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.plugin;
+
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.devmaster.elasticsearch.EpochDays;
+import org.devmaster.elasticsearch.index.query.RecurringOccursQueryBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.MapperParsingException;
+
+import java.io.IOException;
+import org.joda.time.LocalDate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.idsQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertSearchHits;
+import static org.hamcrest.Matchers.containsString;
+
+public class RecurringFieldQueryTests extends AbstractSearchScriptTestCase {
+
+    public void testMaterializedOccurrences() throws Exception {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                .startObject("name").field("type", "text").endObject()
+                .startObject("recurrent_date")
+                .field("type", "recurring")
+                .field("materialize_horizon", "60d")
+                .field("horizon_base_date", "2024-01-01")
+                .endObject()
+                .endObject().endObject().endObject();
+
+        assertAcked(prepareCreate("test").addMapping("_doc", mapping));
+
+        GetMappingsResponse mappings = client().admin().indices().prepareGetMappings("test").get();
+        Map<String, Object> properties = (Map<String, Object>) mappings.mappings().get("test").get("_doc").sourceAsMap().get("properties");
+        assertEquals("60d", ((Map<String, Object>) properties.get("recurrent_date")).get("materialize_horizon"));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "_doc", "1")
+                .setSource(createDoc("Daily stand-up", "2020-01-01", null, "RRULE:FREQ=DAILY;INTERVAL=2")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "2")
+                .setSource(createDoc("Halloween Party", "2012-10-31", null, "RRULE:FREQ=YEARLY;BYMONTH=10;BYMONTHDAY=31")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "3")
+                .setSource(createDoc("Evento Marcolão", "2020-01-10", "2020-01-20", null)));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "4")
+                .setSource(createDoc("Five reviews", "2020-01-01", null, "RRULE:FREQ=WEEKLY;COUNT=5")));
+        indexRandom(true, indexBuilders);
+
+        // before the window, which starts on the base date, evaluated against the rule
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date", "2020-01-15"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "3", "4");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date", "2020-01-16"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "3");
+
+        // past the window as well
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date", "2025-10-31"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "2");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date", "2025-11-01"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 0);
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date").gte("2024-03-01").lte("2024-03-02"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date").gt("2020-01-29").lt("2020-02-01"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date").gte("2020-01-29").lt("2020-02-01"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "4");
+
+        // a series that started long ago is materialized from the base date
+        indexRandom(true, client().prepareIndex("test", "_doc", "5")
+                .setSource(createDoc("Morning run", "2000-01-01", null, "RRULE:FREQ=DAILY")));
+        searchResponse = client().prepareSearch("test")
+                .setQuery(boolQuery()
+                        .filter(termQuery("recurrent_date.occurrences", EpochDays.of(new LocalDate(2024, 1, 2))))
+                        .filter(idsQuery().addIds("5")))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "5");
+
+        // moved by a mapping update, for the documents indexed from then on
+        assertAcked(client().admin().indices().preparePutMapping("test").setType("_doc")
+                .setSource(jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                        .startObject("recurrent_date")
+                        .field("type", "recurring")
+                        .field("materialize_horizon", "60d")
+                        .field("horizon_base_date", "2025-01-01")
+                        .endObject()
+                        .endObject().endObject().endObject()));
+        indexRandom(true, client().prepareIndex("test", "_doc", "5")
+                .setSource(createDoc("Morning run", "2000-01-01", null, "RRULE:FREQ=DAILY")));
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date.occurrences", EpochDays.of(new LocalDate(2025, 1, 2))))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "5");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date", "2000-01-02"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "5");
+
+        // nothing to materialize without a start date
+        indexRandom(true, client().prepareIndex("test", "_doc", "6")
+                .setSource(jsonBuilder().startObject()
+                        .field("name", "Someday")
+                        .startObject("recurrent_date").field("rrule", "RRULE:FREQ=DAILY").endObject()
+                        .endObject()));
+        assertHitCount(client().prepareSearch("test").setQuery(idsQuery().addIds("6")).get(), 1);
+    }
+
+    public void testOccurrenceBitmap() throws Exception {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                .startObject("recurrent_date")
+                .field("type", "recurring")
+                .field("bitmap_base_date", "2020-01-01")
+                .field("bitmap_window", "1095d")
+                .endObject()
+                .endObject().endObject().endObject();
+
+        assertAcked(prepareCreate("test").addMapping("_doc", mapping));
+
+        GetMappingsResponse mappings = client().admin().indices().prepareGetMappings("test").get();
+        Map<String, Object> properties = (Map<String, Object>) mappings.mappings().get("test").get("_doc").sourceAsMap().get("properties");
+        Map<String, Object> field = (Map<String, Object>) properties.get("recurrent_date");
+        assertEquals("2020-01-01", field.get("bitmap_base_date"));
+        assertEquals("1095d", field.get("bitmap_window"));
+
+        indexRandom(true,
+                client().prepareIndex("test", "_doc", "1")
+                        .setSource(createDoc("Daily stand-up", "2020-01-01", null, "RRULE:FREQ=DAILY;INTERVAL=2")),
+                client().prepareIndex("test", "_doc", "2")
+                        .setSource(createDoc("Halloween Party", "2012-10-31", null, "RRULE:FREQ=YEARLY;BYMONTH=10;BYMONTHDAY=31")),
+                client().prepareIndex("test", "_doc", "3")
+                        .setSource(createDoc("Evento Marcolão", "2020-01-10", "2020-01-20", null)));
+
+        // inside the window, answered by the bitmap
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date", "2020-01-15"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "3");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date").gte("2022-10-30").lte("2022-10-31"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "2");
+
+        // past the window, evaluated against the rule
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date", "2025-10-31"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "2");
+    }
+
+    public void testOccurrenceBitmapRequiresBaseDate() throws Exception {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                .startObject("recurrent_date")
+                .field("type", "recurring")
+                .field("bitmap_window", "1095d")
+                .endObject()
+                .endObject().endObject().endObject();
+
+        MapperParsingException e = expectThrows(MapperParsingException.class,
+                () -> prepareCreate("test").addMapping("_doc", mapping).get());
+        assertThat(e.getMessage(), containsString("must be set together"));
+    }
+
+    public void testCalendarTerms() throws Exception {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                .startObject("recurrent_date")
+                .field("type", "recurring")
+                .field("calendar_horizon", "3650d")
+                .field("horizon_base_date", "2024-01-01")
+                .endObject()
+                .endObject().endObject().endObject();
+
+        assertAcked(prepareCreate("test").addMapping("_doc", mapping));
+
+        indexRandom(true,
+                client().prepareIndex("test", "_doc", "1")
+                        .setSource(createDoc("Daily stand-up", "2020-01-01", null, "RRULE:FREQ=DAILY;INTERVAL=2")),
+                client().prepareIndex("test", "_doc", "2")
+                        .setSource(createDoc("Halloween Party", "2012-10-31", null, "RRULE:FREQ=YEARLY;BYMONTH=10;BYMONTHDAY=31")),
+                client().prepareIndex("test", "_doc", "4")
+                        .setSource(createDoc("Five reviews", "2020-01-01", null, "RRULE:FREQ=WEEKLY;COUNT=5")));
+
+        // before the window, which starts on the base date, evaluated against the rule
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date").gte("2021-01-10").lte("2022-06-30"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "2");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date").gte("2020-01-29").lte("2020-03-31"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "4");
+
+        // covered by year cells, apart from the sparse party evaluated against its rule
+        searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date").gte("2025-01-01").lte("2028-12-31"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "2");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date.calendar", "2025"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1");
+    }
+
+    public void testRecurringOccursQuery() throws Exception {
+        XContentBuilder mapping = jsonBuilder().startObject().startObject("_doc").startObject("properties")
+                .startObject("name").field("type", "text").endObject()
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject();
+
+        assertAcked(prepareCreate("test").addMapping("_doc", mapping));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        indexBuilders.add(client().prepareIndex("test", "_doc", "1")
+                .setSource(createDoc("Festa de Natal", "2016-12-25", null, "RRULE:FREQ=YEARLY;BYMONTH=12;BYMONTHDAY=25")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "2")
+                .setSource(createDoc("Dias das Mães", "2015-05-10", null, "RRULE:FREQ=YEARLY;BYMONTH=5;BYDAY=2SU")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "3")
+                .setSource(createDoc("Revisão Mensal Cruze", "2016-02-10", null, "RRULE:FREQ=MONTHLY;BYMONTHDAY=10;COUNT=5")));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "4")
+                .setSource(createDoc("Evento Marcolão", "2017-06-01", "2017-06-30", null)));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "5")
+                .setSource(createDoc("Single day", "2017-06-27", null, null)));
+        indexBuilders.add(client().prepareIndex("test", "_doc", "6")
+                .setSource(createDoc("Trinta de fevereiro", "1990-01-01", null, "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30")));
+        indexRandom(true, indexBuilders);
+
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(new RecurringOccursQueryBuilder("recurrent_date").from("2025-05-11").to("2025-05-11"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "2");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(new RecurringOccursQueryBuilder("recurrent_date").from("2017-06-10").to("2017-06-27"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "4", "5");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(new RecurringOccursQueryBuilder("recurrent_date").from("2016-06-01").to("2016-06-30"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "3");
+
+        // open ended windows
+        searchResponse = client().prepareSearch("test")
+                .setQuery(new RecurringOccursQueryBuilder("recurrent_date").from("2017-06-28"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "2", "4");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(new RecurringOccursQueryBuilder("recurrent_date").to("2015-12-31"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "2", "6");
+
+        // first to last occurrence, the monthly review ended on 2016-06-10 and february 30th never comes
+        searchResponse = client().prepareSearch("test")
+                .setQuery(rangeQuery("recurrent_date.envelope").gte("2016-06-11"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "1", "2", "4", "5");
+
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("recurrent_date.density", "never_repeats"))
+                .get();
+        assertNoFailures(searchResponse);
+        assertSearchHits(searchResponse, "6");
+
+        expectThrows(SearchPhaseExecutionException.class, () -> client().prepareSearch("test")
+                .setQuery(new RecurringOccursQueryBuilder("name").from("2017-06-28"))
+                .get());
+    }
+
+    private XContentBuilder createDoc(String name, String dtstart, String dtend, String rrule) throws IOException {
+        return jsonBuilder().startObject()
+                .field("name", name)
+                .startObject("recurrent_date")
+                .field("start_date", dtstart)
+                .field("end_date", dtend)
+                .field("rrule", rrule)
+                .endObject()
+                .endObject();
+    }
+
+}
@@ -14,26 +14,52 @@
 
 package org.devmaster.elasticsearch.plugin;
 
+import org.devmaster.elasticsearch.action.stats.RecurringNodeStats;
+import org.devmaster.elasticsearch.action.stats.RecurringStatsAction;
+import org.devmaster.elasticsearch.action.stats.RecurringStatsRequest;
+import org.devmaster.elasticsearch.action.stats.RecurringStatsResponse;
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCache;
+import org.devmaster.elasticsearch.index.cache.RecurringFilterCacheService;
+import org.devmaster.elasticsearch.monitor.CacheStats;
+import org.devmaster.elasticsearch.monitor.ScriptStats;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCache;
+import org.devmaster.elasticsearch.rrule.RecurrenceRuleCacheService;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.sort.ScriptSortBuilder;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import static org.elasticsearch.cluster.metadata.IndexMetaData.SETTING_NUMBER_OF_REPLICAS;
+import static org.elasticsearch.cluster.metadata.IndexMetaData.SETTING_NUMBER_OF_SHARDS;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 import static org.elasticsearch.index.query.QueryBuilders.scriptQuery;
+import static org.elasticsearch.index.query.QueryBuilders.scriptScoreQuery;
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.search.sort.SortBuilders.scriptSort;
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 public class RecurringSearchScriptTests extends AbstractSearchScriptTestCase {
 
@@ -174,6 +200,410 @@ public class RecurringSearchScriptTests extends AbstractSearchScriptTestCase {
 
     }
 
+    public void testRepeatedFilterUsesCache() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        List<IndexRequestBuilder> indexBuilders = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            indexBuilders.add(client().prepareIndex("test", "type", String.valueOf(i))
+                    .setSource(createDoc("Event " + i, "2018-01-0" + (1 + i % 7), null, "RRULE:FREQ=WEEKLY")));
+        }
+        indexRandom(true, indexBuilders);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("date", "2018-03-05");
+        // cached by the second request, looked up by the third
+        for (int i = 0; i < 3; i++) {
+            SearchResponse searchResponse = client().prepareSearch("test")
+                    .setQuery(scriptQuery(new Script(ScriptType.INLINE, "recurring_scripts", "hasOccurrencesAt", params)))
+                    .execute().actionGet();
+            assertNoFailures(searchResponse);
+            // the two events starting on monday 2018-01-01
+            assertHitCount(searchResponse, 2);
+        }
+
+        long hits = 0;
+        for (RecurringFilterCacheService service : internalCluster().getInstances(RecurringFilterCacheService.class)) {
+            hits += service.cache().hitCount();
+        }
+        assertThat(hits, greaterThan(0L));
+    }
+
+    public void testRepeatedNotHasExpired() throws Exception {
+        assertAcked(prepareCreate("test").setSettings(Settings.builder()
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0))
+                .addMapping("type", jsonBuilder().startObject().startObject("type")
+                        .startObject("properties")
+                        .startObject("recurrent_date").field("type", "recurring").endObject()
+                        .endObject().endObject().endObject()));
+
+        // one segment, the expired event first
+        client().prepareIndex("test", "type", "1").setSource(createDoc("Expired", "2000-01-01", null, null)).get();
+        client().prepareIndex("test", "type", "2").setSource(createDoc("Future", "2099-01-01", null, null)).get();
+        refresh("test");
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        // evaluated by the first request, cached by the second, looked up by the third
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Collections.singleton("2"), searchIds("notHasExpired", params));
+        }
+    }
+
+    public void testOccurrencesBetweenPage() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true, client().prepareIndex("test", "type", "1")
+                .setSource(createDoc("Daily", "2018-01-01", null, "RRULE:FREQ=DAILY")));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("start", "2018-01-01");
+        params.put("end", "2028-12-31");
+        params.put("offset", 2);
+        params.put("limit", 3);
+        params.put("format", "epoch_day");
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .addScriptField("occur", new Script(ScriptType.INLINE, "recurring_scripts", "occurrencesBetween", params))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 1);
+        assertEquals(Arrays.asList(17534L, 17535L, 17536L), searchResponse.getHits().getAt(0).field("occur").getValues());
+
+        params.put("format", "date");
+        searchResponse = client().prepareSearch("test")
+                .addScriptField("occur", new Script(ScriptType.INLINE, "recurring_scripts", "occurrencesBetween", params))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertEquals(Arrays.asList("2018-01-03", "2018-01-04", "2018-01-05"),
+                searchResponse.getHits().getAt(0).field("occur").getValues());
+    }
+
+    public void testNeverRepeatingRule() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        // flagged never_repeats at index time, read as an event of its start date only
+        indexRandom(true, client().prepareIndex("test", "type", "1")
+                .setSource(createDoc("February 30", "2018-01-10", null, "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30")));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("start", "2018-02-01");
+        params.put("end", "2018-03-31");
+        assertEquals(Collections.emptySet(), searchIds("hasAnyOccurrenceBetween", params));
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .addScriptField("occur", new Script(ScriptType.INLINE, "recurring_scripts", "occurrencesBetween", params))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        DocumentField occur = searchResponse.getHits().getAt(0).field("occur");
+        assertTrue(occur == null || occur.getValues().isEmpty());
+
+        params.put("start", "2018-01-01");
+        assertEquals(Collections.singleton("1"), searchIds("hasAnyOccurrenceBetween", params));
+        searchResponse = client().prepareSearch("test")
+                .addScriptField("occur", new Script(ScriptType.INLINE, "recurring_scripts", "occurrencesBetween", params))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertEquals(Collections.singletonList("2018-01-10"), searchResponse.getHits().getAt(0).field("occur").getValues());
+    }
+
+    public void testExpression() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true,
+                client().prepareIndex("test", "type", "1")
+                        .setSource(createDoc("Mondays", "2018-01-01", null, "RRULE:FREQ=WEEKLY")),
+                client().prepareIndex("test", "type", "2")
+                        .setSource(createDoc("Three days", "2018-01-03", null, "RRULE:FREQ=DAILY;COUNT=3")),
+                client().prepareIndex("test", "type", "3")
+                        .setSource(createDoc("Tuesdays", "2018-01-02", null, "RRULE:FREQ=WEEKLY")),
+                client().prepareIndex("test", "type", "4")
+                        .setSource(createDoc("Once", "2018-01-10", null, null)));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("start", "2018-01-01");
+        params.put("end", "2018-01-04");
+        params.put("skip", "2018-01-01");
+
+        assertEquals(new HashSet<>(Arrays.asList("2", "3")),
+                searchIds("occurBetween(start, end) and not hasOccurrencesAt(skip)", params));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")),
+                searchIds("hasOccurrencesAt(skip) or (occurBetween(start, end) and not notHasExpired())", params));
+    }
+
+    private Set<String> searchIds(String expression, Map<String, Object> params) {
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(scriptQuery(new Script(ScriptType.INLINE, "recurring_scripts", expression, params)))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        Set<String> ids = new HashSet<>();
+        searchResponse.getHits().forEach(hit -> ids.add(hit.getId()));
+        return ids;
+    }
+
+    public void testFromParam() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true,
+                client().prepareIndex("test", "type", "1")
+                        .setSource(createDoc("Three days", "2018-01-03", null, "RRULE:FREQ=DAILY;COUNT=3")),
+                client().prepareIndex("test", "type", "2")
+                        .setSource(createDoc("Once", "2018-01-10", null, null)));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("from", "2018-01-04");
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("_id", "1"))
+                .addScriptField("occur", new Script(ScriptType.INLINE, "recurring_scripts", "nextOccurrence", params))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertEquals("2018-01-04", searchResponse.getHits().getAt(0).field("occur").getValue());
+
+        params.put("from", "2018-01-05||+1d");
+        assertEquals(Collections.singleton("2"), searchIds("notHasExpired", params));
+        params.put("from", "now/d");
+        params.put("time_zone", "America/Sao_Paulo");
+        assertEquals(Collections.emptySet(), searchIds("notHasExpired", params));
+
+        // every shard resolves the now of the request
+        params.put("now", "2018-01-09T12:00:00Z");
+        assertEquals(Collections.singleton("2"), searchIds("notHasExpired", params));
+        params.put("now", 1515715200000L);
+        assertEquals(Collections.emptySet(), searchIds("notHasExpired", params));
+    }
+
+    public void testOccurrencesAt() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true,
+                client().prepareIndex("test", "type", "1")
+                        .setSource(createDoc("Mondays", "2018-01-01", null, "RRULE:FREQ=WEEKLY")),
+                client().prepareIndex("test", "type", "2")
+                        .setSource(createDoc("Three days", "2018-01-03", null, "RRULE:FREQ=DAILY;COUNT=3")));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("dates", Arrays.asList("2018-01-01", "2018-01-04", "2018-01-08"));
+        params.put("format", "bitmask");
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("_id", "1"))
+                .addScriptField("occur", new Script(ScriptType.INLINE, "recurring_scripts", "occurrencesAt", params))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertEquals((Object) 0b101L, searchResponse.getHits().getAt(0).field("occur").getValue());
+
+        params.remove("dates");
+        params.put("date", "2018-01-01");
+        params.put("stride", 2);
+        params.put("count", 4);
+        params.put("format", "date");
+        searchResponse = client().prepareSearch("test")
+                .setQuery(termQuery("_id", "2"))
+                .addScriptField("occur", new Script(ScriptType.INLINE, "recurring_scripts", "occurrencesAt", params))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertEquals(Arrays.asList("2018-01-03", "2018-01-05"), searchResponse.getHits().getAt(0).field("occur").getValues());
+
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), searchIds("hasOccurrencesAtAny", params));
+        params.put("minimum_match", 2);
+        assertEquals(Collections.singleton("2"), searchIds("hasOccurrencesAtAny", params));
+    }
+
+    public void testOverlaps() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true,
+                client().prepareIndex("test", "type", "1")
+                        .setSource(createDoc("Mondays", "2018-01-01", null, "RRULE:FREQ=WEEKLY")),
+                client().prepareIndex("test", "type", "2")
+                        .setSource(createDoc("Second wednesdays", "2018-01-10", null, "RRULE:FREQ=MONTHLY;BYDAY=2WE")),
+                client().prepareIndex("test", "type", "3")
+                        .setSource(createDoc("Week off", "2018-02-05", "2018-02-09", null)));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("start_date", "2018-01-03");
+        params.put("rrule", "RRULE:FREQ=DAILY;INTERVAL=7");
+        params.put("start", "2018-01-01");
+        params.put("end", "2018-03-31");
+        assertEquals(new HashSet<>(Arrays.asList("2", "3")), searchIds("overlaps", params));
+
+        params.put("rrule", "RRULE:FREQ=DAILY;INTERVAL=4;COUNT=10");
+        assertEquals(new HashSet<>(Arrays.asList("1", "3")), searchIds("overlaps", params));
+    }
+
+    public void testNextOccurrenceScoreAndSort() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true,
+                client().prepareIndex("test", "type", "1")
+                        .setSource(createDoc("Mondays", "2018-01-01", null, "RRULE:FREQ=WEEKLY")),
+                client().prepareIndex("test", "type", "2")
+                        .setSource(createDoc("Three days", "2018-01-03", null, "RRULE:FREQ=DAILY;COUNT=3")),
+                client().prepareIndex("test", "type", "3")
+                        .setSource(createDoc("Past", "2017-12-25", null, null)),
+                client().prepareIndex("test", "type", "4")
+                        .setSource(jsonBuilder().startObject().field("name", "No date").endObject()));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("origin", "2018-01-02");
+        params.put("scale", "7d");
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(scriptScoreQuery(matchAllQuery(),
+                        new Script(ScriptType.INLINE, "recurring_scripts", "nextOccurrenceDecay", params)))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertEquals("2", searchResponse.getHits().getAt(0).getId());
+        assertEquals("1", searchResponse.getHits().getAt(1).getId());
+        // one day before the next occurrence, a seventh of the way to the half decay
+        assertEquals(Math.pow(0.5, 1.0 / 7), searchResponse.getHits().getAt(0).getScore(), 1e-6);
+        assertEquals(0.0f, searchResponse.getHits().getAt(3).getScore(), 0.0f);
+
+        searchResponse = client().prepareSearch("test")
+                .addSort(scriptSort(new Script(ScriptType.INLINE, "recurring_scripts", "nextOccurrenceDistance", params),
+                        ScriptSortBuilder.ScriptSortType.NUMBER))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertEquals(4, searchResponse.getHits().getHits().length);
+        assertEquals("2", searchResponse.getHits().getAt(0).getId());
+        assertEquals(1.0, searchResponse.getHits().getAt(0).getSortValues()[0]);
+        assertEquals("1", searchResponse.getHits().getAt(1).getId());
+        assertEquals(6.0, searchResponse.getHits().getAt(1).getSortValues()[0]);
+    }
+
+    public void testInvalidParamFailsSearch() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true, client().prepareIndex("test", "type", "1")
+                .setSource(createDoc("Daily", "2018-01-01", null, "RRULE:FREQ=DAILY")));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("date", "next monday");
+        SearchPhaseExecutionException e = expectThrows(SearchPhaseExecutionException.class, () -> client().prepareSearch("test")
+                .setQuery(scriptQuery(new Script(ScriptType.INLINE, "recurring_scripts", "hasOccurrencesAt", params)))
+                .execute().actionGet());
+        assertThat(e.shardFailures()[0].reason(), containsString("Parameter date must be a date but was [next monday]"));
+
+        params.put("date", "2018-01-01");
+        params.put("count", 1_000_000);
+        e = expectThrows(SearchPhaseExecutionException.class, () -> client().prepareSearch("test")
+                .setQuery(scriptQuery(new Script(ScriptType.INLINE, "recurring_scripts", "hasOccurrencesAtAny", params)))
+                .execute().actionGet());
+        assertThat(e.shardFailures()[0].reason(), containsString("Parameter count can not be greater than 4096"));
+    }
+
+    public void testStatsCountScriptInvocations() throws Exception {
+        assertAcked(prepareCreate("test").addMapping("type", jsonBuilder().startObject().startObject("type")
+                .startObject("properties")
+                .startObject("recurrent_date").field("type", "recurring").endObject()
+                .endObject().endObject().endObject()));
+
+        indexRandom(true,
+                client().prepareIndex("test", "type", "1")
+                        .setSource(createDoc("Weekly", "2018-01-01", null, "RRULE:FREQ=WEEKLY")),
+                client().prepareIndex("test", "type", "2")
+                        .setSource(createDoc("Daily", "2018-01-03", null, "RRULE:FREQ=DAILY;COUNT=3")));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("start", "2018-01-08");
+        params.put("end", "2018-01-09");
+        SearchResponse searchResponse = client().prepareSearch("test")
+                .setQuery(scriptQuery(new Script(ScriptType.INLINE, "recurring_scripts", "hasAnyOccurrenceBetween", params)))
+                .execute().actionGet();
+        assertNoFailures(searchResponse);
+        assertHitCount(searchResponse, 1);
+
+        RecurringStatsResponse stats = client().execute(RecurringStatsAction.INSTANCE, new RecurringStatsRequest()).actionGet();
+        assertFalse(stats.hasFailures());
+        assertEquals(internalCluster().size(), stats.getNodes().size());
+        for (RecurringNodeStats node : stats.getNodes()) {
+            ScriptStats script = node.getScripts().stream()
+                    .filter(s -> "hasAnyOccurrenceBetween".equals(s.getName()))
+                    .findFirst().orElseThrow(AssertionError::new);
+            assertThat(script.getInvocations(), greaterThanOrEqualTo(2L));
+            assertThat(script.getEvaluations(), greaterThan(0L));
+            assertEquals(2, node.getCaches().size());
+        }
+    }
+
+    public void testStatsReportTheCachesOfEachNode() throws Exception {
+        internalCluster().startDataOnlyNode();
+        assertAcked(prepareCreate("test")
+                .setSettings(Settings.builder().put(SETTING_NUMBER_OF_SHARDS, 2).put(SETTING_NUMBER_OF_REPLICAS, 0))
+                .addMapping("type", jsonBuilder().startObject().startObject("type")
+                        .startObject("properties")
+                        .startObject("recurrent_date").field("type", "recurring").endObject()
+                        .endObject().endObject().endObject()));
+        ensureGreen("test");
+
+        List<IndexRequestBuilder> docs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            docs.add(client().prepareIndex("test", "type", Integer.toString(i))
+                    .setSource(createDoc("Event " + i, "2018-01-01", null, "RRULE:FREQ=DAILY;INTERVAL=" + (i + 1))));
+        }
+        indexRandom(true, docs);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", "recurrent_date");
+        params.put("start", "2018-01-08");
+        params.put("end", "2018-01-09");
+        assertNoFailures(client().prepareSearch("test")
+                .setQuery(scriptQuery(new Script(ScriptType.INLINE, "recurring_scripts", "hasAnyOccurrenceBetween", params)))
+                .execute().actionGet());
+
+        RecurringStatsResponse stats = client().execute(RecurringStatsAction.INSTANCE, new RecurringStatsRequest()).actionGet();
+        assertFalse(stats.hasFailures());
+        assertEquals(internalCluster().size(), stats.getNodes().size());
+        Set<Object> caches = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (RecurringNodeStats node : stats.getNodes()) {
+            String name = node.getNode().getName();
+            RecurrenceRuleCache ruleCache = internalCluster().getInstance(RecurrenceRuleCacheService.class, name).cache();
+            RecurringFilterCache filterCache = internalCluster().getInstance(RecurringFilterCacheService.class, name).cache();
+            caches.add(ruleCache);
+            caches.add(filterCache);
+            for (CacheStats cache : node.getCaches()) {
+                CacheStats expected = "rrule_cache".equals(cache.getName()) ? ruleCache.stats() : filterCache.stats();
+                assertEquals(expected.getMisses(), cache.getMisses());
+                assertEquals(expected.getCount(), cache.getCount());
+            }
+        }
+        assertEquals(2 * internalCluster().size(), caches.size());
+    }
+
     private XContentBuilder createDoc(String name, String dtstart, String dtend, String rrule) throws IOException {
         return jsonBuilder().startObject()
                 .field("name", name)
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devmaster.elasticsearch.rrule;
+
+import com.google.ical.compat.jodatime.LocalDateIterator;
+import com.google.ical.compat.jodatime.LocalDateIteratorFactory;
+import org.devmaster.elasticsearch.EpochDays;
+import org.elasticsearch.common.settings.Settings;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecurrenceRuleTests {
+
+    private static final String[] RULES = {
+            "RRULE:FREQ=WEEKLY;BYDAY=TU,TH;WKST=SU",
+            "RRULE:FREQ=MONTHLY;BYDAY=2WE;COUNT=4",
+            "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29",
+            "RRULE:FREQ=DAILY;INTERVAL=3;UNTIL=20180301",
+            "RRULE:FREQ=DAILY\nEXDATE:20180207,20180209",
+            "RRULE:FREQ=WEEKLY;BYDAY=MO\nRDATE:20180210\nEXRULE:FREQ=MONTHLY;BYMONTHDAY=12",
+            "RRULE:FREQ=DAILY\r\n ;INTERVAL=4",
+            "garbage\nRRULE:FREQ=MONTHLY;BYMONTHDAY=-1",
+            "FREQ=DAILY",
+    };
+
+    @Test
+    public void testSameOccurrencesAsFactory() throws ParseException {
+        for (String text : RULES) {
+            RecurrenceRule rule = RecurrenceRule.parse(text);
+            for (LocalDate start = new LocalDate("2018-02-05"); start.isBefore(new LocalDate("2018-03-10")); start = start.plusDays(3)) {
+                assertEquals(text, occurrences(LocalDateIteratorFactory.createLocalDateIterator(text, start, false)),
+                        occurrences(rule.iterator(start, false)));
+            }
+        }
+    }
+
+    @Test
+    public void testNextOccurrenceMatchesIterator() throws ParseException {
+        String[] shapes = {
+                "RRULE:FREQ=DAILY",
+                "RRULE:FREQ=DAILY;INTERVAL=%d",
+                "RRULE:FREQ=DAILY;BYDAY=MO,WE,FR",
+                "RRULE:FREQ=WEEKLY",
+                "RRULE:FREQ=WEEKLY;INTERVAL=%d;BYDAY=SU,TH",
+                "RRULE:FREQ=WEEKLY;INTERVAL=%d;BYDAY=SU,MO;WKST=SU",
+                "RRULE:FREQ=MONTHLY",
+                "RRULE:FREQ=MONTHLY;INTERVAL=%d;BYMONTHDAY=31,-1",
+                "RRULE:FREQ=MONTHLY;BYMONTHDAY=10;COUNT=%d",
+                "RRULE:FREQ=MONTHLY;BYDAY=2SU,-1FR",
+                "RRULE:FREQ=MONTHLY;BYDAY=5SU;UNTIL=20250101",
+                "RRULE:FREQ=MONTHLY;BYMONTH=2,8;BYMONTHDAY=29",
+                "RRULE:FREQ=YEARLY",
+                "RRULE:FREQ=YEARLY;INTERVAL=%d;BYMONTH=2;BYMONTHDAY=29",
+                "RRULE:FREQ=YEARLY;BYMONTH=5;BYDAY=2SU",
+                "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30",
+                "RRULE:FREQ=YEARLY;BYMONTHDAY=-1;COUNT=%d",
+        };
+        Random random = new Random(0);
+        int answered = 0;
+        for (int i = 0; i < 2000; i++) {
+            String text = String.format(shapes[random.nextInt(shapes.length)], 1 + random.nextInt(10));
+            RecurrenceRule rule = RecurrenceRule.parse(text);
+            LocalDate start = new LocalDate("1995-01-01").plusDays(random.nextInt(10000));
+            LocalDate from = start.plusDays(random.nextInt(3000) - 10);
+
+            long next = rule.nextOccurrence(EpochDays.of(start), EpochDays.of(from));
+            if (next == RecurrenceRule.UNKNOWN) {
+                continue;
+            }
+            LocalDateIterator it = rule.iterator(start, false);
+            it.advanceTo(from);
+            long expected = it.hasNext() ? EpochDays.of(it.next()) : RecurrenceRule.NO_OCCURRENCE;
+            assertEquals(text + " from " + start + " advanced to " + from, expected, next);
+            answered++;
+        }
+        assertTrue(answered > 1500);
+        assertEquals(RecurrenceRule.UNKNOWN, RecurrenceRule.parse("RRULE:FREQ=MONTHLY;BYSETPOS=-1;BYDAY=MO,FR")
+                .nextOccurrence(EpochDays.of(new LocalDate("2018-02-05")), EpochDays.of(new LocalDate("2018-03-05"))));
+        assertNotEquals(RecurrenceRule.UNKNOWN, RecurrenceRule.parse("FREQ=DAILY")
+                .nextOccurrence(EpochDays.of(new LocalDate("2018-02-05")), EpochDays.of(new LocalDate("2018-03-05"))));
+    }
+
+    @Test
+    public void testCountOccurrencesMatchesIterator() throws ParseException {
+        String[] shapes = {
+                "RRULE:FREQ=DAILY",
+                "RRULE:FREQ=DAILY;INTERVAL=%d",
+                "RRULE:FREQ=DAILY;BYDAY=MO,WE,FR;COUNT=%d",
+                "RRULE:FREQ=DAILY;BYDAY=SA;UNTIL=20050101",
+                "RRULE:FREQ=WEEKLY",
+                "RRULE:FREQ=WEEKLY;INTERVAL=%d;BYDAY=SU,TH",
+                "RRULE:FREQ=WEEKLY;INTERVAL=%d;BYDAY=SU,MO;WKST=SU",
+                "RRULE:FREQ=WEEKLY;BYDAY=TU,FR;COUNT=%d",
+                "RRULE:FREQ=WEEKLY;INTERVAL=3;UNTIL=20000301",
+        };
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            String text = String.format(shapes[random.nextInt(shapes.length)], 1 + random.nextInt(10));
+            RecurrenceRule rule = RecurrenceRule.parse(text);
+            LocalDate start = new LocalDate("1995-01-01").plusDays(random.nextInt(5000));
+            LocalDate from = start.plusDays(random.nextInt(1000) - 10);
+            LocalDate to = from.plusDays(random.nextInt(400));
+
+            long expected = 0;
+            LocalDateIterator it = rule.iterator(start, false);
+            while (it.hasNext()) {
+                LocalDate day = it.next();
+                if (day.isAfter(to)) {
+                    break;
+                }
+                if (!day.isBefore(from)) {
+                    expected++;
+                }
+            }
+            assertEquals(text + " from " + start + " between " + from + " and " + to, expected,
+                    rule.countOccurrences(EpochDays.of(start), EpochDays.of(from), EpochDays.of(to)));
+        }
+        assertEquals(RecurrenceRule.UNKNOWN, RecurrenceRule.parse("RRULE:FREQ=MONTHLY")
+                .countOccurrences(EpochDays.of(new LocalDate("2018-02-05")), 0, EpochDays.of(new LocalDate("2019-02-05"))));
+    }
+
+    @Test
+    public void testStrictIteratorReportsBadLines() throws ParseException {
+        RecurrenceRule rule = RecurrenceRule.parse("garbage\nRRULE:FREQ=MONTHLY");
+        assertFalse(rule.isValid());
+        rule.iterator(new LocalDate("2018-02-05"), false);
+        try {
+            rule.iterator(new LocalDate("2018-02-05"), true);
+            fail("expected a ParseException");
+        } catch (ParseException e) {
+            // expected
+        }
+        assertTrue(RecurrenceRule.parse("RRULE:FREQ=MONTHLY").isValid());
+    }
+
+    @Test
+    public void testCacheSharesEquivalentTexts() {
+        RecurrenceRuleCache cache = new RecurrenceRuleCache(Settings.EMPTY, null);
+        RecurrenceRule rule = cache.get("RRULE:FREQ=DAILY\nEXDATE:20180207");
+        assertSame(rule, cache.get("RRULE:FREQ=DAILY\nEXDATE:20180207"));
+        assertSame(rule, cache.get("  RRULE:FREQ=DAILY\r\nEXDATE:20180207\n"));
+        assertSame(rule, cache.get("RRULE:FREQ=DA\r\n ILY\nEXDATE:20180207"));
+        assertEquals(1, cache.count());
+        assertTrue(cache.ramBytesUsed() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.ramBytesUsed());
+    }
+
+    private static List<LocalDate> occurrences(LocalDateIterator it) {
+        List<LocalDate> dates = new ArrayList<>();
+        for (int i = 0; i < 20 && it.hasNext(); i++) {
+            dates.add(it.next());
+        }
+        return dates;
+    }
+}